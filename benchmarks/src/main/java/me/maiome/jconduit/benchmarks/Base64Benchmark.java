@@ -0,0 +1,52 @@
+package me.maiome.jconduit.benchmarks;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import me.maiome.jconduit.util.Base64;
+
+/**
+ * Decoding Base64 payloads of a few sizes (as file.download returns them), into memory and to a file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int size;
+
+    private String encoded;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] raw = new byte[this.size];
+        new Random(42).nextBytes(raw);
+        this.encoded = Base64.encodeBytes(raw);
+        this.file = File.createTempFile("jconduit-bench", ".bin");
+        this.file.deleteOnExit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public byte[] decode() throws IOException {
+        return Base64.decode(this.encoded);
+    }
+
+    @Benchmark
+    public long decodeToFile() throws IOException {
+        Base64.decodeToFile(this.encoded, this.file.getPath());
+        return this.file.length();
+    }
+}
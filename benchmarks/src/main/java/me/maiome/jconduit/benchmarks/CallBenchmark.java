@@ -0,0 +1,53 @@
+package me.maiome.jconduit.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+/**
+ * The whole ConduitClient.call() path (argument encoding, session handling, parsing and result extraction)
+ * against an in-process transport that answers with a canned response, so no time goes to the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallBenchmark {
+
+    private static final String API_URL = "http://stub.invalid/api/";
+
+    @Param({ "1", "50", "500" })
+    public int tasks;
+
+    private ConduitClient client;
+    private Map<String, Object> argMap;
+
+    @Setup
+    public void setup() throws JSONException {
+        StubTransport transport = new StubTransport(Payloads.taskResponse(this.tasks).getBytes(java.nio.charset.Charset.forName("UTF-8")));
+        ConduitTransports.setDefault(transport);
+        ConduitSessionCache.getDefault().invalidate("bench", "certificate", API_URL, null);
+        this.client = ConduitClient.fromCertificate("bench", "certificate", API_URL);
+        if (this.client == null) {
+            throw new IllegalStateException("Handshake with the stub transport failed");
+        }
+        this.client.setTransport(transport);
+
+        this.argMap = new HashMap<String, Object>();
+        this.argMap.put("status", "status-open");
+        this.argMap.put("order", "order-modified");
+        this.argMap.put("limit", this.tasks);
+        this.argMap.put("projectPHIDs", Arrays.asList("PHID-PROJ-aaaaaaaaaaaaaaaaaaaa", "PHID-PROJ-bbbbbbbbbbbbbbbbbbbb"));
+    }
+
+    @Benchmark
+    public JSONObject call() throws ConduitException {
+        return this.client.call("maniphest.query", this.argMap);
+    }
+}
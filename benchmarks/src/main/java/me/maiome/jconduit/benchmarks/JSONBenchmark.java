@@ -0,0 +1,135 @@
+package me.maiome.jconduit.benchmarks;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Parsing and serializing Conduit responses of a few sizes, and quoting the strings in them. Responses are parsed
+ * from a String, and from their UTF-8 bytes through a Reader, through JSONByteTokener and lazily; the lazy parse is
+ * also measured against the eager one with the title of every task read back, by iterating and by name. A result
+ * of number rows, ten per task, is parsed from a String and through JSONByteTokener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JSONBenchmark {
+
+    @Param({ "1", "50", "500" })
+    public int tasks;
+
+    private String response;
+    private byte[] bytes;
+    private String numbers;
+    private byte[] numberBytes;
+    private JSONObject parsed;
+    private String[] phids;
+    private String title;
+    private String description;
+
+    @Setup
+    public void setup() throws JSONException {
+        this.response = Payloads.taskResponse(this.tasks);
+        try {
+            this.bytes = this.response.getBytes("UTF-8");
+            this.numbers = Payloads.numberResponse(this.tasks * 10);
+            this.numberBytes = this.numbers.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new JSONException(e);
+        }
+        this.parsed = new JSONObject(this.response);
+        this.phids = JSONObject.getNames(this.parsed.getJSONObject("result"));
+        JSONObject task = this.parsed.getJSONObject("result").getJSONObject((String) this.parsed.getJSONObject("result").keys().next());
+        this.title = task.getString("title");
+        this.description = task.getString("description");
+    }
+
+    @Benchmark
+    public JSONObject parse() throws JSONException {
+        return new JSONObject(this.response);
+    }
+
+    @Benchmark
+    public JSONObject parseReader() throws Exception {
+        return new JSONObject(new JSONTokener(new InputStreamReader(new ByteArrayInputStream(this.bytes), "UTF-8")));
+    }
+
+    @Benchmark
+    public JSONObject parseStream() throws JSONException {
+        return new JSONObject(new JSONByteTokener(new ByteArrayInputStream(this.bytes)));
+    }
+
+    @Benchmark
+    public JSONObject parseBuffer() throws JSONException {
+        return new JSONObject(new JSONByteTokener(ByteBuffer.wrap(this.bytes)));
+    }
+
+    @Benchmark
+    public JSONObject parseLazy() throws JSONException {
+        return JSONObject.parseLazy(this.bytes);
+    }
+
+    @Benchmark
+    public int parseAndReadTitles() throws JSONException {
+        return readTitles(new JSONObject(new JSONByteTokener(ByteBuffer.wrap(this.bytes))));
+    }
+
+    @Benchmark
+    public int parseLazyAndReadTitles() throws JSONException {
+        return readTitles(JSONObject.parseLazy(this.bytes));
+    }
+
+    @Benchmark
+    public int parseLazyAndLookUpTitles() throws JSONException {
+        JSONObject result = JSONObject.parseLazy(this.bytes).getJSONObject("result");
+        int length = 0;
+        for (String phid : this.phids) {
+            length += result.getJSONObject(phid).getString("title").length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public JSONObject parseNumbers() throws JSONException {
+        return new JSONObject(this.numbers);
+    }
+
+    @Benchmark
+    public JSONObject parseNumbersBuffer() throws JSONException {
+        return new JSONObject(new JSONByteTokener(ByteBuffer.wrap(this.numberBytes)));
+    }
+
+    @Benchmark
+    public String serialize() {
+        return this.parsed.toString();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String quoteTitle() {
+        return JSONObject.quote(this.title);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String quoteDescription() {
+        return JSONObject.quote(this.description);
+    }
+
+    private static int readTitles(JSONObject response) throws JSONException {
+        JSONObject result = response.getJSONObject("result");
+        int length = 0;
+        for (Iterator keys = result.keys(); keys.hasNext(); ) {
+            length += result.getJSONObject((String) keys.next()).getString("title").length();
+        }
+        return length;
+    }
+}
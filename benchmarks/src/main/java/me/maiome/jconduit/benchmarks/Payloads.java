@@ -0,0 +1,97 @@
+package me.maiome.jconduit.benchmarks;
+
+import java.util.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Builds the Conduit responses the benchmarks parse: a maniphest.query result with a given number of tasks,
+ * with the field mix and string escaping of real task data, and a result made up mostly of numbers.
+ */
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns a maniphest.query result holding the given number of tasks.
+     *
+     * @params int tasks
+     * @returns JSONObject
+     */
+    public static JSONObject taskResult(int tasks) throws JSONException {
+        Random random = new Random(42);
+        JSONObject result = new JSONObject();
+        for (int i = 0; i < tasks; i++) {
+            String phid = "PHID-TASK-" + Long.toString(Math.abs(random.nextLong()), 36);
+            JSONObject task = new JSONObject();
+            task.put("id", Integer.toString(1000 + i));
+            task.put("phid", phid);
+            task.put("authorPHID", "PHID-USER-" + Long.toString(Math.abs(random.nextLong()), 36));
+            task.put("ownerPHID", random.nextBoolean() ? JSONObject.NULL : "PHID-USER-" + Long.toString(Math.abs(random.nextLong()), 36));
+            task.put("status", random.nextBoolean() ? "open" : "resolved");
+            task.put("isClosed", random.nextBoolean());
+            task.put("priority", "Normal");
+            task.put("priorityColor", "orange");
+            task.put("title", "Task " + i + ": \"quoted\" title with a tab\tand unicode \u00e9\u00e8\u4e2d");
+            task.put("description", description(random));
+            task.put("projectPHIDs", new JSONArray(Arrays.asList("PHID-PROJ-" + Long.toString(Math.abs(random.nextLong()), 36))));
+            task.put("uri", "https://phabricator.example.com/T" + (1000 + i));
+            task.put("dateCreated", Long.toString(1400000000L + random.nextInt(100000000)));
+            task.put("dateModified", Long.toString(1400000000L + random.nextInt(100000000)));
+            task.put("auxiliary", new JSONObject().put("std:maniphest:points", random.nextInt(13)));
+            result.put(phid, task);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a whole Conduit response around a maniphest.query result, as the server sends it.
+     *
+     * @params int tasks
+     * @returns String
+     */
+    public static String taskResponse(int tasks) throws JSONException {
+        JSONObject response = new JSONObject();
+        response.put("result", taskResult(tasks));
+        response.put("error_code", JSONObject.NULL);
+        response.put("error_info", JSONObject.NULL);
+        return response.toString();
+    }
+
+    /**
+     * Returns a whole Conduit response whose result is mostly numbers: a row of ids, timestamps, counts and
+     * ratios for each of the given number of tasks, as a feed or metrics method sends them.
+     *
+     * @params int tasks
+     * @returns String
+     */
+    public static String numberResponse(int tasks) throws JSONException {
+        Random random = new Random(42);
+        JSONArray rows = new JSONArray();
+        for (int i = 0; i < tasks; i++) {
+            JSONArray row = new JSONArray();
+            row.put(1000 + i);
+            row.put(1400000000000L + random.nextInt(1000000000));
+            row.put(random.nextInt(13));
+            row.put(-random.nextInt(100000));
+            row.put(random.nextInt(10000) / 100.0);
+            row.put(random.nextDouble());
+            rows.put(row);
+        }
+        JSONObject response = new JSONObject();
+        response.put("result", rows);
+        response.put("error_code", JSONObject.NULL);
+        response.put("error_info", JSONObject.NULL);
+        return response.toString();
+    }
+
+    private static String description(Random random) {
+        StringBuilder text = new StringBuilder();
+        int lines = 2 + random.nextInt(6);
+        for (int i = 0; i < lines; i++) {
+            text.append("Steps to reproduce ").append(i).append(": open </script> in \"C:\\path\\file\" and wait.\n");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package me.maiome.jconduit.benchmarks;
+
+import java.io.*;
+import java.net.*;
+
+import me.maiome.jconduit.conduit.*;
+
+/**
+ * An in-process ConduitTransport: requests are encoded into a reusable sink and every response is the same
+ * canned body, so a benchmark sees the client's own serialize and parse costs without any network.
+ */
+public class StubTransport implements ConduitTransport {
+
+    private static final byte[] HANDSHAKE = "{\"result\":{\"sessionKey\":\"stub-session\",\"connectionID\":1},\"error_code\":null,\"error_info\":null}"
+        .getBytes(java.nio.charset.Charset.forName("UTF-8"));
+
+    private final byte[] response;
+
+    /**
+     * Holds the most recent request body, so encoding can't be optimised away.
+     */
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(4096);
+
+    public StubTransport(byte[] response) {
+        this.response = response;
+    }
+
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        synchronized (this.sink) {
+            this.sink.reset();
+            body.writeTo(this.sink);
+        }
+        if (url.getPath().endsWith("conduit.connect")) {
+            return new ByteArrayInputStream(HANDSHAKE);
+        }
+        return new ByteArrayInputStream(this.response);
+    }
+
+    /**
+     * Returns the size of the last request body written.
+     */
+    public int getLastRequestSize() {
+        synchronized (this.sink) {
+            return this.sink.size();
+        }
+    }
+}
@@ -1,22 +1,23 @@
 package me.maiome.jconduit.conduit;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import me.maiome.jconduit.json.*;
 import me.maiome.jconduit.util.*;
 
+/**
+ * Callback-style asynchronous call on a thread of its own. onFetchCompleted() is invoked by that thread as soon
+ * as the response has been set, and getFuture() completes at the same moment, so join() and getResponse() work
+ * as they always have. Callers that don't need a thread per call should use {@link ConduitClient#callAsync},
+ * which runs on the client's executor.
+ */
 public abstract class ConduitAsyncClient extends Thread {
 
-    // max number of wait retries; data should be received fairly quickly, so this should be fairly low.
-    private static final int MAX_RETRIES = 10;
+    // time to wait for the call to complete before the timeout callback is run.
+    private static final long CALL_TIMEOUT = 5000;
 
-    // delay between attempts to finish call
-    private static final int CALL_COMPLETION_DELAY = 500;
-
-    // connection lock
-    private static final Object threadConnectionLock = new Object();
-
-    // our event timer
-    private static final Timer callTimer = new Timer("ConduitAsyncClient Call Completion", true);
+    // our timeout timer
+    private static final Timer callTimer = new Timer("ConduitAsyncClient Call Timeout", true);
 
     // connection information
     protected String clientUsername;
@@ -30,24 +31,17 @@ public abstract class ConduitAsyncClient extends Thread {
     protected ConduitClient conduitClient;
 
     // async state variables
-    private boolean completed = false;
-    private JSONObject response = null;
-
-    // waiting task for call completion
-    private TimerTask waitingTask = new TimerTask() {
-        int waitRetries = 0;
+    private volatile JSONObject response = null;
+    private final ConduitFuture future = new ConduitFuture();
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private long timeout = CALL_TIMEOUT;
 
+    // fires the timeout callback if the call hasn't completed in time
+    private final TimerTask timeoutTask = new TimerTask() {
         @Override
         public void run() {
-            if (completed) {
-                onFetchCompleted();
-            } else if (!completed) {
-                if (this.waitRetries >= MAX_RETRIES) {
-                    onFetchTimeout();
-                    return;
-                }
-                scheduleWaitingTask();
-                this.waitRetries++;
+            if (finished.compareAndSet(false, true)) {
+                onFetchTimeout();
             }
         }
     };
@@ -60,16 +54,50 @@ public abstract class ConduitAsyncClient extends Thread {
     public ConduitAsyncClient(String method, Map<String, Object> argMap) {
         this.method = method;
         this.argMap = argMap;
+        this.future.addCallback(new ConduitFuture.Callback() {
+            @Override
+            public void onSuccess(JSONObject result) {
+                fetchFinished();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                fetchFinished();
+            }
+        });
     }
 
     /**
-     * Schedules the call completion task with our timer, according to CALL_COMPLETION_DELAY.
+     * Runs the completion callback, unless the timeout callback already ran.
      *
      * @params none
      * @returns none
      */
-    private void scheduleWaitingTask() {
-        callTimer.schedule(this.waitingTask, CALL_COMPLETION_DELAY);
+    private void fetchFinished() {
+        this.timeoutTask.cancel();
+        if (this.finished.compareAndSet(false, true)) {
+            onFetchCompleted();
+        }
+    }
+
+    /**
+     * Sets how long (in ms) to wait for the call before onFetchTimeout() is run.
+     *
+     * @params long timeout
+     * @returns none
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the future that is completed when the response has been set.
+     *
+     * @params none
+     * @returns ConduitFuture
+     */
+    public ConduitFuture getFuture() {
+        return this.future;
     }
 
     /**
@@ -96,20 +124,20 @@ public abstract class ConduitAsyncClient extends Thread {
     }
 
     /**
-     * Sets the response and applies the flag that signals the completion call. This *MUST* be run
-     * for the whole system to work correctly! Otherwise, the completion callback will never be reached and the
-     * timeout callback will most likely run.
+     * Sets the response and completes the future, which runs the completion callback right away. This *MUST*
+     * be run for the whole system to work correctly! Otherwise, the completion callback will never be reached
+     * and the timeout callback will run.
      *
      * @params JSONObject response
      * @returns none
      */
     public void setResponse(JSONObject obj) {
         this.response = obj;
-        this.completed = true;
+        this.future.complete(obj);
     }
 
     /**
-     * Runs the thread. Does some checking, and then starts the waiting task.
+     * Starts the call. Does some checking, then starts the thread and arms the timeout.
      *
      * @params none
      * @returns none
@@ -120,11 +148,8 @@ public abstract class ConduitAsyncClient extends Thread {
             throw new IllegalArgumentException("You must provide a username, certificate, and Conduit API url to connect.");
         }
         this.conduitClient = ConduitClient.fromCertificate(this.clientUsername, this.clientCertificate, this.clientApiUrl);
-        synchronized(threadConnectionLock) {
-            // System.out.println("Running overridden start.."); // debug
-            super.start();
-            this.scheduleWaitingTask();
-        }
+        super.start();
+        callTimer.schedule(this.timeoutTask, this.timeout);
     }
 
     /**
@@ -138,6 +163,7 @@ public abstract class ConduitAsyncClient extends Thread {
     public void run() {
         if (this.conduitClient == null) {
             setResponse(null);
+            return;
         }
         try {
             JSONObject respObj = this.conduitClient.call(method, argMap);
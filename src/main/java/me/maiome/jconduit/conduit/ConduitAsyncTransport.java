@@ -0,0 +1,32 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * A transport that can send requests without tying up a thread while the server works. When a client's
+ * transport implements this, ConduitClient.callAsync() uses it instead of running a blocking call on the
+ * client's executor.
+ */
+public interface ConduitAsyncTransport extends ConduitTransport {
+
+    /**
+     * Receives the outcome of an asynchronous request. Exactly one of the methods is invoked, once.
+     */
+    public interface ResponseHandler {
+        /**
+         * Called with the complete response body; it can be read without blocking.
+         */
+        public void onResponse(InputStream body);
+
+        public void onFailure(Throwable error);
+    }
+
+    /**
+     * Sends a POST request with the given form body and hands the response to the handler when it arrives.
+     *
+     * @params URL url, ConduitRequestEncoder body, ResponseHandler handler
+     * @returns none
+     */
+    public void postAsync(URL url, ConduitRequestEncoder body, ResponseHandler handler);
+}
@@ -0,0 +1,244 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Coalesces identical Conduit calls that are in flight at the same time ("singleflight"). The first caller
+ * for a given method and arguments performs the call; callers that arrive before it finishes wait for it and
+ * get the same result (or exception) instead of sending their own request. Nothing is kept once the call
+ * completes, so this is not a cache.
+ *
+ * Only methods matching one of the coalescer's method patterns are coalesced; by default these are the read
+ * methods (*.query, *.search, phid.lookup, ...). Coalesced callers share one parsed JSONObject, so results
+ * must be treated as read-only.
+ *
+ * Asynchronous calls (see {@link #callAsync}) are coalesced with each other, but not with blocking calls.
+ */
+public class ConduitCallCoalescer {
+
+    /**
+     * Method patterns coalesced by default. See {@link ConduitCallKey#matches} for the pattern syntax.
+     */
+    public static final List<String> DEFAULT_METHOD_PATTERNS = Collections.unmodifiableList(Arrays.asList(
+        "*.query", "*.search", "*.whoami", "phid.lookup", "conduit.ping"));
+
+    private final ConcurrentHashMap<String, FutureTask<JSONObject>> inFlight = new ConcurrentHashMap<String, FutureTask<JSONObject>>();
+    private final ConcurrentHashMap<String, ConduitFuture> inFlightAsync = new ConcurrentHashMap<String, ConduitFuture>();
+    private final Set<String> methodPatterns = new CopyOnWriteArraySet<String>(DEFAULT_METHOD_PATTERNS);
+
+    // coalescing statistics
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+
+    public ConduitCallCoalescer() {
+    }
+
+    /**
+     * Adds a method pattern to coalesce.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void addMethodPattern(String pattern) {
+        this.methodPatterns.add(pattern);
+    }
+
+    /**
+     * Stops coalescing a method pattern.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void removeMethodPattern(String pattern) {
+        this.methodPatterns.remove(pattern);
+    }
+
+    /**
+     * Returns true if calls to the method are coalesced.
+     *
+     * @params String method
+     * @returns boolean
+     */
+    public boolean isCoalesced(String method) {
+        for (String pattern : this.methodPatterns) {
+            if (ConduitCallKey.matches(pattern, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a call, or joins an identical call that is already in flight. The scope separates callers whose
+     * results may differ (different servers or users).
+     *
+     * @params String scope, String method, Map<String, Object> argMap, Callable<JSONObject> call
+     * @returns JSONObject
+     */
+    public JSONObject call(String scope, String method, Map<String, Object> argMap, Callable<JSONObject> call) throws ConduitException {
+        if (!this.isCoalesced(method)) {
+            this.bypassed.incrementAndGet();
+            return run(call);
+        }
+
+        String key = ConduitCallKey.of(scope, method, argMap);
+        FutureTask<JSONObject> task = this.inFlight.get(key);
+        boolean leader = false;
+        if (task == null) {
+            FutureTask<JSONObject> created = new FutureTask<JSONObject>(call);
+            task = this.inFlight.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            this.executed.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                this.inFlight.remove(key, task);
+            }
+        } else {
+            this.coalesced.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new JSONObject();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Starts an asynchronous call, or joins an identical asynchronous call that is already in flight. The call
+     * returns the future of the request it started. Every caller gets a future of its own, so cancelling one
+     * doesn't cancel the others.
+     *
+     * @params String scope, String method, Map<String, Object> argMap, Callable<ConduitFuture> call
+     * @returns ConduitFuture
+     */
+    public ConduitFuture callAsync(String scope, String method, Map<String, Object> argMap, Callable<ConduitFuture> call) {
+        if (!this.isCoalesced(method)) {
+            this.bypassed.incrementAndGet();
+            return start(call);
+        }
+
+        final String key = ConduitCallKey.of(scope, method, argMap);
+        ConduitFuture shared = this.inFlightAsync.get(key);
+        if (shared == null) {
+            final ConduitFuture created = new ConduitFuture();
+            shared = this.inFlightAsync.putIfAbsent(key, created);
+            if (shared == null) {
+                this.executed.incrementAndGet();
+                // registered first, so the call is gone from the map before any caller's callback runs.
+                created.addCallback(new ConduitFuture.Callback() {
+                    @Override
+                    public void onSuccess(JSONObject result) {
+                        inFlightAsync.remove(key, created);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        inFlightAsync.remove(key, created);
+                    }
+                });
+                forward(start(call), created);
+                return forward(created, new ConduitFuture());
+            }
+        }
+        this.coalesced.incrementAndGet();
+        return forward(shared, new ConduitFuture());
+    }
+
+    private static ConduitFuture start(Callable<ConduitFuture> call) {
+        try {
+            return call.call();
+        } catch (java.lang.Exception e) {
+            ConduitFuture failed = new ConduitFuture();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Completes a future with the outcome of another, and returns it.
+     */
+    private static ConduitFuture forward(ConduitFuture from, final ConduitFuture to) {
+        from.addCallback(new ConduitFuture.Callback() {
+            @Override
+            public void onSuccess(JSONObject result) {
+                to.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                to.completeExceptionally(error);
+            }
+        });
+        return to;
+    }
+
+    private static JSONObject run(Callable<JSONObject> call) throws ConduitException {
+        try {
+            return call.call();
+        } catch (java.lang.Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static ConduitException rethrow(Throwable cause) throws ConduitException {
+        if (cause instanceof ConduitException) {
+            throw (ConduitException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    /**
+     * Returns the number of calls currently in flight through the coalescer.
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size() + this.inFlightAsync.size();
+    }
+
+    /**
+     * Returns the number of coalesced calls that actually went to the server.
+     */
+    public long getExecutedCount() {
+        return this.executed.get();
+    }
+
+    /**
+     * Returns the number of calls that joined another caller's request instead of sending their own.
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Returns the number of calls that weren't eligible for coalescing.
+     */
+    public long getBypassedCount() {
+        return this.bypassed.get();
+    }
+
+    public String toString() {
+        long executed = this.getExecutedCount();
+        long coalesced = this.getCoalescedCount();
+        return String.format("ConduitCallCoalescer[executed=%d, coalesced=%d, bypassed=%d, fanIn=%.2f]", executed, coalesced,
+            this.getBypassedCount(), executed == 0 ? 0.0 : (double) (executed + coalesced) / executed);
+    }
+}
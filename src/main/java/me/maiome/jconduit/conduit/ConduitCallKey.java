@@ -0,0 +1,141 @@
+package me.maiome.jconduit.conduit;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Builds a canonical key for a Conduit call, so that calls with the same method and arguments get the same key
+ * however their maps happen to be ordered. Object keys are sorted and the session block (__conduit__) is left
+ * out; the scope passed in should say whose session the call runs under.
+ */
+final class ConduitCallKey {
+
+    private ConduitCallKey() {
+    }
+
+    /**
+     * Returns the key for a call.
+     *
+     * @params String scope, String method, Map<String, Object> argMap
+     * @returns String
+     */
+    static String of(String scope, String method, Map<String, Object> argMap) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(scope).append('\n').append(method).append('\n');
+        Map<String, Object> args = argMap;
+        if (argMap.containsKey("__conduit__")) {
+            args = new HashMap<String, Object>(argMap);
+            args.remove("__conduit__");
+        }
+        append(key, args);
+        return key.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void append(StringBuilder key, Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            key.append("null");
+        } else if (value instanceof String || value instanceof Character) {
+            key.append(JSONObject.quote(value.toString()));
+        } else if (value instanceof Number) {
+            try {
+                key.append(JSONObject.numberToString((Number) value));
+            } catch (JSONException e) {
+                key.append(value);
+            }
+        } else if (value instanceof Boolean) {
+            key.append(value);
+        } else if (value instanceof Map) {
+            SortedMap<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                if (entry.getValue() != null) {
+                    sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+            }
+            appendObject(key, sorted);
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            SortedMap<String, Object> sorted = new TreeMap<String, Object>();
+            Iterator keys = object.keys();
+            while (keys.hasNext()) {
+                String name = keys.next().toString();
+                sorted.put(name, object.opt(name));
+            }
+            appendObject(key, sorted);
+        } else if (value instanceof Collection) {
+            key.append('[');
+            boolean first = true;
+            for (Object item : (Collection<Object>) value) {
+                if (!first) {
+                    key.append(',');
+                }
+                first = false;
+                append(key, item);
+            }
+            key.append(']');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            key.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                append(key, array.opt(i));
+            }
+            key.append(']');
+        } else if (value.getClass().isArray()) {
+            key.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                append(key, Array.get(value, i));
+            }
+            key.append(']');
+        } else if (value instanceof JSONString) {
+            key.append(((JSONString) value).toJSONString());
+        } else {
+            Object wrapped = JSONObject.wrap(value);
+            if (wrapped == null || wrapped == value) {
+                key.append(JSONObject.quote(value.toString()));
+            } else {
+                append(key, wrapped);
+            }
+        }
+    }
+
+    private static void appendObject(StringBuilder key, SortedMap<String, Object> sorted) {
+        key.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            if (!first) {
+                key.append(',');
+            }
+            first = false;
+            key.append(JSONObject.quote(entry.getKey())).append(':');
+            append(key, entry.getValue());
+        }
+        key.append('}');
+    }
+
+    /**
+     * Returns true if a Conduit method name matches a pattern. A pattern is an exact method name, or may start
+     * or end with "*" to match any prefix or suffix ("*.query", "differential.*"); "*" alone matches everything.
+     *
+     * @params String pattern, String method
+     * @returns boolean
+     */
+    static boolean matches(String pattern, String method) {
+        if (pattern.equals("*")) {
+            return true;
+        } else if (pattern.startsWith("*")) {
+            return method.endsWith(pattern.substring(1));
+        } else if (pattern.endsWith("*")) {
+            return method.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return pattern.equals(method);
+    }
+}
@@ -0,0 +1,279 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Fails calls to an endpoint fast once it looks down, rather than letting every caller wait out its timeouts.
+ *
+ * While CLOSED, the outcome of every request is counted in a rolling window. Once the window holds at least
+ * minimumRequests and the share that failed with an I/O error reaches failureThreshold, the breaker OPENs: for
+ * openDuration every call fails at once with a ConduitException whose error code is ERR_CIRCUIT_OPEN. After
+ * that the breaker is HALF_OPEN and lets up to probeRequests calls through. If they all succeed it closes
+ * again; if any fails it reopens for another openDuration.
+ *
+ * A Conduit error counts as a success here, since the server answered.
+ */
+public class ConduitCircuitBreaker {
+
+    /**
+     * Error code of the ConduitException thrown for calls refused by an open breaker.
+     */
+    public static final String ERR_CIRCUIT_OPEN = "ERR-CIRCUIT-OPEN";
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    public static final double DEFAULT_FAILURE_THRESHOLD = 0.5;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 20;
+    public static final long DEFAULT_WINDOW = 10000;
+    public static final long DEFAULT_OPEN_DURATION = 5000;
+    public static final int DEFAULT_PROBE_REQUESTS = 3;
+
+    /**
+     * Number of buckets the rolling window is split into.
+     */
+    private static final int BUCKETS = 10;
+
+    /**
+     * Shared breakers, one per endpoint.
+     */
+    private static final ConcurrentHashMap<String, ConduitCircuitBreaker> endpoints = new ConcurrentHashMap<String, ConduitCircuitBreaker>();
+
+    // whether new clients use their endpoint's shared breaker.
+    private static volatile boolean enabledByDefault = false;
+
+    private final double failureThreshold;
+    private final int minimumRequests;
+    private final long bucketLength;
+    private final long openDuration;
+    private final int probeRequests;
+
+    // rolling window: requests and failures per bucket, and the bucket number each slot currently holds.
+    private final long[] bucketIds = new long[BUCKETS];
+    private final int[] requests = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+
+    private int state = CLOSED;
+    private long openedAt = 0;
+    private int probesAllowed = 0;
+    private int probesSucceeded = 0;
+
+    // breaker statistics
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * Constructs a breaker with the default settings.
+     *
+     * @params none
+     */
+    public ConduitCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_MINIMUM_REQUESTS, DEFAULT_WINDOW, DEFAULT_OPEN_DURATION, DEFAULT_PROBE_REQUESTS);
+    }
+
+    /**
+     * Constructs a breaker.
+     *
+     * @params double failureThreshold, int minimumRequests, long window (ms), long openDuration (ms), int probeRequests
+     */
+    public ConduitCircuitBreaker(double failureThreshold, int minimumRequests, long window, long openDuration, int probeRequests) {
+        if (failureThreshold <= 0 || failureThreshold > 1) {
+            throw new IllegalArgumentException("failureThreshold must be above 0 and at most 1.");
+        }
+        if (window < BUCKETS || probeRequests < 1) {
+            throw new IllegalArgumentException("window must be at least " + BUCKETS + " ms and probeRequests at least 1.");
+        }
+        this.failureThreshold = failureThreshold;
+        this.minimumRequests = minimumRequests;
+        this.bucketLength = window / BUCKETS;
+        this.openDuration = openDuration;
+        this.probeRequests = probeRequests;
+    }
+
+    /**
+     * Returns the shared breaker for an endpoint, creating it with the default settings if needed.
+     *
+     * @params String apiURL
+     * @returns ConduitCircuitBreaker
+     */
+    public static ConduitCircuitBreaker forEndpoint(String apiURL) {
+        ConduitCircuitBreaker breaker = endpoints.get(apiURL);
+        if (breaker == null) {
+            ConduitCircuitBreaker created = new ConduitCircuitBreaker();
+            breaker = endpoints.putIfAbsent(apiURL, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Sets whether new clients (including those made by ConduitAsyncClient and ConduitUtil) use their
+     * endpoint's shared breaker.
+     *
+     * @params boolean enabled
+     * @returns none
+     */
+    public static void setEnabledByDefault(boolean enabled) {
+        enabledByDefault = enabled;
+    }
+
+    /**
+     * Returns the breaker a new client for the endpoint should use, or null if breakers aren't on by default.
+     *
+     * @params String apiURL
+     * @returns ConduitCircuitBreaker
+     */
+    public static ConduitCircuitBreaker getDefault(String apiURL) {
+        return enabledByDefault ? forEndpoint(apiURL) : null;
+    }
+
+    /**
+     * Lets a request through, or throws if the breaker is open. Every request let through must be followed by
+     * onSuccess(), onFailure() or release().
+     *
+     * @params none
+     * @returns none
+     */
+    public void acquire() throws ConduitException {
+        if (!this.tryAcquire()) {
+            this.rejected.incrementAndGet();
+            throw new ConduitException(ERR_CIRCUIT_OPEN, "Circuit breaker is open after repeated failures; failing fast.");
+        }
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (this.state == OPEN) {
+            if (System.currentTimeMillis() - this.openedAt < this.openDuration) {
+                return false;
+            }
+            this.state = HALF_OPEN;
+            this.probesAllowed = this.probeRequests;
+            this.probesSucceeded = 0;
+        }
+        if (this.state == HALF_OPEN) {
+            if (this.probesAllowed == 0) {
+                return false;
+            }
+            this.probesAllowed--;
+        }
+        return true;
+    }
+
+    /**
+     * Records a request that got an answer from the server.
+     *
+     * @params none
+     * @returns none
+     */
+    public synchronized void onSuccess() {
+        if (this.state == HALF_OPEN) {
+            if (++this.probesSucceeded >= this.probeRequests) {
+                this.close();
+            }
+            return;
+        }
+        this.record(false);
+    }
+
+    /**
+     * Records a request that failed with an I/O error.
+     *
+     * @params none
+     * @returns none
+     */
+    public synchronized void onFailure() {
+        if (this.state == HALF_OPEN) {
+            this.open();
+            return;
+        }
+        this.record(true);
+        if (this.state == CLOSED) {
+            int total = 0;
+            int failed = 0;
+            long current = System.currentTimeMillis() / this.bucketLength;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (current - this.bucketIds[i] < BUCKETS) {
+                    total += this.requests[i];
+                    failed += this.failures[i];
+                }
+            }
+            if (total >= this.minimumRequests && failed >= total * this.failureThreshold) {
+                this.open();
+            }
+        }
+    }
+
+    /**
+     * Gives back a request that was let through but never sent.
+     *
+     * @params none
+     * @returns none
+     */
+    public synchronized void release() {
+        if (this.state == HALF_OPEN) {
+            this.probesAllowed++;
+        }
+    }
+
+    private void record(boolean failed) {
+        long bucket = System.currentTimeMillis() / this.bucketLength;
+        int slot = (int) (bucket % BUCKETS);
+        if (this.bucketIds[slot] != bucket) {
+            this.bucketIds[slot] = bucket;
+            this.requests[slot] = 0;
+            this.failures[slot] = 0;
+        }
+        this.requests[slot]++;
+        if (failed) {
+            this.failures[slot]++;
+        }
+    }
+
+    private void open() {
+        this.state = OPEN;
+        this.openedAt = System.currentTimeMillis();
+        this.opened.incrementAndGet();
+    }
+
+    private void close() {
+        this.state = CLOSED;
+        for (int i = 0; i < BUCKETS; i++) {
+            this.requests[i] = 0;
+            this.failures[i] = 0;
+        }
+    }
+
+    /**
+     * Returns CLOSED, OPEN or HALF_OPEN.
+     */
+    public synchronized int getState() {
+        if (this.state == OPEN && System.currentTimeMillis() - this.openedAt >= this.openDuration) {
+            return HALF_OPEN;
+        }
+        return this.state;
+    }
+
+    /**
+     * Returns the number of calls refused while the breaker was open.
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    /**
+     * Returns the number of times the breaker opened.
+     */
+    public long getOpenedCount() {
+        return this.opened.get();
+    }
+
+    public String toString() {
+        int state = this.getState();
+        return String.format("ConduitCircuitBreaker[state=%s, opened=%d, rejected=%d]",
+            state == CLOSED ? "closed" : state == OPEN ? "open" : "half-open", this.getOpenedCount(), this.getRejectedCount());
+    }
+}
@@ -4,6 +4,8 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 import me.maiome.jconduit.json.*;
 
@@ -12,6 +14,8 @@ import me.maiome.jconduit.json.*;
  */
 public class ConduitClient {
 
+    private static final ConduitInterceptor[] NO_INTERCEPTORS = new ConduitInterceptor[0];
+
     /**
      * The URL of the Conduit API that the client will attempt to connect to.
      */
@@ -27,6 +31,19 @@ public class ConduitClient {
      */
     private int connectionID;
 
+    /**
+     * Credentials and cache used to re-establish the session if the server expires it.
+     */
+    private String username;
+    private String certificate;
+    private ConduitSessionCache sessionCache;
+
+    /**
+     * Held while the session is renewed. The handshake is a network round trip, so it isn't done under this
+     * client's monitor, which only guards the session fields; a lock also doesn't pin a virtual thread's carrier.
+     */
+    private final ReentrantLock renewalLock = new ReentrantLock();
+
     /**
      * Keeps track of if we're authenticated or not.
      */
@@ -37,6 +54,67 @@ public class ConduitClient {
      */
     private JSONObject previousResponse = new JSONObject();
 
+    /**
+     * The transport that this client's calls are sent through.
+     */
+    private ConduitTransport transport = ConduitTransports.getDefault();
+
+    /**
+     * The executor that asynchronous calls run on.
+     */
+    private Executor executor = ConduitExecutors.getDefault();
+
+    /**
+     * Coalesces identical concurrent calls, if set.
+     */
+    private ConduitCallCoalescer coalescer = null;
+
+    /**
+     * Caches responses of read methods, if set.
+     */
+    private ConduitResponseCache responseCache = null;
+
+    /**
+     * Limits the requests in flight to the endpoint, if set.
+     */
+    private ConduitConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Fails calls fast while the endpoint is down, if set.
+     */
+    private ConduitCircuitBreaker circuitBreaker;
+
+    /**
+     * Limits the rate of calls per method, if set.
+     */
+    private ConduitRateLimiter rateLimiter = ConduitRateLimiter.getDefault();
+
+    /**
+     * Retries calls that failed with an I/O error, if set.
+     */
+    private ConduitRetryPolicy retryPolicy = ConduitRetryPolicy.getDefault();
+
+    /**
+     * Sends a second copy of slow reads, if set.
+     */
+    private ConduitHedgePolicy hedgePolicy = null;
+
+    /**
+     * Whether responses are indexed and their values decoded as they're read, rather than parsed up front.
+     */
+    private boolean lazyParsing = false;
+
+    /**
+     * Records latency, sizes and errors per method, if set.
+     */
+    private ConduitMetrics metrics = ConduitMetrics.getDefault();
+
+    /**
+     * Interceptors run around every call, in order. Replaced rather than changed, so calls can read it without
+     * locking or copying.
+     */
+    private volatile ConduitInterceptor[] interceptors = NO_INTERCEPTORS;
+
     /**
      * Defaults constructor.
      *
@@ -64,6 +142,8 @@ public class ConduitClient {
         this.apiURL = apiURL;
         this.sessionKey = sessionKey;
         this.connectionID = connectionID;
+        this.concurrencyLimiter = ConduitConcurrencyLimiter.getDefault(apiURL);
+        this.circuitBreaker = ConduitCircuitBreaker.getDefault(apiURL);
 
         this.authenticated = (sessionKey != null && connectionID != -1);
     }
@@ -118,12 +198,12 @@ public class ConduitClient {
     }
 
     /**
-     * Creates an authenticated conduit client with a username and certificate.
+     * Performs a conduit.connect handshake and returns the new session.
      * 
      * @params String username, String certificate, String apiURL
-     * @returns ConduitClient
+     * @returns ConduitSessionCache.Session
      */
-    public static ConduitClient fromCertificate(final String username, final String certificate, final String apiURL) {
+    static ConduitSessionCache.Session handshake(final String username, final String certificate, final String apiURL) throws ConduitException, JSONException {
         ConduitClient client = new ConduitClient(apiURL);
         long time = System.currentTimeMillis() / 1000;
 
@@ -143,15 +223,28 @@ public class ConduitClient {
         handshakeArgs.put("authSignature", authSignature);
         handshakeArgs.put("host", apiURL);
 
-        JSONObject response;
+        JSONObject response = client.call("conduit.connect", handshakeArgs);
+        return new ConduitSessionCache.Session(response.getString("sessionKey"), response.getInt("connectionID"));
+    }
 
-        try {
-            response = client.call("conduit.connect", handshakeArgs);
-            return new ConduitClient(apiURL, response.getString("sessionKey"), response.getInt("connectionID"));
-        } catch (java.lang.Exception e) {
-            e.printStackTrace();
+    /**
+     * Creates an authenticated conduit client with a username and certificate. Sessions are shared through
+     * the default ConduitSessionCache, so only the first client for a set of credentials performs a handshake.
+     * 
+     * @params String username, String certificate, String apiURL
+     * @returns ConduitClient
+     */
+    public static ConduitClient fromCertificate(final String username, final String certificate, final String apiURL) {
+        ConduitSessionCache sessionCache = ConduitSessionCache.getDefault();
+        ConduitSessionCache.Session session = sessionCache.get(username, certificate, apiURL);
+        if (session == null) {
             return null;
         }
+        ConduitClient client = new ConduitClient(apiURL, session.sessionKey, session.connectionID);
+        client.username = username;
+        client.certificate = certificate;
+        client.sessionCache = sessionCache;
+        return client;
     }
 
     /**
@@ -165,26 +258,75 @@ public class ConduitClient {
     }
 
     /**
-     * Reads all data from a URLConnection and returns it as a String.
+     * Parses a response body straight off the connection. Only the tokener's window of the body is held at
+     * once; the stream is always closed, which returns the connection to its pool. If streamTo is given, the
+     * result is handed to it as it is read rather than built; otherwise, with lazy parsing on, the whole body is
+     * read and indexed instead.
      * 
-     * @params URLConnection uc
-     * @returns String
+     * @params String method, InputStream body, ConduitResultReader streamTo (or null)
+     * @returns JSONObject the response, less the result if it was streamed
      */
-    private String readAllFromURLConnection(URLConnection uc) {
+    private JSONObject readResponse(String method, InputStream body, ConduitResultReader streamTo) throws ConduitException, IOException, JSONException {
+        ConduitMetrics.Call timing = ConduitMetrics.current();
+        ConduitMetrics.MeteredInputStream metered = timing == null ? null : new ConduitMetrics.MeteredInputStream(body);
+        long start = System.nanoTime();
         try {
-            StringBuilder data = new StringBuilder();
-            BufferedReader in = new BufferedReader(new InputStreamReader(uc.getInputStream()));
-            String input;
-            while ((input = in.readLine()) != null) {
-                data.append(input);
-            }
-            in.close();
-            return data.toString();
-        } catch (java.lang.Exception e) {
-            return "";
+            // the tokener reads the UTF-8 bytes in bulk into its own window and decodes only string contents.
+            InputStream in = metered == null ? body : metered;
+            if (this.lazyParsing && streamTo == null) {
+                byte[] buffer = new byte[8192];
+                int length = 0;
+                for (int n; (n = in.read(buffer, length, buffer.length - length)) != -1; ) {
+                    length += n;
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                }
+                return JSONObject.parseLazy(buffer, 0, length);
+            }
+            JSONByteTokener tokener = new JSONByteTokener(in);
+            if (streamTo != null) {
+                return streamResponse(method, new JSONReader(tokener), streamTo);
+            }
+            return new JSONObject(tokener);
+        } finally {
+            body.close();
+            if (timing != null) {
+                // the parser pulls the body as it goes; whatever time wasn't spent reading was spent parsing.
+                timing.addBytesIn(metered.bytes);
+                timing.addPhase(ConduitMetrics.READ, metered.nanos);
+                timing.addPhase(ConduitMetrics.PARSE, System.nanoTime() - start - metered.nanos);
+            }
         }
     }
 
+    /**
+     * Reads a response, handing its result to a result reader on the way, and returns the rest of it. A null
+     * result, as in an error response, is not handed over.
+     * 
+     * @params String method, JSONReader reader, ConduitResultReader streamTo
+     * @returns JSONObject the response without its result
+     */
+    private static JSONObject streamResponse(String method, JSONReader reader, ConduitResultReader streamTo) throws ConduitException, JSONException {
+        if (reader.next() != JSONReader.BEGIN_OBJECT) {
+            throw reader.syntaxError("A JSONObject text must begin with '{'");
+        }
+        JSONObject respObj = new JSONObject();
+        while (reader.next() != JSONReader.END_OBJECT) {
+            String key = reader.getName();
+            int depth = reader.getDepth();
+            if (reader.next() != JSONReader.NULL && key.equals("result")) {
+                streamTo.readResult(method, reader);
+                while (reader.getDepth() > depth) {
+                    reader.next(); // the rest of what the result reader left.
+                }
+            } else {
+                respObj.putOnce(key, reader.readValue());
+            }
+        }
+        return respObj;
+    }
+
     /**
      * Returns the previously retrieved result object.
      * 
@@ -195,55 +337,1016 @@ public class ConduitClient {
         return this.previousResponse;
     }
 
+    /**
+     * Returns the connection pool that this client sends calls through, or null if it uses another transport.
+     * 
+     * @params none
+     * @returns ConduitConnectionPool
+     */
+    public ConduitConnectionPool getConnectionPool() {
+        return this.transport instanceof ConduitConnectionPool ? (ConduitConnectionPool) this.transport : null;
+    }
+
+    /**
+     * Sends this client's calls through the given connection pool.
+     * 
+     * @params ConduitConnectionPool connectionPool
+     * @returns none
+     */
+    public void setConnectionPool(ConduitConnectionPool connectionPool) {
+        this.transport = connectionPool;
+    }
+
+    /**
+     * Returns the transport that this client sends calls through.
+     * 
+     * @params none
+     * @returns ConduitTransport
+     */
+    public ConduitTransport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Sets the transport that this client sends calls through.
+     * 
+     * @params ConduitTransport transport
+     * @returns none
+     */
+    public void setTransport(ConduitTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the executor that asynchronous calls run on.
+     * 
+     * @params none
+     * @returns Executor
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Sets the executor that asynchronous calls run on.
+     * 
+     * @params Executor executor
+     * @returns none
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the coalescer that identical concurrent calls share requests through, or null.
+     * 
+     * @params none
+     * @returns ConduitCallCoalescer
+     */
+    public ConduitCallCoalescer getCoalescer() {
+        return this.coalescer;
+    }
+
+    /**
+     * Makes identical calls that are in flight at the same time share one request. Several clients (for the
+     * same server and user) may share a coalescer. Calls made with callAsync() on an async transport share
+     * requests with each other, not with blocking calls. Pass null to turn coalescing off.
+     * 
+     * @params ConduitCallCoalescer coalescer
+     * @returns none
+     */
+    public void setCoalescer(ConduitCallCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Returns the cache that read responses are served from, or null.
+     * 
+     * @params none
+     * @returns ConduitResponseCache
+     */
+    public ConduitResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Serves calls to cached read methods from the given cache, and lets write methods invalidate it. Several
+     * clients may share a cache; entries are kept apart per server and user. Pass null to turn caching off.
+     * 
+     * @params ConduitResponseCache responseCache
+     * @returns none
+     */
+    public void setResponseCache(ConduitResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns the limiter on requests in flight to this client's endpoint, or null.
+     * 
+     * @params none
+     * @returns ConduitConcurrencyLimiter
+     */
+    public ConduitConcurrencyLimiter getConcurrencyLimiter() {
+        return this.concurrencyLimiter;
+    }
+
+    /**
+     * Limits the requests in flight from this client. Clients of the same endpoint should share a limiter, such
+     * as ConduitConcurrencyLimiter.forEndpoint(apiURL). Pass null to turn limiting off.
+     * 
+     * @params ConduitConcurrencyLimiter concurrencyLimiter
+     * @returns none
+     */
+    public void setConcurrencyLimiter(ConduitConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Returns the circuit breaker for this client's endpoint, or null.
+     * 
+     * @params none
+     * @returns ConduitCircuitBreaker
+     */
+    public ConduitCircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker. While it is open, calls throw a ConduitException with the error code
+     * ConduitCircuitBreaker.ERR_CIRCUIT_OPEN instead of being sent. Clients of the same endpoint should share a
+     * breaker, such as ConduitCircuitBreaker.forEndpoint(apiURL). Pass null to turn it off.
+     * 
+     * @params ConduitCircuitBreaker circuitBreaker
+     * @returns none
+     */
+    public void setCircuitBreaker(ConduitCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the per-method rate limiter, or null.
+     * 
+     * @params none
+     * @returns ConduitRateLimiter
+     */
+    public ConduitRateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Sets the per-method rate limiter. Pass null to turn rate limiting off.
+     * 
+     * @params ConduitRateLimiter rateLimiter
+     * @returns none
+     */
+    public void setRateLimiter(ConduitRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the retry policy, or null.
+     * 
+     * @params none
+     * @returns ConduitRetryPolicy
+     */
+    public ConduitRetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying calls that failed with an I/O error. Pass null to turn retries off; calls
+     * that fail then return an empty result straight away.
+     * 
+     * @params ConduitRetryPolicy retryPolicy
+     * @returns none
+     */
+    public void setRetryPolicy(ConduitRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the hedging policy, or null.
+     * 
+     * @params none
+     * @returns ConduitHedgePolicy
+     */
+    public ConduitHedgePolicy getHedgePolicy() {
+        return this.hedgePolicy;
+    }
+
+    /**
+     * Sets the policy for hedging slow reads. Calls sent straight through a ConduitAsyncTransport by
+     * callAsync() aren't hedged. Pass null to turn hedging off.
+     * 
+     * @params ConduitHedgePolicy hedgePolicy
+     * @returns none
+     */
+    public void setHedgePolicy(ConduitHedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * Returns whether responses are parsed lazily.
+     * 
+     * @params none
+     * @returns boolean
+     */
+    public boolean isLazyParsing() {
+        return this.lazyParsing;
+    }
+
+    /**
+     * Sets whether responses are parsed lazily. A lazy response is checked and indexed when it's read, but
+     * its values are only decoded when they're first asked for, which saves most of the parsing for callers
+     * that look at a few fields of a large result. The whole body is kept in memory for as long as any object
+     * from it is reachable. Streamed calls are never parsed lazily.
+     * 
+     * @params boolean lazyParsing
+     * @returns none
+     */
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
+    /**
+     * Returns the metrics registry this client records its calls in, or null.
+     * 
+     * @params none
+     * @returns ConduitMetrics
+     */
+    public ConduitMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Sets the metrics registry to record calls in. Pass null to stop recording.
+     * 
+     * @params ConduitMetrics metrics
+     * @returns none
+     */
+    public void setMetrics(ConduitMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds an interceptor to the end of the chain run around every call.
+     * 
+     * @params ConduitInterceptor interceptor
+     * @returns none
+     */
+    public synchronized void addInterceptor(ConduitInterceptor interceptor) {
+        if (interceptor == null) {
+            throw new NullPointerException("interceptor");
+        }
+        ConduitInterceptor[] chain = Arrays.copyOf(this.interceptors, this.interceptors.length + 1);
+        chain[chain.length - 1] = interceptor;
+        this.interceptors = chain;
+    }
+
+    /**
+     * Removes an interceptor from the chain.
+     * 
+     * @params ConduitInterceptor interceptor
+     * @returns boolean true if it was in the chain
+     */
+    public synchronized boolean removeInterceptor(ConduitInterceptor interceptor) {
+        List<ConduitInterceptor> chain = new ArrayList<ConduitInterceptor>(Arrays.asList(this.interceptors));
+        if (!chain.remove(interceptor)) {
+            return false;
+        }
+        this.interceptors = chain.isEmpty() ? NO_INTERCEPTORS : chain.toArray(new ConduitInterceptor[chain.size()]);
+        return true;
+    }
+
+    /**
+     * Returns the interceptors run around every call, in order.
+     * 
+     * @params none
+     * @returns List<ConduitInterceptor>
+     */
+    public List<ConduitInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(this.interceptors));
+    }
+
+    /**
+     * Returns the scope that cache and coalescing keys are built in: calls by other users or to other servers
+     * may see different results.
+     * 
+     * @params none
+     * @returns String
+     */
+    private String scope() {
+        return this.apiURL + "\n" + this.username;
+    }
+
+    /**
+     * Runs a conduit call asynchronously. If the transport is a ConduitAsyncTransport the request is sent
+     * without holding a thread; otherwise, or if the client has interceptors (whose hooks may block), the call
+     * runs on this client's executor. Identical calls in flight share one request through the coalescer, if there
+     * is one. The returned future is completed as soon as the response has been parsed.
+     * 
+     * @params String method, Map<String, Object> argMap
+     * @returns ConduitFuture
+     */
+    public ConduitFuture callAsync(final String method, final Map<String, Object> argMap) {
+        if (this.interceptors.length > 0) {
+            return this.callOnExecutor(method, argMap);
+        }
+        ConduitResponseCache cache = this.responseCache;
+        String cacheKey = cache == null ? null : cache.key(this.scope(), method, argMap);
+        JSONObject cached = cacheKey == null ? null : cache.get(cacheKey);
+        if (cached != null) {
+            ConduitFuture future = new ConduitFuture();
+            try {
+                future.complete(this.result(cached));
+            } catch (java.lang.Exception e) {
+                future.complete(new JSONObject());
+            }
+            return future;
+        }
+        // calls on the executor go through the coalescer in call(); the others join here, before taking permits.
+        ConduitCallCoalescer coalescer = this.coalescer;
+        if (coalescer == null || !(this.transport instanceof ConduitAsyncTransport)) {
+            return this.dispatchAsync(method, argMap);
+        }
+        return coalescer.callAsync(this.scope(), method, argMap, new Callable<ConduitFuture>() {
+            @Override
+            public ConduitFuture call() {
+                return dispatchAsync(method, argMap);
+            }
+        });
+    }
+
+    /**
+     * Sends an asynchronous call on the async transport if there is capacity for it under the limits, or runs it
+     * on this client's executor.
+     * 
+     * @params String method, Map<String, Object> argMap
+     * @returns ConduitFuture
+     */
+    private ConduitFuture dispatchAsync(String method, Map<String, Object> argMap) {
+        ConduitCircuitBreaker breaker = this.circuitBreaker;
+        if (this.transport instanceof ConduitAsyncTransport && breaker != null) {
+            try {
+                breaker.acquire();
+            } catch (ConduitException e) {
+                if (this.metrics != null) {
+                    finish(this.metrics, this.metrics.start(method), e.getErrorCode());
+                }
+                ConduitFuture future = new ConduitFuture();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+        // without free capacity under the limits, fall back to waiting for it on the executor.
+        ConduitConcurrencyLimiter limiter = this.concurrencyLimiter;
+        if (this.transport instanceof ConduitAsyncTransport) {
+            if (this.tryAcquireLimits(limiter, method)) {
+                return this.sendAsync((ConduitAsyncTransport) this.transport, breaker, limiter, method, argMap);
+            }
+            if (breaker != null) {
+                breaker.release();
+            }
+        }
+        return this.callOnExecutor(method, argMap);
+    }
+
+    /**
+     * Runs a blocking call on this client's executor.
+     * 
+     * @params String method, Map<String, Object> argMap
+     * @returns ConduitFuture
+     */
+    private ConduitFuture callOnExecutor(final String method, final Map<String, Object> argMap) {
+        final ConduitFuture future = new ConduitFuture();
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    future.run(new Callable<JSONObject>() {
+                        @Override
+                        public JSONObject call() throws ConduitException {
+                            return ConduitClient.this.call(method, argMap);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Takes a slot from the concurrency limiter and a permit from the rate limiter if both are free right now.
+     * 
+     * @params ConduitConcurrencyLimiter limiter, String method
+     * @returns boolean
+     */
+    private boolean tryAcquireLimits(ConduitConcurrencyLimiter limiter, String method) {
+        if (limiter != null && !limiter.tryAcquire()) {
+            return false;
+        }
+        if (this.rateLimiter != null && !this.rateLimiter.tryAcquire(method)) {
+            if (limiter != null) {
+                limiter.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a call through an asynchronous transport, holding a permit already taken from the breaker and a slot
+     * already taken from the limiter. A session
+     * error is retried, after a new handshake, on the executor since renewing the session blocks; so is an I/O
+     * error, if the retry policy allows.
+     * 
+     * @params ConduitAsyncTransport transport, ConduitCircuitBreaker breaker, ConduitConcurrencyLimiter limiter, String method,
+     *         Map<String, Object> argMap
+     * @returns ConduitFuture
+     */
+    private ConduitFuture sendAsync(ConduitAsyncTransport transport, final ConduitCircuitBreaker breaker, final ConduitConcurrencyLimiter limiter,
+                                    final String method, final Map<String, Object> argMap) {
+        final ConduitFuture future = new ConduitFuture();
+        final String cacheKey = this.responseCache == null ? null : this.responseCache.key(this.scope(), method, argMap);
+        final long generation = this.responseCache == null ? 0 : this.responseCache.getGeneration();
+        final ConduitSessionCache.Session session = this.attachSession(argMap);
+        final ConduitMetrics metrics = this.metrics;
+        final ConduitMetrics.Call timing = metrics == null ? null : metrics.start(method);
+        URL url;
+        try {
+            url = new URL(this.apiURL + method);
+        } catch (MalformedURLException e) {
+            if (breaker != null) {
+                breaker.release();
+            }
+            if (limiter != null) {
+                limiter.release();
+            }
+            finish(metrics, timing, e.getClass().getSimpleName());
+            future.complete(new JSONObject());
+            return future;
+        }
+        final ConduitRequestEncoder encoder = new ConduitRequestEncoder(argMap);
+        final long start = System.nanoTime();
+
+        transport.postAsync(url, encoder, new ConduitAsyncTransport.ResponseHandler() {
+            @Override
+            public void onResponse(InputStream body) {
+                if (breaker != null) {
+                    breaker.onSuccess();
+                }
+                if (limiter != null) {
+                    limiter.release(method, start, false);
+                }
+                if (retryPolicy != null) {
+                    retryPolicy.onSuccess();
+                }
+                ConduitMetrics.Call previous = null;
+                if (timing != null) {
+                    // the transport connects, sends and waits off our threads, so it all counts as waiting.
+                    timing.addPhase(ConduitMetrics.WAIT, System.nanoTime() - start);
+                    previous = ConduitMetrics.attach(timing);
+                }
+                try {
+                    if (timing != null) {
+                        timing.addBytesOut(encoder.getContentLength());
+                    }
+                    JSONObject respObj = readResponse(method, body, null);
+                    JSONObject result = result(respObj);
+                    cacheResponse(cacheKey, generation, method, respObj);
+                    finish(metrics, timing, null);
+                    future.complete(result);
+                } catch (final ConduitException e) {
+                    if (sessionCache == null || !sessionCache.isSessionError(e)) {
+                        finish(metrics, timing, e.getErrorCode());
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                future.run(new Callable<JSONObject>() {
+                                    @Override
+                                    public JSONObject call() throws ConduitException {
+                                        ConduitMetrics.Call previous = ConduitMetrics.attach(timing);
+                                        try {
+                                            long renewing = System.nanoTime();
+                                            boolean renewed = renewSession(session);
+                                            ConduitMetrics.phase(ConduitMetrics.HANDSHAKE, System.nanoTime() - renewing);
+                                            if (!renewed) {
+                                                if (timing != null) {
+                                                    timing.fail(e.getErrorCode());
+                                                }
+                                                throw e;
+                                            }
+                                            return ConduitClient.this.call(method, argMap, timing);
+                                        } finally {
+                                            ConduitMetrics.detach(previous);
+                                            finish(metrics, timing, null);
+                                        }
+                                    }
+                                });
+                            }
+                        });
+                    } catch (RejectedExecutionException rejected) {
+                        finish(metrics, timing, e.getErrorCode());
+                        future.completeExceptionally(e);
+                    }
+                } catch (java.lang.Exception e) {
+                    finish(metrics, timing, e.getClass().getSimpleName());
+                    future.complete(new JSONObject());
+                } finally {
+                    if (timing != null) {
+                        ConduitMetrics.detach(previous);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (breaker != null) {
+                    breaker.onFailure();
+                }
+                if (limiter != null) {
+                    limiter.release(method, start, true);
+                }
+                if (timing != null) {
+                    timing.addPhase(ConduitMetrics.WAIT, System.nanoTime() - start);
+                }
+                ConduitRetryPolicy retries = retryPolicy;
+                final long delay = retries != null && error instanceof IOException ? retries.onFailure(method, 1, (IOException) error) : -1;
+                if (delay < 0) {
+                    // same as a failed synchronous call.
+                    finish(metrics, timing, error.getClass().getSimpleName());
+                    future.complete(new JSONObject());
+                    return;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            future.run(new Callable<JSONObject>() {
+                                @Override
+                                public JSONObject call() throws ConduitException {
+                                    ConduitMetrics.Call previous = ConduitMetrics.attach(timing);
+                                    try {
+                                        backoff(delay);
+                                        JSONObject respObj = fetch(method, argMap, 2, null);
+                                        cacheResponse(cacheKey, generation, method, respObj);
+                                        return result(respObj);
+                                    } catch (ConduitException e) {
+                                        if (timing != null) {
+                                            timing.fail(e.getErrorCode());
+                                        }
+                                        throw e;
+                                    } catch (java.lang.Exception e) {
+                                        if (timing != null) {
+                                            timing.fail(e.getClass().getSimpleName());
+                                        }
+                                        return new JSONObject();
+                                    } finally {
+                                        ConduitMetrics.detach(previous);
+                                        finish(metrics, timing, null);
+                                    }
+                                }
+                            });
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    finish(metrics, timing, error.getClass().getSimpleName());
+                    future.complete(new JSONObject());
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Records a timed call that has finished, if it was timed.
+     * 
+     * @params ConduitMetrics metrics, ConduitMetrics.Call timing, String error (null unless the call failed)
+     * @returns none
+     */
+    private static void finish(ConduitMetrics metrics, ConduitMetrics.Call timing, String error) {
+        if (timing == null) {
+            return;
+        }
+        if (error != null) {
+            timing.fail(error);
+        }
+        metrics.finish(timing);
+    }
+
     /**
      * Runs a conduit call with the given method and arguments. Will attach session information if found.
      * 
      * @params String method, Map<String, Object> argumentMap
      * @returns JSONObject
      */
-    public JSONObject call(String method, Map<String, Object> argMap) throws ConduitException {
-        if (this.authenticated) {
-            Map<String, Object> authMap = new HashMap<String, Object>();
-            authMap.put("sessionKey", this.sessionKey);
-            authMap.put("connectionID", this.connectionID);
-            argMap.put("__conduit__", authMap);
+    public JSONObject call(final String method, final Map<String, Object> argMap) throws ConduitException {
+        ConduitMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return this.call(method, argMap, null);
         }
+        ConduitMetrics.Call timing = metrics.start(method);
+        ConduitMetrics.Call previous = ConduitMetrics.attach(timing);
+        try {
+            return this.call(method, argMap, timing);
+        } finally {
+            ConduitMetrics.detach(previous);
+            metrics.finish(timing);
+        }
+    }
 
-        JSONObject argObject = new JSONObject(argMap);
-
+    /**
+     * Runs a conduit call and hands its result to a result reader as it comes off the connection, so that a
+     * result too large to hold as a JSONObject can be processed in constant memory. Streamed calls skip the
+     * response cache, the coalescer, hedging and interceptors, all of which work on whole results; the other
+     * limits, retries and metrics apply as they do to call(). A streamed write still invalidates the cached
+     * reads it affects, as it would through call().
+     * 
+     * @params String method, Map<String, Object> argMap, ConduitResultReader reader
+     * @returns boolean true if the result was read; false if the call failed with an error other than a
+     *          Conduit error (after which call() would return an empty result)
+     */
+    public boolean callStreaming(final String method, final Map<String, Object> argMap, ConduitResultReader reader) throws ConduitException {
+        ConduitMetrics metrics = this.metrics;
+        ConduitMetrics.Call timing = metrics == null ? null : metrics.start(method);
+        ConduitMetrics.Call previous = timing == null ? null : ConduitMetrics.attach(timing);
         try {
-            return this.call(method, argObject);
+            JSONObject respObj = this.fetch(method, argMap, 1, reader);
+            this.previousResponse = respObj;
+            this.cacheResponse(null, 0, method, respObj);
+            return true;
         } catch (ConduitException e) {
+            if (timing != null) {
+                timing.fail(e.getErrorCode());
+            }
+            if (this.responseCache != null) {
+                // the server answered (the error may be the result reader's own), so a write may have been made.
+                this.responseCache.afterCall(method);
+            }
             throw e;
+        } catch (java.lang.Exception e) {
+            if (timing != null) {
+                timing.fail(e.getClass().getSimpleName());
+            }
+            return false;
+        } finally {
+            if (timing != null) {
+                ConduitMetrics.detach(previous);
+                metrics.finish(timing);
+            }
         }
     }
 
     /**
-     * Actual internal call to conduit to send the args and receive the response.
+     * Runs a conduit call, noting any error on the timed call (if there is one); failures other than Conduit
+     * errors come back as an empty result, so this is the only place they can be seen.
      * 
-     * @params String method, JSONObject args
+     * @params String method, Map<String, Object> argMap, ConduitMetrics.Call timing
      * @returns JSONObject
      */
-    private JSONObject call(String method, JSONObject args) throws ConduitException {
+    private JSONObject call(final String method, final Map<String, Object> argMap, ConduitMetrics.Call timing) throws ConduitException {
+        ConduitInterceptor[] chain = this.interceptors;
+        long start = chain.length == 0 ? 0 : System.nanoTime();
+        int entered = 0;
         try {
-            URL url = new URL(this.apiURL + method);
-            URLConnection connection = url.openConnection();
-            connection.setDoOutput(true);
-
-            OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
-            out.write("params=" + args.toString());
-            out.close();
-
-            String data = this.readAllFromURLConnection(connection);
-            JSONObject respObj = this.previousResponse = new JSONObject(data);
-            if (respObj.isNull("result") && !(respObj.isNull("error_code"))) {
-                throw new ConduitException(respObj.getString("error_code"), respObj.getString("error_info"));
+            JSONObject result = null;
+            while (result == null && entered < chain.length) {
+                result = chain[entered++].beforeSend(method, argMap, start);
+            }
+            if (result == null) {
+                result = this.invoke(method, argMap);
             }
-            return respObj.getJSONObject("result");
+            if (entered > 0) {
+                long end = System.nanoTime();
+                for (int i = entered - 1; i >= 0; i--) {
+                    result = chain[i].afterReceive(method, argMap, result, start, end);
+                }
+            }
+            return result;
         } catch (ConduitException e) {
+            if (timing != null) {
+                timing.fail(e.getErrorCode());
+            }
+            onError(chain, entered, method, argMap, e, start);
             throw e;
         } catch (java.lang.Exception e) {
+            if (timing != null) {
+                timing.fail(e.getClass().getSimpleName());
+            }
+            onError(chain, entered, method, argMap, e, start);
             return new JSONObject();
         }
     }
+
+    /**
+     * Runs a call through the response cache and the coalescer, and returns its result.
+     * 
+     * @params String method, Map<String, Object> argMap
+     * @returns JSONObject
+     */
+    private JSONObject invoke(final String method, final Map<String, Object> argMap) throws java.lang.Exception {
+        ConduitResponseCache cache = this.responseCache;
+        String cacheKey = null;
+        long generation = 0;
+        if (cache != null) {
+            cacheKey = cache.key(this.scope(), method, argMap);
+            generation = cache.getGeneration();
+        }
+
+        JSONObject respObj = cacheKey == null ? null : cache.get(cacheKey);
+        if (respObj != null) {
+            return this.result(respObj);
+        }
+        if (this.coalescer == null) {
+            respObj = this.fetch(method, argMap);
+        } else {
+            respObj = this.coalescer.call(this.scope(), method, argMap, new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() throws java.lang.Exception {
+                    return fetch(method, argMap);
+                }
+            });
+        }
+        this.cacheResponse(cacheKey, generation, method, respObj);
+        return this.result(respObj);
+    }
+
+    /**
+     * Tells the interceptors whose beforeSend() ran, latest first, that a call has failed.
+     * 
+     * @params ConduitInterceptor[] chain, int entered, String method, Map<String, Object> argMap, Exception error,
+     *         long start
+     * @returns none
+     */
+    private static void onError(ConduitInterceptor[] chain, int entered, String method, Map<String, Object> argMap,
+                                java.lang.Exception error, long start) {
+        if (entered == 0) {
+            return;
+        }
+        long end = System.nanoTime();
+        for (int i = entered - 1; i >= 0; i--) {
+            chain[i].onError(method, argMap, error, start, end);
+        }
+    }
+
+    /**
+     * Stores a successful response in the response cache (if it is cacheable) and applies any invalidation a
+     * write method calls for.
+     * 
+     * @params String cacheKey, long generation, String method, JSONObject respObj
+     * @returns none
+     */
+    private void cacheResponse(String cacheKey, long generation, String method, JSONObject respObj) {
+        ConduitResponseCache cache = this.responseCache;
+        if (cache == null) {
+            return;
+        }
+        if (cacheKey != null) {
+            cache.put(cacheKey, method, respObj, generation);
+        }
+        cache.afterCall(method);
+    }
+
+    /**
+     * Performs a call and returns the whole response. If the server has dropped our session, handshakes again
+     * once and replays the call.
+     * 
+     * @params String method, Map<String, Object> argMap
+     * @returns JSONObject
+     */
+    private JSONObject fetch(String method, Map<String, Object> argMap) throws ConduitException, IOException, JSONException {
+        return this.fetch(method, argMap, 1, null);
+    }
+
+    /**
+     * Performs a call whose earlier attempts (attempt - 1 of them) have failed. If streamTo is given, the result
+     * is handed to it as it is read and left out of the returned response.
+     * 
+     * @params String method, Map<String, Object> argMap, int attempt, ConduitResultReader streamTo
+     * @returns JSONObject
+     */
+    private JSONObject fetch(String method, Map<String, Object> argMap, int attempt, ConduitResultReader streamTo) throws ConduitException, IOException, JSONException {
+        ConduitSessionCache.Session session = this.attachSession(argMap);
+
+        try {
+            return this.sendWithRetries(method, argMap, attempt, streamTo);
+        } catch (ConduitException e) {
+            if (this.sessionCache == null || !this.sessionCache.isSessionError(e)) {
+                throw e;
+            }
+            long start = System.nanoTime();
+            boolean renewed = this.renewSession(session);
+            ConduitMetrics.phase(ConduitMetrics.HANDSHAKE, System.nanoTime() - start);
+            if (!renewed) {
+                throw e;
+            }
+            this.attachSession(argMap);
+            return this.sendWithRetries(method, argMap, 1, streamTo);
+        }
+    }
+
+    /**
+     * Sends a call, retrying it as the retry policy allows when it fails with an I/O error. Errors reading the
+     * response come up as JSONExceptions, so a streamed result is never replayed once it has started.
+     * 
+     * @params String method, Map<String, Object> argMap, int attempt (1 unless earlier attempts failed),
+     *         ConduitResultReader streamTo
+     * @returns JSONObject the whole response
+     */
+    private JSONObject sendWithRetries(String method, Map<String, Object> argMap, int attempt, ConduitResultReader streamTo) throws ConduitException, IOException, JSONException {
+        ConduitRetryPolicy retries = this.retryPolicy;
+        for (;; attempt++) {
+            try {
+                JSONObject respObj = this.sendHedged(method, argMap, streamTo);
+                if (retries != null) {
+                    retries.onSuccess();
+                }
+                return respObj;
+            } catch (ConduitException e) {
+                if (retries != null) {
+                    retries.onSuccess(); // the server answered.
+                }
+                throw e;
+            } catch (IOException e) {
+                long delay = retries == null ? -1 : retries.onFailure(method, attempt, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                backoff(delay);
+            }
+        }
+    }
+
+    /**
+     * Waits before a retry.
+     * 
+     * @params long delay (ms)
+     * @returns none
+     */
+    private static void backoff(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to retry");
+        }
+    }
+
+    /**
+     * Sends a call, through the hedging policy if it covers the method. Streamed calls aren't hedged, since the
+     * result reader can only read one response.
+     * 
+     * @params String method, Map<String, Object> argMap, ConduitResultReader streamTo
+     * @returns JSONObject the whole response
+     */
+    private JSONObject sendHedged(final String method, final Map<String, Object> argMap, ConduitResultReader streamTo) throws ConduitException, IOException, JSONException {
+        ConduitHedgePolicy hedging = this.hedgePolicy;
+        if (hedging == null || !hedging.isHedged(method) || streamTo != null) {
+            return this.send(method, argMap, streamTo);
+        }
+        // both requests run on the policy's threads; they add to the timing of this call.
+        final ConduitMetrics.Call timing = ConduitMetrics.current();
+        return hedging.call(method, new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws java.lang.Exception {
+                ConduitMetrics.Call previous = ConduitMetrics.attach(timing);
+                try {
+                    return send(method, argMap, null);
+                } finally {
+                    ConduitMetrics.detach(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the current session information to the argument map, if we're authenticated.
+     * 
+     * @params Map<String, Object> argMap
+     * @returns ConduitSessionCache.Session the session that was attached
+     */
+    private ConduitSessionCache.Session attachSession(Map<String, Object> argMap) {
+        if (!this.authenticated) {
+            return null;
+        }
+        ConduitSessionCache.Session session;
+        synchronized (this) {
+            session = new ConduitSessionCache.Session(this.sessionKey, this.connectionID);
+        }
+        Map<String, Object> authMap = new HashMap<String, Object>();
+        authMap.put("sessionKey", session.sessionKey);
+        authMap.put("connectionID", session.connectionID);
+        argMap.put("__conduit__", authMap);
+        return session;
+    }
+
+    /**
+     * Replaces a session the server has rejected with a fresh one from the session cache.
+     * 
+     * @params ConduitSessionCache.Session stale
+     * @returns boolean true if a new session was established
+     */
+    private boolean renewSession(ConduitSessionCache.Session stale) {
+        this.renewalLock.lock();
+        try {
+            synchronized (this) {
+                if (stale != null && !stale.sessionKey.equals(this.sessionKey)) {
+                    return true; // another thread already renewed it.
+                }
+            }
+            this.sessionCache.invalidate(this.username, this.certificate, this.apiURL, stale);
+            ConduitSessionCache.Session session = this.sessionCache.get(this.username, this.certificate, this.apiURL);
+            if (session == null) {
+                return false;
+            }
+            synchronized (this) {
+                this.sessionKey = session.sessionKey;
+                this.connectionID = session.connectionID;
+            }
+            return true;
+        } finally {
+            this.renewalLock.unlock();
+        }
+    }
+
+    /**
+     * Actual internal call to conduit to send the args and receive the response.
+     * 
+     * @params String method, Map<String, Object> argMap, ConduitResultReader streamTo (or null)
+     * @returns JSONObject the whole response, less the result if it was streamed
+     */
+    private JSONObject send(String method, Map<String, Object> argMap, ConduitResultReader streamTo) throws ConduitException, IOException, JSONException {
+        URL url = new URL(this.apiURL + method);
+        ConduitCircuitBreaker breaker = this.circuitBreaker;
+        if (breaker != null) {
+            breaker.acquire();
+        }
+        boolean sent = false;
+        boolean failed = true;
+        JSONObject respObj;
+        try {
+            if (this.rateLimiter != null) {
+                this.rateLimiter.acquire(method);
+            }
+            ConduitConcurrencyLimiter limiter = this.concurrencyLimiter;
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            ConduitRequestEncoder encoder = new ConduitRequestEncoder(argMap);
+            ConduitMetrics.Call timing = ConduitMetrics.current();
+            if (timing != null) {
+                timing.addBytesOut(encoder.getContentLength());
+            }
+            long start = System.nanoTime();
+            sent = true;
+            try {
+                respObj = this.readResponse(method, this.transport.post(url, encoder), streamTo);
+                failed = false;
+            } catch (ConduitException e) {
+                // only a result reader throws these from readResponse(): the server has answered, the caller didn't
+                // like the answer. That says nothing about the server's health.
+                failed = false;
+                throw e;
+            } finally {
+                if (limiter != null) {
+                    limiter.release(method, start, failed);
+                }
+            }
+        } finally {
+            if (breaker != null) {
+                if (!sent) {
+                    breaker.release();
+                } else if (failed) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+        }
+        if (respObj.isNull("result") && !(respObj.isNull("error_code"))) {
+            this.previousResponse = respObj;
+            throw new ConduitException(respObj.getString("error_code"), respObj.getString("error_info"));
+        }
+        return respObj;
+    }
+
+    /**
+     * Records a response and returns its result, or throws the Conduit error it carries.
+     * 
+     * @params JSONObject respObj
+     * @returns JSONObject
+     */
+    private JSONObject result(JSONObject respObj) throws ConduitException, JSONException {
+        this.previousResponse = respObj;
+        if (respObj.isNull("result") && !(respObj.isNull("error_code"))) {
+            throw new ConduitException(respObj.getString("error_code"), respObj.getString("error_info"));
+        }
+        return respObj.getJSONObject("result");
+    }
 }
@@ -0,0 +1,331 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Adaptive limit on the number of requests in flight to one Conduit endpoint, so that a burst of calls can't
+ * exhaust the server's worker pool. The limit follows AIMD: every request that comes back with a latency close
+ * to the best seen recently for its method raises the limit by 1/limit (about +1 per round of requests), and a
+ * request that fails or takes more than latencyTolerance times that latency cuts it by backoffRatio. Only one
+ * cut is made per round, so a single slow burst doesn't collapse the limit. Baselines are kept per method, since
+ * a 2 ms user.whoami and an 80 ms maniphest.query sharing one would make every slow call look like congestion.
+ *
+ * Callers over the limit wait (up to the acquire timeout) for a slot.
+ */
+public class ConduitConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.7;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 10000;
+
+    /**
+     * Number of samples over which the baseline latency drifts back up after the server has slowed for good.
+     */
+    private static final int BASELINE_WINDOW = 500;
+
+    /**
+     * Shared limiters, one per endpoint.
+     */
+    private static final ConcurrentHashMap<String, ConduitConcurrencyLimiter> endpoints = new ConcurrentHashMap<String, ConduitConcurrencyLimiter>();
+
+    // whether new clients use their endpoint's shared limiter.
+    private static volatile boolean enabledByDefault = false;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long acquireTimeout;
+
+    // lock rather than monitor, so waiting virtual threads don't pin their carrier.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = this.lock.newCondition();
+    private double limit;
+    private int inFlight = 0;
+    // best recent latency (ns) by method, guarded by lock.
+    private final Map<String, long[]> baselines = new HashMap<String, long[]>();
+    private long lastDecrease = System.nanoTime();
+
+    // limiter statistics
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructs a limiter with the default settings.
+     *
+     * @params none
+     */
+    public ConduitConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_TOLERANCE, DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a limiter.
+     *
+     * @params int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance, long acquireTimeout (ms)
+     */
+    public ConduitConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance,
+                                     long acquireTimeout) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit.");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1.");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Returns the shared limiter for an endpoint, creating it with the default settings if needed.
+     *
+     * @params String apiURL
+     * @returns ConduitConcurrencyLimiter
+     */
+    public static ConduitConcurrencyLimiter forEndpoint(String apiURL) {
+        ConduitConcurrencyLimiter limiter = endpoints.get(apiURL);
+        if (limiter == null) {
+            ConduitConcurrencyLimiter created = new ConduitConcurrencyLimiter();
+            limiter = endpoints.putIfAbsent(apiURL, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets whether new clients (including those made by ConduitAsyncClient and ConduitUtil) use their
+     * endpoint's shared limiter.
+     *
+     * @params boolean enabled
+     * @returns none
+     */
+    public static void setEnabledByDefault(boolean enabled) {
+        enabledByDefault = enabled;
+    }
+
+    /**
+     * Returns the limiter a new client for the endpoint should use, or null if limiting isn't on by default.
+     *
+     * @params String apiURL
+     * @returns ConduitConcurrencyLimiter
+     */
+    public static ConduitConcurrencyLimiter getDefault(String apiURL) {
+        return enabledByDefault ? forEndpoint(apiURL) : null;
+    }
+
+    /**
+     * Waits for a slot under the limit.
+     *
+     * @params none
+     * @returns none
+     */
+    public void acquire() throws IOException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(this.acquireTimeout);
+        this.lock.lock();
+        try {
+            while (this.inFlight >= (int) this.limit) {
+                if (remaining <= 0) {
+                    this.rejected.incrementAndGet();
+                    throw new SocketTimeoutException("Timed out waiting for a concurrency slot (limit " + (int) this.limit + ")");
+                }
+                try {
+                    remaining = this.available.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a concurrency slot");
+                }
+            }
+            this.inFlight++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot if one is free right now.
+     *
+     * @params none
+     * @returns boolean
+     */
+    public boolean tryAcquire() {
+        this.lock.lock();
+        try {
+            if (this.inFlight >= (int) this.limit) {
+                return false;
+            }
+            this.inFlight++;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a slot that wasn't used for a request, without adjusting the limit.
+     *
+     * @params none
+     * @returns none
+     */
+    public void release() {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit from the request's outcome, judging its latency against a single
+     * baseline shared by every caller that doesn't name a method.
+     *
+     * @params long start (System.nanoTime() when the request was sent), boolean failed
+     * @returns none
+     */
+    public void release(long start, boolean failed) {
+        this.release("", start, failed);
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit from the request's outcome, judging its latency against the
+     * method's own baseline.
+     *
+     * @params String method, long start (System.nanoTime() when the request was sent), boolean failed
+     * @returns none
+     */
+    public void release(String method, long start, boolean failed) {
+        long now = System.nanoTime();
+        long latency = now - start;
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            long[] baseline = this.baselines.get(method);
+            if (baseline == null) {
+                baseline = new long[1];
+                this.baselines.put(method, baseline);
+            }
+            if (failed) {
+                this.dropped.incrementAndGet();
+            } else {
+                this.completed.incrementAndGet();
+                if (baseline[0] == 0 || latency < baseline[0]) {
+                    baseline[0] = latency;
+                } else {
+                    baseline[0] += (latency - baseline[0]) / BASELINE_WINDOW;
+                }
+            }
+
+            // a method's first call sets its baseline, so it can only count as congested by failing.
+            boolean congested = failed || (baseline[0] > 0 && latency > baseline[0] * this.latencyTolerance);
+            if (congested) {
+                // requests that started before the last cut already saw the old limit; don't cut again for them.
+                if (start - this.lastDecrease > 0) {
+                    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                    this.lastDecrease = now;
+                    this.decreases.incrementAndGet();
+                }
+            } else if (this.inFlight + 1 >= this.limit / 2) {
+                // only grow while the limit is actually in use.
+                this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+            }
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current limit.
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the latency (in ms) that the limiter currently treats as uncongested for a method, or 0 if it hasn't
+     * seen the method succeed yet.
+     *
+     * @params String method
+     * @returns double
+     */
+    public double getBaselineLatency(String method) {
+        this.lock.lock();
+        try {
+            long[] baseline = this.baselines.get(method);
+            return baseline == null ? 0 : baseline[0] / 1e6;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of methods the limiter keeps a baseline for.
+     */
+    public int getMethodCount() {
+        this.lock.lock();
+        try {
+            return this.baselines.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getCompletedCount() {
+        return this.completed.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Returns the number of times the limit was cut.
+     */
+    public long getDecreaseCount() {
+        return this.decreases.get();
+    }
+
+    /**
+     * Returns the number of callers that gave up waiting for a slot.
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    public String toString() {
+        return String.format("ConduitConcurrencyLimiter[limit=%d, inFlight=%d, methods=%d, completed=%d, dropped=%d, decreases=%d, rejected=%d]",
+            this.getLimit(), this.getInFlight(), this.getMethodCount(), this.getCompletedCount(), this.getDroppedCount(),
+            this.getDecreaseCount(), this.getRejectedCount());
+    }
+}
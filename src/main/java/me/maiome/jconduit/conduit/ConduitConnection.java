@@ -0,0 +1,524 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.util.zip.*;
+import javax.net.ssl.*;
+
+/**
+ * A single persistent HTTP/1.1 connection to a Conduit host. Connections are handed out and taken back
+ * by a {@link ConduitConnectionPool}; the response body stream returns the connection to its pool when closed.
+ */
+class ConduitConnection {
+
+    /**
+     * Maximum number of unread body bytes we are willing to drain on close to keep the socket reusable.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * The pool that owns this connection.
+     */
+    private final ConduitConnectionPool pool;
+
+    /**
+     * The host key this connection was opened for.
+     */
+    final String hostKey;
+
+    private final Socket socket;
+    private final BufferedInputStream in;
+    private final BufferedOutputStream out;
+
+    /**
+     * Time (in ms) that this connection was last returned to the pool.
+     */
+    long lastUsed;
+
+    /**
+     * Number of requests that have been sent over this connection.
+     */
+    int requestCount = 0;
+
+    /**
+     * Set when the last request failed before the server can have acted on it: it couldn't be written, or the
+     * server closed the connection without sending a byte of a response. That is what a kept-alive socket the
+     * server has dropped looks like, and only such a request is safe to send again.
+     */
+    boolean unanswered = false;
+
+    /**
+     * Opens a new connection to the host and port given by the URL.
+     *
+     * @params ConduitConnectionPool pool, String hostKey, URL url, int connectTimeout, int readTimeout
+     */
+    ConduitConnection(ConduitConnectionPool pool, String hostKey, URL url, int connectTimeout, int readTimeout) throws IOException {
+        this.pool = pool;
+        this.hostKey = hostKey;
+
+        boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        Socket raw = new Socket();
+        try {
+            raw.setTcpNoDelay(true);
+            raw.setKeepAlive(true);
+            raw.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+            raw.setSoTimeout(readTimeout);
+            if (secure) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(raw, url.getHost(), port, true);
+                // a bare SSLSocket only checks that the certificate chain is trusted; check that it names the
+                // host as well, as HttpsURLConnection does.
+                SSLParameters parameters = ssl.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(parameters);
+                ssl.startHandshake();
+                this.socket = ssl;
+            } else {
+                this.socket = raw;
+            }
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+
+        this.in = new BufferedInputStream(this.socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(this.socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks that an idle connection has not been closed by the server. Any pending byte or EOF on an idle
+     * keep-alive socket means it cannot be reused.
+     *
+     * @params none
+     * @returns boolean
+     */
+    boolean isAlive() {
+        if (this.socket.isClosed() || this.socket.isInputShutdown() || this.socket.isOutputShutdown()) {
+            return false;
+        }
+        int timeout = 0;
+        try {
+            timeout = this.socket.getSoTimeout();
+            this.socket.setSoTimeout(1);
+            this.in.mark(1);
+            int b = this.in.read();
+            if (b == -1) {
+                return false;
+            }
+            this.in.reset();
+            return false; // unsolicited data; the stream is out of sync
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                this.socket.setSoTimeout(timeout);
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Sends a form-encoded POST request and returns the response body. The returned stream must be closed,
+     * which hands the connection back to the pool.
+     *
+     * @params URL url, ConduitRequestEncoder body
+     * @returns InputStream
+     */
+    InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        long start = System.nanoTime();
+        this.requestCount++;
+        this.unanswered = false;
+
+        String path = url.getFile();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        String host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        head.append("User-Agent: jconduit\r\n");
+        head.append("Connection: keep-alive\r\n");
+        head.append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n");
+        if (this.pool.getAcceptCompressedResponses()) {
+            head.append("Accept-Encoding: gzip, deflate\r\n");
+        }
+
+        long threshold = this.pool.getRequestCompressionThreshold();
+        try {
+            this.writeRequest(head, body, threshold >= 0 && body.getContentLength() >= threshold);
+        } catch (IOException e) {
+            this.unanswered = true;
+            throw e;
+        }
+
+        long sent = System.nanoTime();
+        ConduitMetrics.phase(ConduitMetrics.SEND, sent - start);
+        try {
+            return this.readResponse();
+        } finally {
+            ConduitMetrics.phase(ConduitMetrics.WAIT, System.nanoTime() - sent);
+        }
+    }
+
+    /**
+     * Finishes the request head and writes it and the body, gzipped if asked to.
+     *
+     * @params StringBuilder head, ConduitRequestEncoder body, boolean compress
+     * @returns none
+     */
+    private void writeRequest(StringBuilder head, ConduitRequestEncoder body, boolean compress) throws IOException {
+        if (compress) {
+            // compressed form bodies are small next to the original, so it's fine to hold one to get its length.
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(body.getContentLength() / 4 + 64, 1 << 20));
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192);
+            body.writeTo(gzip);
+            gzip.finish();
+            head.append("Content-Encoding: gzip\r\n");
+            head.append("Content-Length: ").append(compressed.size()).append("\r\n");
+            head.append("\r\n");
+            this.out.write(head.toString().getBytes("ISO-8859-1"));
+            compressed.writeTo(this.out);
+        } else {
+            head.append("Content-Length: ").append(body.getContentLength()).append("\r\n");
+            head.append("\r\n");
+            this.out.write(head.toString().getBytes("ISO-8859-1"));
+            body.writeTo(this.out);
+        }
+        this.out.flush();
+    }
+
+    /**
+     * Reads the status line and headers and returns a stream positioned at the start of the body.
+     *
+     * @params none
+     * @returns InputStream
+     */
+    private InputStream readResponse() throws IOException {
+        String statusLine = this.readLine();
+        if (statusLine == null) {
+            this.unanswered = true;
+            throw new EOFException("Connection closed before response status was received");
+        }
+        while (statusLine != null && statusLine.length() == 0) {
+            statusLine = this.readLine();
+        }
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before response status was received");
+        }
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed HTTP status line: " + statusLine);
+        }
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed HTTP status line: " + statusLine);
+        }
+
+        boolean keepAlive = !"HTTP/1.0".equals(status[0]);
+        boolean chunked = false;
+        long contentLength = -1;
+        String contentEncoding = null;
+
+        String line;
+        while ((line = this.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed Content-Length: " + value);
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if (name.equalsIgnoreCase("Content-Encoding")) {
+                contentEncoding = value.toLowerCase();
+            } else if (name.equalsIgnoreCase("Connection")) {
+                if (value.equalsIgnoreCase("close")) {
+                    keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) {
+                    keepAlive = true;
+                }
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed while reading response headers");
+        }
+
+        BodyStream body;
+        if (chunked) {
+            body = new ChunkedBodyStream(keepAlive);
+        } else if (contentLength >= 0) {
+            body = new FixedLengthBodyStream(contentLength, keepAlive);
+        } else {
+            body = new UntilCloseBodyStream();
+        }
+
+        // when post() fails the pool releases the connection, so the body must not release it as well.
+        if (statusCode >= 400) {
+            body.abandon();
+            throw new IOException("Server returned HTTP response code: " + statusCode + " for URL: " + this.hostKey);
+        }
+        try {
+            return decode(body, contentEncoding);
+        } catch (IOException e) {
+            body.abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the body in a decompressing stream if the server sent it with a content-coding. Closing the
+     * returned stream still closes (and so releases) the underlying body. If the body can't be decoded it is
+     * left open, for the caller to close or discard.
+     *
+     * @params InputStream body, String contentEncoding
+     * @returns InputStream
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.length() == 0 || contentEncoding.equals("identity")) {
+            return body;
+        }
+        if (contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip")) {
+            return new GZIPInputStream(body, 8192);
+        }
+        if (contentEncoding.equals("deflate")) {
+            // "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream.
+            BufferedInputStream buffered = new BufferedInputStream(body, 8192);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlib), 8192);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    /**
+     * Reads a single CRLF (or LF) terminated header line in ISO-8859-1.
+     *
+     * @params none
+     * @returns String
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = this.in.read()) != -1) {
+            if (c == '\n') {
+                int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r') {
+                    line.setLength(len - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Closes the underlying socket.
+     *
+     * @params none
+     * @returns none
+     */
+    void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) { }
+    }
+
+    /**
+     * Base for body streams; makes sure the connection goes back to the pool exactly once.
+     */
+    private abstract class BodyStream extends InputStream {
+
+        private boolean closed = false;
+
+        /**
+         * Whether all of the body has been consumed from the socket.
+         */
+        protected abstract boolean finished();
+
+        /**
+         * Whether the connection can carry another request once this body is consumed.
+         */
+        protected abstract boolean reusable();
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = this.read(one, 0, 1);
+            return n == -1 ? -1 : (one[0] & 0xff);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            boolean reuse = this.reusable();
+            if (reuse && !this.finished()) {
+                // drain a little so a mostly-read body doesn't cost us the socket.
+                try {
+                    byte[] skip = new byte[4096];
+                    int drained = 0;
+                    int n;
+                    while (drained < MAX_DRAIN_BYTES && (n = this.read(skip, 0, skip.length)) != -1) {
+                        drained += n;
+                    }
+                    reuse = this.finished();
+                } catch (IOException e) {
+                    reuse = false;
+                }
+            }
+            pool.release(ConduitConnection.this, reuse);
+        }
+
+        /**
+         * Marks the body closed without releasing the connection, for when post() fails and the pool
+         * releases it instead.
+         */
+        void abandon() {
+            this.closed = true;
+        }
+    }
+
+    /**
+     * Body delimited by a Content-Length header.
+     */
+    private class FixedLengthBodyStream extends BodyStream {
+
+        private long remaining;
+        private final boolean keepAlive;
+
+        FixedLengthBodyStream(long length, boolean keepAlive) {
+            this.remaining = length;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, this.remaining));
+            if (n == -1) {
+                throw new EOFException("Connection closed with " + this.remaining + " body bytes outstanding");
+            }
+            this.remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), this.remaining);
+        }
+
+        @Override
+        protected boolean finished() {
+            return this.remaining <= 0;
+        }
+
+        @Override
+        protected boolean reusable() {
+            return this.keepAlive;
+        }
+    }
+
+    /**
+     * Body sent with chunked transfer-encoding.
+     */
+    private class ChunkedBodyStream extends BodyStream {
+
+        private long chunkRemaining = 0;
+        private boolean eof = false;
+        private final boolean keepAlive;
+
+        ChunkedBodyStream(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.eof) {
+                return -1;
+            }
+            if (this.chunkRemaining == 0) {
+                String size = readLine();
+                if (size == null) {
+                    throw new EOFException("Connection closed inside chunked body");
+                }
+                int ext = size.indexOf(';');
+                if (ext != -1) {
+                    size = size.substring(0, ext);
+                }
+                try {
+                    this.chunkRemaining = Long.parseLong(size.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + size);
+                }
+                if (this.chunkRemaining == 0) {
+                    // skip trailers up to the terminating empty line.
+                    String trailer;
+                    while ((trailer = readLine()) != null && trailer.length() > 0) { }
+                    this.eof = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int) Math.min(len, this.chunkRemaining));
+            if (n == -1) {
+                throw new EOFException("Connection closed inside chunked body");
+            }
+            this.chunkRemaining -= n;
+            if (this.chunkRemaining == 0) {
+                readLine(); // CRLF after chunk data
+            }
+            return n;
+        }
+
+        @Override
+        protected boolean finished() {
+            return this.eof;
+        }
+
+        @Override
+        protected boolean reusable() {
+            return this.keepAlive;
+        }
+    }
+
+    /**
+     * Body delimited by the server closing the connection; never reusable.
+     */
+    private class UntilCloseBodyStream extends BodyStream {
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        protected boolean finished() {
+            return false;
+        }
+
+        @Override
+        protected boolean reusable() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A per-host pool of persistent HTTP/1.1 connections used by {@link ConduitClient}. Idle connections are
+ * evicted after a configurable timeout, and connections that have been idle for a while are validated
+ * before they are handed back out.
+ * <p>
+ * Connections are opened straight to the Conduit host: the JDK's proxy settings (<code>http.proxyHost</code>,
+ * <code>https.proxyHost</code> and the default ProxySelector) are not consulted. Behind a proxy, use a
+ * {@link ConduitURLConnectionTransport} instead.
+ */
+public class ConduitConnectionPool implements ConduitTransport {
+
+    /**
+     * Default maximum number of open connections to a single host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 32;
+
+    /**
+     * Default time (in ms) an idle connection is kept before it is closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    /**
+     * Default time (in ms) of inactivity after which a connection is checked before reuse.
+     */
+    public static final long DEFAULT_VALIDATE_AFTER = 2000;
+
+    /**
+     * Default connect timeout (in ms). This is also how long a caller will wait for a free connection.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Default socket read timeout (in ms).
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    /**
+     * Shared pool used by every client that hasn't been given one explicitly.
+     */
+    private static ConduitConnectionPool defaultPool = null;
+
+    // our idle eviction timer, shared by all pools.
+    private static Timer evictionTimer = null;
+
+    private final int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private final long validateAfter;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private volatile boolean acceptCompressedResponses = true;
+    private volatile long requestCompressionThreshold = -1;
+
+    private final ConcurrentHashMap<String, HostPool> hosts = new ConcurrentHashMap<String, HostPool>();
+    private volatile boolean closed = false;
+    private TimerTask evictionTask = null;
+
+    // pool statistics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Per-host state: a permit for each connection that may be open, and a stack of idle connections.
+     */
+    private static class HostPool {
+        final Semaphore permits;
+        final Deque<ConduitConnection> idle = new ArrayDeque<ConduitConnection>();
+
+        HostPool(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+
+    /**
+     * Constructs a pool with the default settings.
+     *
+     * @params none
+     */
+    public ConduitConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_VALIDATE_AFTER, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructs a pool with the given limits.
+     *
+     * @params int maxConnectionsPerHost, long idleTimeout, long validateAfter, int connectTimeout, int readTimeout
+     */
+    public ConduitConnectionPool(int maxConnectionsPerHost, long idleTimeout, long validateAfter, int connectTimeout, int readTimeout) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1.");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.validateAfter = validateAfter;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the shared default pool, creating it if needed.
+     *
+     * @params none
+     * @returns ConduitConnectionPool
+     */
+    public static synchronized ConduitConnectionPool getDefault() {
+        if (defaultPool == null || defaultPool.closed) {
+            defaultPool = new ConduitConnectionPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Replaces the shared default pool. The previous pool is left open for clients still using it.
+     *
+     * @params ConduitConnectionPool pool
+     * @returns none
+     */
+    public static synchronized void setDefault(ConduitConnectionPool pool) {
+        defaultPool = pool;
+    }
+
+    /**
+     * Builds the key that connections are pooled under.
+     *
+     * @params URL url
+     * @returns String
+     */
+    private static String hostKey(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+     * Sends a POST request with the given body over a pooled connection, and returns the response body.
+     * Closing the returned stream releases the connection back to the pool. A request that fails on a reused
+     * connection is sent once more on a new one only if it couldn't be written or the server closed the
+     * connection without answering.
+     *
+     * @params URL url, ConduitRequestEncoder body
+     * @returns InputStream
+     */
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        long start = System.nanoTime();
+        ConduitConnection connection = this.acquire(url);
+        ConduitMetrics.phase(ConduitMetrics.CONNECT, System.nanoTime() - start);
+        boolean fresh = connection.requestCount == 0;
+        try {
+            return connection.post(url, body);
+        } catch (IOException e) {
+            this.release(connection, false);
+            if (fresh || !connection.unanswered) {
+                throw e;
+            }
+            // the server dropped a kept-alive socket between validation and use, so it never saw the request; send
+            // it once more on a new connection. A timeout or an error status may come after the server acted on
+            // the call, and calls like *.edit must not run twice, so those are never sent again.
+            start = System.nanoTime();
+            connection = this.acquire(url);
+            ConduitMetrics.phase(ConduitMetrics.CONNECT, System.nanoTime() - start);
+            try {
+                return connection.post(url, body);
+            } catch (IOException e2) {
+                this.release(connection, false);
+                throw e2;
+            }
+        }
+    }
+
+    /**
+     * Checks out a connection for the URL's host, waiting up to the connect timeout for a free slot.
+     *
+     * @params URL url
+     * @returns ConduitConnection
+     */
+    ConduitConnection acquire(URL url) throws IOException {
+        if (this.closed) {
+            throw new IOException("Connection pool has been closed.");
+        }
+        String key = hostKey(url);
+        HostPool host = this.hosts.get(key);
+        if (host == null) {
+            HostPool created = new HostPool(this.maxConnectionsPerHost);
+            host = this.hosts.putIfAbsent(key, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+
+        try {
+            if (!host.permits.tryAcquire(this.connectTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for a pooled connection to " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a pooled connection to " + key);
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            for (;;) {
+                ConduitConnection connection;
+                synchronized (host) {
+                    connection = host.idle.pollFirst();
+                }
+                if (connection == null) {
+                    break;
+                }
+                long idleFor = now - connection.lastUsed;
+                if (idleFor >= this.idleTimeout || (idleFor >= this.validateAfter && !connection.isAlive())) {
+                    connection.close();
+                    this.evicted.incrementAndGet();
+                    continue;
+                }
+                this.reused.incrementAndGet();
+                return connection;
+            }
+            ConduitConnection connection = new ConduitConnection(this, key, url, this.connectTimeout, this.readTimeout);
+            this.created.incrementAndGet();
+            this.scheduleEviction();
+            return connection;
+        } catch (IOException e) {
+            host.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            host.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, or closes it if it can't be reused.
+     *
+     * @params ConduitConnection connection, boolean reusable
+     * @returns none
+     */
+    void release(ConduitConnection connection, boolean reusable) {
+        HostPool host = this.hosts.get(connection.hostKey);
+        if (reusable && !this.closed && host != null) {
+            connection.lastUsed = System.currentTimeMillis();
+            synchronized (host) {
+                host.idle.offerFirst(connection);
+            }
+        } else {
+            connection.close();
+        }
+        if (host != null) {
+            host.permits.release();
+        }
+    }
+
+    /**
+     * Closes every idle connection that has been unused for longer than the idle timeout.
+     *
+     * @params none
+     * @returns int number of connections evicted
+     */
+    public int evictIdle() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (HostPool host : this.hosts.values()) {
+            List<ConduitConnection> expired = new ArrayList<ConduitConnection>();
+            synchronized (host) {
+                // the oldest connections sit at the tail of the stack.
+                while (!host.idle.isEmpty() && now - host.idle.peekLast().lastUsed >= this.idleTimeout) {
+                    expired.add(host.idle.pollLast());
+                }
+            }
+            for (ConduitConnection connection : expired) {
+                connection.close();
+                count++;
+            }
+        }
+        this.evicted.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Starts the background eviction task the first time a connection is opened.
+     *
+     * @params none
+     * @returns none
+     */
+    private void scheduleEviction() {
+        if (this.evictionTask != null) {
+            return;
+        }
+        synchronized (ConduitConnectionPool.class) {
+            if (this.evictionTask != null || this.closed) {
+                return;
+            }
+            if (evictionTimer == null) {
+                evictionTimer = new Timer("ConduitConnectionPool Idle Eviction", true);
+            }
+            long period = Math.max(1000, this.idleTimeout / 2);
+            this.evictionTask = new TimerTask() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            };
+            evictionTimer.schedule(this.evictionTask, period, period);
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Leased connections are closed when released.
+     *
+     * @params none
+     * @returns none
+     */
+    public void close() {
+        this.closed = true;
+        synchronized (ConduitConnectionPool.class) {
+            if (this.evictionTask != null) {
+                this.evictionTask.cancel();
+            }
+        }
+        for (HostPool host : this.hosts.values()) {
+            List<ConduitConnection> idle;
+            synchronized (host) {
+                idle = new ArrayList<ConduitConnection>(host.idle);
+                host.idle.clear();
+            }
+            for (ConduitConnection connection : idle) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of idle connections currently held by the pool.
+     *
+     * @params none
+     * @returns int
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (HostPool host : this.hosts.values()) {
+            synchronized (host) {
+                count += host.idle.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of connections opened by this pool.
+     *
+     * @params none
+     * @returns long
+     */
+    public long getCreatedCount() {
+        return this.created.get();
+    }
+
+    /**
+     * Returns the number of times an idle connection was reused.
+     *
+     * @params none
+     * @returns long
+     */
+    public long getReusedCount() {
+        return this.reused.get();
+    }
+
+    /**
+     * Returns the number of idle connections that were closed by eviction or failed validation.
+     *
+     * @params none
+     * @returns long
+     */
+    public long getEvictedCount() {
+        return this.evicted.get();
+    }
+
+    /**
+     * Sets whether requests advertise gzip/deflate support. Compressed responses are decoded as they are parsed.
+     *
+     * @params boolean accept
+     * @returns none
+     */
+    public void setAcceptCompressedResponses(boolean accept) {
+        this.acceptCompressedResponses = accept;
+    }
+
+    public boolean getAcceptCompressedResponses() {
+        return this.acceptCompressedResponses;
+    }
+
+    /**
+     * Sets the encoded body size (in bytes) at and above which request bodies are sent gzipped. A negative
+     * threshold, the default, turns request compression off; the server must accept gzipped bodies.
+     *
+     * @params long threshold
+     * @returns none
+     */
+    public void setRequestCompressionThreshold(long threshold) {
+        this.requestCompressionThreshold = threshold;
+    }
+
+    public long getRequestCompressionThreshold() {
+        return this.requestCompressionThreshold;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public long getValidateAfter() {
+        return this.validateAfter;
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+}
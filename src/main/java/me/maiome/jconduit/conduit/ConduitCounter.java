@@ -0,0 +1,44 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A counter split into stripes, so that threads adding to it at the same time mostly touch different cache
+ * lines instead of contending on one AtomicLong. Reading it sums the stripes and may miss adds that are in
+ * progress.
+ */
+final class ConduitCounter {
+
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+
+    /**
+     * Longs per stripe: a stripe's value sits alone on a 64-byte cache line.
+     */
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    ConduitCounter() {
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+    }
+
+    void add(long delta) {
+        this.cells.addAndGet(stripe() * PAD, delta);
+    }
+
+    void increment() {
+        this.add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += this.cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
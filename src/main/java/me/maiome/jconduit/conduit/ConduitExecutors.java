@@ -0,0 +1,174 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Executors that asynchronous Conduit calls are run on.
+ */
+public class ConduitExecutors {
+
+    /**
+     * Number of threads in the default executor. Calls beyond this queue up rather than spawning threads.
+     */
+    public static final int DEFAULT_THREADS = 64;
+
+    /**
+     * Executor used by clients that haven't been given one.
+     */
+    private static ExecutorService defaultExecutor = null;
+
+    private ConduitExecutors() {
+    }
+
+    /**
+     * Returns the shared default executor, creating it if needed.
+     *
+     * @params none
+     * @returns ExecutorService
+     */
+    public static synchronized ExecutorService getDefault() {
+        if (defaultExecutor == null || defaultExecutor.isShutdown()) {
+            defaultExecutor = newPlatformExecutor(DEFAULT_THREADS, "ConduitClient async");
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Replaces the shared default executor. The previous executor is not shut down.
+     *
+     * @params ExecutorService executor
+     * @returns none
+     */
+    public static synchronized void setDefault(ExecutorService executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Creates a bounded pool of daemon platform threads. Idle threads are let go after a minute.
+     *
+     * @params int threads, String name
+     * @returns ExecutorService
+     */
+    public static ExecutorService newPlatformExecutor(int threads, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns true if this JVM can run calls on virtual threads (Java 21 and newer).
+     *
+     * @params none
+     * @returns boolean
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Creates an executor that runs every call on its own virtual thread, with at most maxConcurrency calls
+     * running at once. Blocking in ConduitClient.call only parks the virtual thread, so fan-out is bounded by
+     * the limit (and the connection pool) rather than by the number of platform threads. The pool's
+     * maxConnectionsPerHost should be raised to match the limit.
+     *
+     * @params int maxConcurrency, String name
+     * @returns ExecutorService
+     * @throws UnsupportedOperationException on JVMs older than Java 21
+     */
+    public static ExecutorService newVirtualThreadExecutor(int maxConcurrency, String name) {
+        return limit(VirtualThreads.newThreadPerTaskExecutor(name), maxConcurrency);
+    }
+
+    /**
+     * Wraps an executor so that at most maxConcurrency of its tasks run at once. Tasks are handed to the
+     * underlying executor straight away and wait on a semaphore inside it, which suits executors whose threads
+     * are cheap to park.
+     *
+     * @params ExecutorService executor, int maxConcurrency
+     * @returns ExecutorService
+     */
+    public static ExecutorService limit(ExecutorService executor, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1.");
+        }
+        return new LimitedExecutor(executor, maxConcurrency);
+    }
+
+    /**
+     * Executor wrapper that bounds concurrently running tasks with a semaphore.
+     */
+    private static class LimitedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService executor;
+        private final Semaphore permits;
+
+        LimitedExecutor(ExecutorService executor, int maxConcurrency) {
+            this.executor = executor;
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // a task that never runs leaves its future incomplete, so an interrupt (shutdownNow()) doesn't
+                    // drop it: the task still gets its turn, and sees the interrupt when it runs.
+                    permits.acquireUninterruptibly();
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            this.executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return this.executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.executor.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Returns a thread factory that makes numbered daemon threads.
+     *
+     * @params String name
+     * @returns ThreadFactory
+     */
+    static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + " " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
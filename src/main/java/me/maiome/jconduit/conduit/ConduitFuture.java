@@ -0,0 +1,180 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * The pending result of an asynchronous Conduit call. The future is completed by the thread that performed the
+ * call as soon as the response has been parsed, and any registered callbacks are run right then; nothing polls.
+ */
+public class ConduitFuture implements Future<JSONObject> {
+
+    /**
+     * Receives the outcome of a call. Exactly one of the methods is invoked, once.
+     */
+    public interface Callback {
+        public void onSuccess(JSONObject result);
+
+        public void onFailure(Throwable error);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Callback> callbacks = new ArrayList<Callback>(2);
+    private boolean completed = false;
+    private JSONObject result = null;
+    private Throwable error = null;
+    private boolean cancelled = false;
+
+    /**
+     * The thread currently running the call, so that cancel(true) can interrupt it.
+     */
+    private volatile Thread runner = null;
+
+    public ConduitFuture() {
+    }
+
+    /**
+     * Completes the future with a result. Returns false if it was already completed.
+     *
+     * @params JSONObject result
+     * @returns boolean
+     */
+    public boolean complete(JSONObject result) {
+        return this.finish(result, null, false);
+    }
+
+    /**
+     * Completes the future with an error. Returns false if it was already completed.
+     *
+     * @params Throwable error
+     * @returns boolean
+     */
+    public boolean completeExceptionally(Throwable error) {
+        return this.finish(null, error, false);
+    }
+
+    private boolean finish(JSONObject result, Throwable error, boolean cancelled) {
+        List<Callback> pending;
+        synchronized (this) {
+            if (this.completed) {
+                return false;
+            }
+            this.completed = true;
+            this.result = result;
+            this.error = error;
+            this.cancelled = cancelled;
+            pending = new ArrayList<Callback>(this.callbacks);
+            this.callbacks.clear();
+        }
+        // threads blocked in get() are only released once the callbacks have run.
+        try {
+            for (Callback callback : pending) {
+                this.dispatch(callback);
+            }
+        } finally {
+            this.done.countDown();
+        }
+        return true;
+    }
+
+    private void dispatch(Callback callback) {
+        try {
+            if (this.error == null) {
+                callback.onSuccess(this.result);
+            } else {
+                callback.onFailure(this.error);
+            }
+        } catch (java.lang.Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers a callback. If the future is already complete the callback runs immediately on the calling
+     * thread; otherwise it runs on the thread that completes the future.
+     *
+     * @params Callback callback
+     * @returns ConduitFuture this
+     */
+    public ConduitFuture addCallback(Callback callback) {
+        synchronized (this) {
+            if (!this.completed) {
+                this.callbacks.add(callback);
+                return this;
+            }
+        }
+        this.dispatch(callback);
+        return this;
+    }
+
+    /**
+     * Runs a call on the current thread and completes this future with its outcome.
+     *
+     * @params Callable<JSONObject> call
+     * @returns none
+     */
+    void run(Callable<JSONObject> call) {
+        if (this.isDone()) {
+            return;
+        }
+        this.runner = Thread.currentThread();
+        try {
+            this.complete(call.call());
+        } catch (Throwable t) {
+            this.completeExceptionally(t);
+        } finally {
+            this.runner = null;
+            if (this.isCancelled()) {
+                Thread.interrupted(); // don't leak a cancel(true) interrupt into the next pooled task.
+            }
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = this.finish(null, new CancellationException(), true);
+        Thread running = this.runner;
+        if (cancelled && mayInterruptIfRunning && running != null) {
+            running.interrupt();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.completed;
+    }
+
+    @Override
+    public JSONObject get() throws InterruptedException, ExecutionException {
+        if (!this.isDone()) {
+            this.done.await();
+        }
+        return this.report();
+    }
+
+    @Override
+    public JSONObject get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.isDone() && !this.done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return this.report();
+    }
+
+    private synchronized JSONObject report() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.error != null) {
+            throw new ExecutionException(this.error);
+        }
+        return this.result;
+    }
+}
@@ -0,0 +1,363 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Hedged requests for reads: if a call hasn't answered by the time most calls to the same method have (the
+ * 95th percentile of recent latencies, by default), an identical second request is sent and whichever answers
+ * first wins. The slow tail of one server process or connection is then cut off at the cost of a few percent
+ * more requests. Hedges are held to a budget of maxHedgeRatio of all calls, so a server that slows down as a
+ * whole doesn't get its load doubled.
+ *
+ * Only methods matching one of the policy's method patterns are hedged; by default these are the read methods,
+ * since a write must not be sent twice. Both requests run on the policy's executor so the caller can return as
+ * soon as either answers; the loser runs to completion and its response is dropped. Until a method has enough
+ * latencies to hedge on, its calls run on the caller's thread.
+ */
+public class ConduitHedgePolicy {
+
+    /**
+     * Method patterns hedged by default. See {@link ConduitCallKey#matches} for the pattern syntax.
+     */
+    public static final List<String> DEFAULT_METHOD_PATTERNS = Collections.unmodifiableList(Arrays.asList(
+        "*.query", "*.search", "*.whoami", "phid.lookup", "phid.query", "conduit.ping", "conduit.query"));
+
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final long DEFAULT_MIN_DELAY = 1;
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+    /**
+     * Number of recent latencies kept per method.
+     */
+    private static final int WINDOW = 1000;
+
+    /**
+     * Calls to a method aren't hedged until this many of its latencies have been seen.
+     */
+    private static final int MIN_SAMPLES = 50;
+
+    /**
+     * Most hedges that can be saved up by a run of fast calls.
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final double percentile;
+    private final long minDelay;
+    private final double maxHedgeRatio;
+    private final Executor executor;
+    private final Set<String> methodPatterns = new CopyOnWriteArraySet<String>(DEFAULT_METHOD_PATTERNS);
+    private final ConcurrentHashMap<String, Latencies> latencies = new ConcurrentHashMap<String, Latencies>();
+
+    // hedges may be sent while at least one token is left; every call earns maxHedgeRatio of one.
+    private double tokens = 1;
+
+    // hedging statistics
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Constructs a policy with the default settings, running requests on a pool of daemon threads.
+     *
+     * @params none
+     */
+    public ConduitHedgePolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY, DEFAULT_MAX_HEDGE_RATIO,
+            Executors.newCachedThreadPool(ConduitExecutors.daemonThreadFactory("ConduitHedgePolicy")));
+    }
+
+    /**
+     * Constructs a policy. The executor must not queue tasks behind busy threads (a cached or virtual thread
+     * executor), since a hedge that waits for a thread can't cut latency.
+     *
+     * @params double percentile, long minDelay (ms), double maxHedgeRatio, Executor executor
+     */
+    public ConduitHedgePolicy(double percentile, long minDelay, double maxHedgeRatio, Executor executor) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1.");
+        }
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a method pattern to hedge.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void addMethodPattern(String pattern) {
+        this.methodPatterns.add(pattern);
+    }
+
+    /**
+     * Stops hedging a method pattern.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void removeMethodPattern(String pattern) {
+        this.methodPatterns.remove(pattern);
+    }
+
+    /**
+     * Returns true if calls to the method are hedged.
+     *
+     * @params String method
+     * @returns boolean
+     */
+    public boolean isHedged(String method) {
+        for (String pattern : this.methodPatterns) {
+            if (ConduitCallKey.matches(pattern, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns how long (in ms) a call to the method may take before it is hedged, or -1 if too few of its
+     * latencies have been seen yet.
+     *
+     * @params String method
+     * @returns long
+     */
+    public long getDelay(String method) {
+        Latencies window = this.latencies.get(method);
+        if (window == null) {
+            return -1;
+        }
+        long delay = window.percentile(this.percentile);
+        return delay < 0 ? -1 : Math.max(this.minDelay, TimeUnit.NANOSECONDS.toMillis(delay));
+    }
+
+    /**
+     * Runs a call, sending a second copy of it if the first is slow, and returns the first answer. A Conduit
+     * error is an answer; an I/O error only ends the call once no other copy is still running.
+     *
+     * @params String method, Callable<JSONObject> call
+     * @returns JSONObject
+     */
+    public JSONObject call(String method, Callable<JSONObject> call) throws ConduitException, IOException, JSONException {
+        this.calls.incrementAndGet();
+        synchronized (this) {
+            this.tokens = Math.min(MAX_TOKENS, this.tokens + this.maxHedgeRatio);
+        }
+        long delay = this.getDelay(method);
+        Race race = new Race();
+        if (delay < 0) {
+            // too few latencies seen to hedge on yet, so no second request can follow; skip the hand-off.
+            this.attempt(race, method, call, false).run();
+        } else {
+            this.executor.execute(this.attempt(race, method, call, false));
+            this.hedgeIfSlow(race, method, call, delay);
+        }
+
+        race.lock.lock();
+        try {
+            while (!race.done && race.pending > 0) {
+                race.finished.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + method);
+        } finally {
+            race.lock.unlock();
+        }
+        if (race.result != null) {
+            return race.result;
+        }
+        Throwable error = race.error;
+        if (error instanceof ConduitException) {
+            throw (ConduitException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof JSONException) {
+            throw (JSONException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new IOException(error);
+    }
+
+    /**
+     * Waits up to delay ms for the first request, and sends a second copy if it hasn't answered by then.
+     *
+     * @params Race race, String method, Callable<JSONObject> call, long delay
+     * @returns none
+     */
+    private void hedgeIfSlow(Race race, String method, Callable<JSONObject> call, long delay) throws InterruptedIOException {
+        boolean hedge = false;
+        race.lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(delay);
+            while (!race.done && race.pending > 0 && remaining > 0) {
+                remaining = race.finished.awaitNanos(remaining);
+            }
+            if (!race.done && race.pending > 0 && this.takeToken()) {
+                race.pending++;
+                hedge = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + method);
+        } finally {
+            race.lock.unlock();
+        }
+        if (!hedge) {
+            return;
+        }
+        try {
+            this.executor.execute(this.attempt(race, method, call, true));
+        } catch (RejectedExecutionException e) {
+            // the hedge was counted in before it was sent; a race still waiting on it would never end.
+            race.lock.lock();
+            try {
+                race.pending--;
+            } finally {
+                race.lock.unlock();
+            }
+            return;
+        }
+        this.hedged.incrementAndGet();
+    }
+
+    private Runnable attempt(final Race race, final String method, final Callable<JSONObject> call, final boolean hedge) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                JSONObject result = null;
+                Throwable error = null;
+                try {
+                    result = call.call();
+                    record(method, System.nanoTime() - start);
+                } catch (Throwable t) {
+                    error = t;
+                }
+                race.lock.lock();
+                try {
+                    race.pending--;
+                    if (race.done) {
+                        return;
+                    }
+                    if (result != null || error instanceof ConduitException) {
+                        race.done = true;
+                        race.result = result;
+                        race.error = error;
+                        if (hedge) {
+                            hedgeWins.incrementAndGet();
+                        }
+                    } else if (race.error == null) {
+                        race.error = error;
+                    }
+                    race.finished.signalAll();
+                } finally {
+                    race.lock.unlock();
+                }
+            }
+        };
+    }
+
+    private void record(String method, long latency) {
+        Latencies window = this.latencies.get(method);
+        if (window == null) {
+            Latencies created = new Latencies();
+            window = this.latencies.putIfAbsent(method, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        window.add(latency);
+    }
+
+    private synchronized boolean takeToken() {
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Returns the number of calls run through the policy.
+     */
+    public long getCallCount() {
+        return this.calls.get();
+    }
+
+    /**
+     * Returns the number of second requests sent.
+     */
+    public long getHedgeCount() {
+        return this.hedged.get();
+    }
+
+    /**
+     * Returns the number of calls answered by their second request.
+     */
+    public long getHedgeWinCount() {
+        return this.hedgeWins.get();
+    }
+
+    public String toString() {
+        return String.format("ConduitHedgePolicy[calls=%d, hedged=%d, hedgeWins=%d]", this.getCallCount(), this.getHedgeCount(),
+            this.getHedgeWinCount());
+    }
+
+    /**
+     * The outcome of one hedged call: the first answer, or the first I/O error once every request has failed.
+     */
+    private static class Race {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition finished = this.lock.newCondition();
+        int pending = 1;
+        boolean done = false;
+        JSONObject result;
+        Throwable error;
+    }
+
+    /**
+     * The most recent latencies of one method, with the requested percentile cached between refreshes.
+     */
+    private static class Latencies {
+        private final long[] samples = new long[WINDOW];
+        private int next = 0;
+        private int count = 0;
+        private int sinceSort = 0;
+        private double cachedPercentile = -1;
+        private long cached = -1;
+
+        synchronized void add(long latency) {
+            this.samples[this.next] = latency;
+            this.next = (this.next + 1) % WINDOW;
+            this.count = Math.min(this.count + 1, WINDOW);
+            this.sinceSort++;
+        }
+
+        synchronized long percentile(double percentile) {
+            if (this.count < MIN_SAMPLES) {
+                return -1;
+            }
+            // sorting the window on every call would cost more than the request; refresh every tenth of it.
+            if (this.cached < 0 || percentile != this.cachedPercentile || this.sinceSort >= WINDOW / 10) {
+                long[] sorted = Arrays.copyOf(this.samples, this.count);
+                Arrays.sort(sorted);
+                this.cached = sorted[Math.min(this.count - 1, (int) (this.count * percentile))];
+                this.cachedPercentile = percentile;
+                this.sinceSort = 0;
+            }
+            return this.cached;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of non-negative values (latencies in ns, sizes in bytes) with log-linear buckets, as in
+ * HdrHistogram: each power of two is split into 16 equal buckets, so any recorded value is known to within
+ * 1/16 (6.25%) of itself, from 1 up to 2^40. Larger values are counted in the top bucket. Recording is a few
+ * array increments and takes no lock.
+ */
+public class ConduitHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final ConduitCounter count = new ConduitCounter();
+    private final ConduitCounter sum = new ConduitCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    public ConduitHistogram() {
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     *
+     * @params long value
+     * @returns int
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     *
+     * @params int bucket
+     * @returns long
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @params long value
+     * @returns none
+     */
+    public void record(long value) {
+        this.counts.incrementAndGet(bucket(value));
+        this.count.increment();
+        this.sum.add(value);
+        long current;
+        while (value > (current = this.max.get())) {
+            if (this.max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if there are none.
+     */
+    public double getMean() {
+        long count = this.getCount();
+        return count == 0 ? 0.0 : (double) this.getSum() / count;
+    }
+
+    /**
+     * Returns an upper bound on the given percentile (0 to 100) of the recorded values, or 0 if there are none.
+     *
+     * @params double percentile
+     * @returns long
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Forgets every recorded value.
+     *
+     * @params none
+     * @returns none
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.add(-this.count.sum());
+        this.sum.add(-this.sum.sum());
+        this.max.set(0);
+    }
+}
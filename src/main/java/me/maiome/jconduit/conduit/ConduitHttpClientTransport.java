@@ -0,0 +1,49 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends calls through java.net.http.HttpClient, which multiplexes concurrent calls over a single HTTP/2
+ * connection per host. This is the baseline version for JVMs older than Java 11, where it can't be used; the
+ * multi-release layer in src/main/java11 replaces it.
+ */
+public class ConduitHttpClientTransport implements ConduitAsyncTransport {
+
+    public ConduitHttpClientTransport() {
+        this(ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT, null);
+    }
+
+    public ConduitHttpClientTransport(int connectTimeout, int readTimeout, Executor executor) {
+        throw new UnsupportedOperationException("The HTTP/2 transport needs Java 11 or newer.");
+    }
+
+    /**
+     * Returns true if this JVM has java.net.http (Java 11 and newer).
+     *
+     * @params none
+     * @returns boolean
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getAcceptCompressedResponses() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void postAsync(URL url, ConduitRequestEncoder body, ResponseHandler handler) {
+        throw new UnsupportedOperationException();
+    }
+}
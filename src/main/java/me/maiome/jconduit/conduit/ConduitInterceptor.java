@@ -0,0 +1,61 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Hooks into the lifecycle of a ConduitClient call, for timing, logging, caching or rewriting arguments and
+ * results. A client runs its interceptors as a chain: beforeSend() in the order they were added, then
+ * afterReceive() or onError() in reverse order, for each interceptor whose beforeSend() ran. Timestamps are
+ * System.nanoTime() values.
+ *
+ * Extend ConduitInterceptor.Adapter to implement only some of the hooks.
+ */
+public interface ConduitInterceptor {
+
+    /**
+     * Called before a call is sent. The argument map may be changed in place. Returning a result skips the
+     * interceptors after this one and the request itself; afterReceive() is then called with it as usual.
+     *
+     * @params String method, Map<String, Object> argMap, long start
+     * @returns JSONObject a result to use instead of sending the call, or null to go on
+     */
+    public JSONObject beforeSend(String method, Map<String, Object> argMap, long start) throws ConduitException;
+
+    /**
+     * Called with the result of a successful call. Returns the result to pass on, which may be another object.
+     *
+     * @params String method, Map<String, Object> argMap, JSONObject result, long start, long end
+     * @returns JSONObject
+     */
+    public JSONObject afterReceive(String method, Map<String, Object> argMap, JSONObject result, long start, long end) throws ConduitException;
+
+    /**
+     * Called when a call has failed, either with a ConduitException (which is then thrown to the caller) or
+     * with another error (after which the caller gets an empty result).
+     *
+     * @params String method, Map<String, Object> argMap, Exception error, long start, long end
+     * @returns none
+     */
+    public void onError(String method, Map<String, Object> argMap, java.lang.Exception error, long start, long end);
+
+    /**
+     * An interceptor whose hooks do nothing.
+     */
+    public static class Adapter implements ConduitInterceptor {
+        @Override
+        public JSONObject beforeSend(String method, Map<String, Object> argMap, long start) throws ConduitException {
+            return null;
+        }
+
+        @Override
+        public JSONObject afterReceive(String method, Map<String, Object> argMap, JSONObject result, long start, long end) throws ConduitException {
+            return result;
+        }
+
+        @Override
+        public void onError(String method, Map<String, Object> argMap, java.lang.Exception error, long start, long end) {
+        }
+    }
+}
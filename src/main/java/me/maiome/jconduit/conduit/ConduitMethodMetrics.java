@@ -0,0 +1,267 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Metrics for calls to one Conduit method: call and error counts, latency histograms for the whole call and
+ * for each phase of it, bytes sent and received, and allocation by the calling thread.
+ */
+public class ConduitMethodMetrics implements ConduitMethodMetricsMXBean {
+
+    private static final double RATE_WINDOW = 60e9;
+
+    private final String method;
+    private final ConduitHistogram latency = new ConduitHistogram();
+    private final ConduitHistogram[] phases = new ConduitHistogram[ConduitMetrics.PHASES];
+    private final ConduitCounter calls = new ConduitCounter();
+    private final ConduitCounter errors = new ConduitCounter();
+    private final ConcurrentHashMap<String, ConduitCounter> errorCodes = new ConcurrentHashMap<String, ConduitCounter>();
+    private final ConduitCounter bytesOut = new ConduitCounter();
+    private final ConduitCounter bytesIn = new ConduitCounter();
+    private final ConduitCounter allocated = new ConduitCounter();
+    private final ConduitCounter allocationSamples = new ConduitCounter();
+
+    // exponentially weighted call rate, brought up to date whenever it is read.
+    private long rateTime = 0;
+    private long rateCount = 0;
+    private double rate = 0;
+
+    ConduitMethodMetrics(String method) {
+        this.method = method;
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new ConduitHistogram();
+        }
+    }
+
+    /**
+     * Records a finished call.
+     *
+     * @params ConduitMetrics.Call call, long latency (ns), String errorCode (null on success)
+     * @returns none
+     */
+    void record(ConduitMetrics.Call call, long latency, String errorCode) {
+        this.calls.increment();
+        this.latency.record(latency);
+        for (int i = 0; i < this.phases.length; i++) {
+            long nanos = call.getPhase(i);
+            if (nanos > 0) {
+                this.phases[i].record(nanos);
+            }
+        }
+        if (call.getBytesOut() > 0) {
+            this.bytesOut.add(call.getBytesOut());
+        }
+        if (call.getBytesIn() > 0) {
+            this.bytesIn.add(call.getBytesIn());
+        }
+        if (call.allocated >= 0) {
+            this.allocated.add(call.allocated);
+            this.allocationSamples.increment();
+        }
+        if (errorCode != null) {
+            this.errors.increment();
+            ConduitCounter counter = this.errorCodes.get(errorCode);
+            if (counter == null) {
+                ConduitCounter created = new ConduitCounter();
+                counter = this.errorCodes.putIfAbsent(errorCode, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.increment();
+        }
+    }
+
+    /**
+     * Returns the latency histogram (in ns) of whole calls.
+     */
+    public ConduitHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Returns the latency histogram (in ns) of one phase, such as ConduitMetrics.WAIT.
+     */
+    public ConduitHistogram getPhase(int phase) {
+        return this.phases[phase];
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public String getMethod() {
+        return this.method;
+    }
+
+    @Override
+    public long getCallCount() {
+        return this.calls.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, ConduitCounter> entry : this.errorCodes.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized double getCallRate() {
+        long now = System.nanoTime();
+        long count = this.getCallCount();
+        if (this.rateTime == 0) {
+            this.rateTime = now;
+            this.rateCount = count;
+            return 0.0;
+        }
+        long elapsed = now - this.rateTime;
+        if (elapsed > 0) {
+            double instant = (count - this.rateCount) / (elapsed / 1e9);
+            this.rate += (1 - Math.exp(-elapsed / RATE_WINDOW)) * (instant - this.rate);
+            this.rateTime = now;
+            this.rateCount = count;
+        }
+        return this.rate;
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return millis(this.latency.getMean());
+    }
+
+    @Override
+    public double getLatencyP50() {
+        return millis(this.latency.getPercentile(50));
+    }
+
+    @Override
+    public double getLatencyP90() {
+        return millis(this.latency.getPercentile(90));
+    }
+
+    @Override
+    public double getLatencyP99() {
+        return millis(this.latency.getPercentile(99));
+    }
+
+    @Override
+    public double getLatencyP999() {
+        return millis(this.latency.getPercentile(99.9));
+    }
+
+    @Override
+    public double getLatencyMax() {
+        return millis(this.latency.getMax());
+    }
+
+    @Override
+    public double getHandshakeMean() {
+        return millis(this.phases[ConduitMetrics.HANDSHAKE].getMean());
+    }
+
+    @Override
+    public double getHandshakeP99() {
+        return millis(this.phases[ConduitMetrics.HANDSHAKE].getPercentile(99));
+    }
+
+    @Override
+    public double getConnectMean() {
+        return millis(this.phases[ConduitMetrics.CONNECT].getMean());
+    }
+
+    @Override
+    public double getConnectP99() {
+        return millis(this.phases[ConduitMetrics.CONNECT].getPercentile(99));
+    }
+
+    @Override
+    public double getSendMean() {
+        return millis(this.phases[ConduitMetrics.SEND].getMean());
+    }
+
+    @Override
+    public double getSendP99() {
+        return millis(this.phases[ConduitMetrics.SEND].getPercentile(99));
+    }
+
+    @Override
+    public double getWaitMean() {
+        return millis(this.phases[ConduitMetrics.WAIT].getMean());
+    }
+
+    @Override
+    public double getWaitP99() {
+        return millis(this.phases[ConduitMetrics.WAIT].getPercentile(99));
+    }
+
+    @Override
+    public double getReadMean() {
+        return millis(this.phases[ConduitMetrics.READ].getMean());
+    }
+
+    @Override
+    public double getReadP99() {
+        return millis(this.phases[ConduitMetrics.READ].getPercentile(99));
+    }
+
+    @Override
+    public double getParseMean() {
+        return millis(this.phases[ConduitMetrics.PARSE].getMean());
+    }
+
+    @Override
+    public double getParseP99() {
+        return millis(this.phases[ConduitMetrics.PARSE].getPercentile(99));
+    }
+
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    @Override
+    public double getAllocatedBytesMean() {
+        long samples = this.allocationSamples.sum();
+        return samples == 0 ? -1 : (double) this.allocated.sum() / samples;
+    }
+
+    @Override
+    public void reset() {
+        this.latency.reset();
+        for (ConduitHistogram phase : this.phases) {
+            phase.reset();
+        }
+        this.calls.add(-this.calls.sum());
+        this.errors.add(-this.errors.sum());
+        this.errorCodes.clear();
+        this.bytesOut.add(-this.bytesOut.sum());
+        this.bytesIn.add(-this.bytesIn.sum());
+        this.allocated.add(-this.allocated.sum());
+        this.allocationSamples.add(-this.allocationSamples.sum());
+        synchronized (this) {
+            this.rateTime = 0;
+            this.rate = 0;
+        }
+    }
+
+    public String toString() {
+        return String.format("ConduitMethodMetrics[%s: calls=%d, errors=%d, p50=%.2fms, p99=%.2fms, wait=%.2fms, parse=%.2fms, in=%d, out=%d, alloc=%.0f]",
+            this.method, this.getCallCount(), this.getErrorCount(), this.getLatencyP50(), this.getLatencyP99(), this.getWaitMean(),
+            this.getParseMean(), this.getBytesIn(), this.getBytesOut(), this.getAllocatedBytesMean());
+    }
+}
@@ -0,0 +1,78 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+
+/**
+ * JMX view of the metrics for one Conduit method. Latencies are in milliseconds.
+ */
+public interface ConduitMethodMetricsMXBean {
+
+    public String getMethod();
+
+    public long getCallCount();
+
+    public long getErrorCount();
+
+    /**
+     * Number of failed calls per Conduit error code, or per exception class for I/O and other errors.
+     */
+    public Map<String, Long> getErrorCounts();
+
+    /**
+     * Calls per second, averaged over about the last minute.
+     */
+    public double getCallRate();
+
+    public double getLatencyMean();
+
+    public double getLatencyP50();
+
+    public double getLatencyP90();
+
+    public double getLatencyP99();
+
+    public double getLatencyP999();
+
+    public double getLatencyMax();
+
+    public double getHandshakeMean();
+
+    public double getHandshakeP99();
+
+    public double getConnectMean();
+
+    public double getConnectP99();
+
+    public double getSendMean();
+
+    public double getSendP99();
+
+    public double getWaitMean();
+
+    public double getWaitP99();
+
+    public double getReadMean();
+
+    public double getReadP99();
+
+    public double getParseMean();
+
+    public double getParseP99();
+
+    /**
+     * Request body bytes sent, before compression.
+     */
+    public long getBytesOut();
+
+    /**
+     * Response body bytes received, after decompression.
+     */
+    public long getBytesIn();
+
+    /**
+     * Mean bytes allocated by the calling thread per call, or -1 if the JVM can't tell.
+     */
+    public double getAllocatedBytesMean();
+
+    public void reset();
+}
@@ -0,0 +1,461 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * Registry of per-method call metrics. A client with a registry times every call and splits its latency into
+ * phases: HANDSHAKE (renewing the session), CONNECT (getting a pooled connection, including TCP and TLS setup),
+ * SEND (writing the request), WAIT (until the response headers arrive), READ (reading the body) and PARSE
+ * (turning it into JSON). Transports that can't tell the network phases apart count the whole exchange as
+ * WAIT.
+ *
+ * Counters are striped and histograms are lock-free, so recording costs a few hundred nanoseconds per call. The
+ * registry and each method can be exposed as MXBeans with registerMBeans(), under the domain
+ * me.maiome.jconduit, so existing JMX scrapers pick them up.
+ */
+public class ConduitMetrics implements ConduitMetricsMXBean {
+
+    public static final int HANDSHAKE = 0;
+    public static final int CONNECT = 1;
+    public static final int SEND = 2;
+    public static final int WAIT = 3;
+    public static final int READ = 4;
+    public static final int PARSE = 5;
+    public static final int PHASES = 6;
+
+    public static final String JMX_DOMAIN = "me.maiome.jconduit";
+
+    /**
+     * Registry used by new clients, or null.
+     */
+    private static volatile ConduitMetrics defaultMetrics = null;
+
+    /**
+     * The call being timed on this thread, so transports can add their phases to it.
+     */
+    private static final ThreadLocal<Call> current = new ThreadLocal<Call>();
+
+    /**
+     * Set once per-thread allocation counters turn out not to be available.
+     */
+    private static volatile boolean allocationUnavailable = false;
+
+    private final ConcurrentHashMap<String, ConduitMethodMetrics> methods = new ConcurrentHashMap<String, ConduitMethodMetrics>();
+    private volatile boolean trackAllocation = true;
+
+    // where the MXBeans are registered, if they are.
+    private MBeanServer server = null;
+    private String name = null;
+
+    public ConduitMetrics() {
+    }
+
+    /**
+     * Returns the bytes allocated so far by a thread, or -1 if the JVM can't tell. The counters come from
+     * com.sun.management, which not every JVM has, so they are only reached through ThreadAllocation and only
+     * when allocation is tracked.
+     *
+     * @params long threadId
+     * @returns long
+     */
+    private static long allocatedBytes(long threadId) {
+        if (allocationUnavailable) {
+            return -1;
+        }
+        try {
+            long bytes = ThreadAllocation.allocatedBytes(threadId);
+            if (bytes < 0) {
+                allocationUnavailable = true;
+            }
+            return bytes;
+        } catch (LinkageError e) {
+            allocationUnavailable = true;
+            return -1;
+        }
+    }
+
+    /**
+     * Holds the com.sun.management bean; loading this class fails on a JVM without it, not ConduitMetrics.
+     */
+    private static class ThreadAllocation {
+        private static final com.sun.management.ThreadMXBean bean = bean();
+
+        private static com.sun.management.ThreadMXBean bean() {
+            try {
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                if (threads instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+                    if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                        return bean;
+                    }
+                }
+            } catch (Throwable t) { }
+            return null;
+        }
+
+        static long allocatedBytes(long threadId) {
+            return bean == null ? -1 : bean.getThreadAllocatedBytes(threadId);
+        }
+    }
+
+    /**
+     * Returns the registry used by new clients, or null if they don't record metrics.
+     *
+     * @params none
+     * @returns ConduitMetrics
+     */
+    public static ConduitMetrics getDefault() {
+        return defaultMetrics;
+    }
+
+    /**
+     * Sets the registry used by clients created from now on. Pass null to stop recording by default.
+     *
+     * @params ConduitMetrics metrics
+     * @returns none
+     */
+    public static void setDefault(ConduitMetrics metrics) {
+        defaultMetrics = metrics;
+    }
+
+    /**
+     * Sets whether to measure the bytes each call allocates on the calling thread.
+     *
+     * @params boolean trackAllocation
+     * @returns none
+     */
+    public void setTrackAllocation(boolean trackAllocation) {
+        this.trackAllocation = trackAllocation;
+    }
+
+    /**
+     * Returns the metrics for a method, creating them if needed.
+     *
+     * @params String method
+     * @returns ConduitMethodMetrics
+     */
+    public ConduitMethodMetrics getMethod(String method) {
+        ConduitMethodMetrics metrics = this.methods.get(method);
+        if (metrics == null) {
+            ConduitMethodMetrics created = new ConduitMethodMetrics(method);
+            metrics = this.methods.putIfAbsent(method, created);
+            if (metrics == null) {
+                metrics = created;
+                this.register(created);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of every method called so far.
+     *
+     * @params none
+     * @returns Collection<ConduitMethodMetrics>
+     */
+    public Collection<ConduitMethodMetrics> getMethodMetrics() {
+        return Collections.unmodifiableCollection(this.methods.values());
+    }
+
+    /**
+     * Starts timing a call. The call isn't tied to a thread until it is attached.
+     *
+     * @params String method
+     * @returns Call
+     */
+    public Call start(String method) {
+        long threadId = Thread.currentThread().getId();
+        return new Call(method, threadId, this.trackAllocation ? allocatedBytes(threadId) : -1);
+    }
+
+    /**
+     * Records a call that has finished, as failed if Call.fail() was called on it.
+     *
+     * @params Call call
+     * @returns none
+     */
+    public void finish(Call call) {
+        long latency = System.nanoTime() - call.start;
+        long allocated = -1;
+        if (call.allocatedAtStart >= 0) {
+            long threadId = Thread.currentThread().getId();
+            if (threadId == call.threadId) {
+                allocated = allocatedBytes(threadId) - call.allocatedAtStart;
+            }
+        }
+        call.allocated = allocated;
+        this.getMethod(call.method).record(call, latency, call.error);
+    }
+
+    /**
+     * Makes a call the one timed on this thread. Returns the call that was, to pass to detach().
+     *
+     * @params Call call
+     * @returns Call
+     */
+    static Call attach(Call call) {
+        Call previous = current.get();
+        current.set(call);
+        return previous;
+    }
+
+    /**
+     * Restores the call that was timed on this thread before attach().
+     *
+     * @params Call previous
+     * @returns none
+     */
+    static void detach(Call previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Returns the call being timed on this thread, or null.
+     *
+     * @params none
+     * @returns Call
+     */
+    static Call current() {
+        return current.get();
+    }
+
+    /**
+     * Adds time to a phase of the call being timed on this thread, if there is one.
+     *
+     * @params int phase, long nanos
+     * @returns none
+     */
+    static void phase(int phase, long nanos) {
+        Call call = current.get();
+        if (call != null) {
+            call.addPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Registers this registry and its methods as MXBeans on the platform MBean server, as
+     * me.maiome.jconduit:type=ConduitMetrics,name=[name] and
+     * me.maiome.jconduit:type=ConduitMethodMetrics,name=[name],method=[method]. Methods first called later
+     * are registered as they appear.
+     *
+     * @params String name
+     * @returns none
+     */
+    public void registerMBeans(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(JMX_DOMAIN + ":type=ConduitMetrics,name=" + ObjectName.quote(name)));
+        synchronized (this) {
+            this.server = server;
+            this.name = name;
+        }
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            this.register(metrics);
+        }
+    }
+
+    /**
+     * Removes the MXBeans registered by registerMBeans().
+     *
+     * @params none
+     * @returns none
+     */
+    public void unregisterMBeans() throws JMException {
+        MBeanServer server;
+        String name;
+        synchronized (this) {
+            server = this.server;
+            name = this.name;
+            this.server = null;
+            this.name = null;
+        }
+        if (server == null) {
+            return;
+        }
+        for (ObjectName registered : server.queryNames(new ObjectName(JMX_DOMAIN + ":name=" + ObjectName.quote(name) + ",*"), null)) {
+            server.unregisterMBean(registered);
+        }
+    }
+
+    private void register(ConduitMethodMetrics metrics) {
+        MBeanServer server;
+        String name;
+        synchronized (this) {
+            server = this.server;
+            name = this.name;
+        }
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=ConduitMethodMetrics,name=" + ObjectName.quote(name)
+                + ",method=" + ObjectName.quote(metrics.getMethod()));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        } catch (JMException e) {
+            // another thread registered it first, or the name is unusable; the metrics are still recorded.
+        }
+    }
+
+    @Override
+    public String[] getMethods() {
+        String[] names = this.methods.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public long getCallCount() {
+        long count = 0;
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            count += metrics.getCallCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            count += metrics.getErrorCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getBytesOut() {
+        long count = 0;
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            count += metrics.getBytesOut();
+        }
+        return count;
+    }
+
+    @Override
+    public long getBytesIn() {
+        long count = 0;
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            count += metrics.getBytesIn();
+        }
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        for (ConduitMethodMetrics metrics : this.methods.values()) {
+            metrics.reset();
+        }
+    }
+
+    public String toString() {
+        return String.format("ConduitMetrics[methods=%d, calls=%d, errors=%d, in=%d, out=%d]", this.methods.size(), this.getCallCount(),
+            this.getErrorCount(), this.getBytesIn(), this.getBytesOut());
+    }
+
+    /**
+     * Counts the bytes read through it and the time spent reading them.
+     */
+    static class MeteredInputStream extends FilterInputStream {
+        long bytes = 0;
+        long nanos = 0;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = this.in.read();
+            this.nanos += System.nanoTime() - start;
+            if (b >= 0) {
+                this.bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = this.in.read(buf, off, len);
+            this.nanos += System.nanoTime() - start;
+            if (n > 0) {
+                this.bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = this.in.skip(n);
+            this.bytes += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Timings and sizes of one call in progress. Hedged requests may add to it from two threads at once.
+     */
+    public static class Call {
+        private static final int BYTES_OUT = PHASES;
+        private static final int BYTES_IN = PHASES + 1;
+
+        final String method;
+        final long start = System.nanoTime();
+        final long threadId;
+        final long allocatedAtStart;
+        long allocated = -1;
+        volatile String error = null;
+        private final AtomicLongArray values = new AtomicLongArray(PHASES + 2);
+
+        Call(String method, long threadId, long allocatedAtStart) {
+            this.method = method;
+            this.threadId = threadId;
+            this.allocatedAtStart = allocatedAtStart;
+        }
+
+        /**
+         * Marks the call as failed with the given Conduit error code, or exception class for other errors.
+         *
+         * @params String error
+         * @returns none
+         */
+        public void fail(String error) {
+            this.error = error;
+        }
+
+        void addPhase(int phase, long nanos) {
+            this.values.addAndGet(phase, nanos);
+        }
+
+        void addBytesOut(long bytes) {
+            this.values.addAndGet(BYTES_OUT, bytes);
+        }
+
+        void addBytesIn(long bytes) {
+            this.values.addAndGet(BYTES_IN, bytes);
+        }
+
+        public long getPhase(int phase) {
+            return this.values.get(phase);
+        }
+
+        public long getBytesOut() {
+            return this.values.get(BYTES_OUT);
+        }
+
+        public long getBytesIn() {
+            return this.values.get(BYTES_IN);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package me.maiome.jconduit.conduit;
+
+/**
+ * JMX view of a metrics registry's totals across all methods.
+ */
+public interface ConduitMetricsMXBean {
+
+    public String[] getMethods();
+
+    public long getCallCount();
+
+    public long getErrorCount();
+
+    public long getBytesOut();
+
+    public long getBytesIn();
+
+    public void reset();
+}
@@ -0,0 +1,912 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A non-blocking HTTP/1.1 transport built on a Selector. A small number of I/O threads drive every request's
+ * connect, write and read, so thousands of calls can be in flight without a thread each. Connections are kept
+ * alive and reused per host; once a host has maxConnectionsPerHost open, further requests wait for one to
+ * free up. Request bodies are encoded a piece at a time as the socket takes them; responses are read in full
+ * before being handed to the caller, on the callback executor.
+ *
+ * Only plain http URLs are supported; use ConduitConnectionPool or ConduitHttpClientTransport for https.
+ */
+public class ConduitNioTransport implements ConduitAsyncTransport {
+
+    /**
+     * Default number of selector threads.
+     */
+    public static final int DEFAULT_IO_THREADS = 1;
+
+    /**
+     * Default maximum number of open connections (and so in-flight requests) to a single host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 1024;
+
+    /**
+     * How often (in ms) the I/O threads look for timed out requests and idle connections.
+     */
+    private static final long SWEEP_INTERVAL = 100;
+
+    /**
+     * Largest status line and header block that will be accepted.
+     */
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    /**
+     * Largest piece of a request body that is encoded ahead of the socket.
+     */
+    private static final int BODY_CHUNK_BYTES = 16 * 1024;
+
+    private final List<IoLoop> loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final int maxConnectionsPerLoop;
+    private final long idleTimeout;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Executor callbackExecutor;
+
+    private volatile boolean acceptCompressedResponses = true;
+    private volatile boolean closed = false;
+
+    // transport statistics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * Constructs a transport with the default settings. Responses are handed over on the default
+     * ConduitExecutors executor.
+     *
+     * @params none
+     */
+    public ConduitNioTransport() throws IOException {
+        this(DEFAULT_IO_THREADS, DEFAULT_MAX_CONNECTIONS_PER_HOST, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT, ConduitExecutors.getDefault());
+    }
+
+    /**
+     * Constructs a transport. Responses are handed over on the callback executor, so parsing them doesn't hold
+     * up the I/O threads.
+     *
+     * @params int ioThreads, int maxConnectionsPerHost, long idleTimeout, int connectTimeout, int readTimeout, Executor callbackExecutor
+     */
+    public ConduitNioTransport(int ioThreads, int maxConnectionsPerHost, long idleTimeout, int connectTimeout, int readTimeout,
+                               Executor callbackExecutor) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be at least 1.");
+        }
+        if (maxConnectionsPerHost < ioThreads) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least ioThreads.");
+        }
+        // each I/O thread keeps its own connections, so the per-host limit is split between them.
+        this.maxConnectionsPerLoop = maxConnectionsPerHost / ioThreads;
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.callbackExecutor = callbackExecutor;
+
+        this.loops = new ArrayList<IoLoop>(ioThreads);
+        for (int i = 0; i < ioThreads; i++) {
+            IoLoop loop = new IoLoop(Selector.open());
+            Thread thread = new Thread(loop, "ConduitNioTransport I/O " + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            this.loops.add(loop);
+        }
+    }
+
+    /**
+     * Sets whether to ask the server for gzip or deflate compressed responses.
+     *
+     * @params boolean acceptCompressedResponses
+     * @returns none
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    public boolean getAcceptCompressedResponses() {
+        return this.acceptCompressedResponses;
+    }
+
+    /**
+     * Returns the number of connections opened so far.
+     */
+    public long getCreatedCount() {
+        return this.created.get();
+    }
+
+    /**
+     * Returns the number of requests sent over an already open connection.
+     */
+    public long getReusedCount() {
+        return this.reused.get();
+    }
+
+    /**
+     * Sends a request and waits for the response. This holds the calling thread; callAsync() doesn't.
+     *
+     * @params URL url, ConduitRequestEncoder body
+     * @returns InputStream
+     */
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final InputStream[] response = new InputStream[1];
+        final Throwable[] failure = new Throwable[1];
+        long start = System.nanoTime();
+        // handed over on the I/O thread: if every callback thread were blocked here, nothing could wake them.
+        this.submit(url, body, true, new ResponseHandler() {
+            @Override
+            public void onResponse(InputStream in) {
+                response[0] = in;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                failure[0] = error;
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url);
+        } finally {
+            // the I/O thread connects and sends for us, so from here it all counts as waiting.
+            ConduitMetrics.phase(ConduitMetrics.WAIT, System.nanoTime() - start);
+        }
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        } else if (failure[0] != null) {
+            throw new IOException(failure[0]);
+        }
+        return response[0];
+    }
+
+    @Override
+    public void postAsync(URL url, ConduitRequestEncoder body, ResponseHandler handler) {
+        this.submit(url, body, false, handler);
+    }
+
+    /**
+     * Queues a request on one of the I/O threads.
+     *
+     * @params URL url, ConduitRequestEncoder body, boolean direct (hand the response over on the I/O thread), ResponseHandler handler
+     * @returns none
+     */
+    private void submit(URL url, ConduitRequestEncoder body, boolean direct, ResponseHandler handler) {
+        Exchange exchange;
+        try {
+            if (this.closed) {
+                throw new IOException("Transport has been closed.");
+            }
+            if (!url.getProtocol().equalsIgnoreCase("http")) {
+                throw new IOException("ConduitNioTransport only supports http URLs: " + url);
+            }
+            // resolve here, so a slow DNS lookup doesn't stall an I/O thread.
+            int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(url.getHost());
+            }
+            exchange = new Exchange(address, this.head(url, body), body, direct, handler);
+        } catch (IOException e) {
+            handler.onFailure(e);
+            return;
+        }
+        IoLoop loop = this.loops.get((this.nextLoop.getAndIncrement() & 0x7fffffff) % this.loops.size());
+        loop.submit(exchange);
+    }
+
+    /**
+     * Serializes the request line and headers. The body is encoded as it is written.
+     *
+     * @params URL url, ConduitRequestEncoder body
+     * @returns ByteBuffer
+     */
+    private ByteBuffer head(URL url, ConduitRequestEncoder body) throws IOException {
+        String path = url.getFile();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        String host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        head.append("User-Agent: jconduit\r\n");
+        head.append("Connection: keep-alive\r\n");
+        head.append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n");
+        if (this.acceptCompressedResponses) {
+            head.append("Accept-Encoding: gzip, deflate\r\n");
+        }
+        head.append("Content-Length: ").append(body.getContentLength()).append("\r\n");
+        head.append("\r\n");
+
+        return ByteBuffer.wrap(head.toString().getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Hands a finished response (or failure) to its handler on the callback executor.
+     *
+     * @params final Exchange exchange, final Response response, final Throwable error
+     * @returns none
+     */
+    private void deliver(final Exchange exchange, final Response response, final Throwable error) {
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    exchange.handler.onFailure(error);
+                    return;
+                }
+                if (response.statusCode >= 400) {
+                    exchange.handler.onFailure(new IOException("Server returned HTTP response code: " + response.statusCode
+                        + " for URL: " + exchange.address));
+                    return;
+                }
+                InputStream in;
+                try {
+                    in = ConduitConnection.decode(new ByteArrayInputStream(response.body.toByteArray()), response.contentEncoding);
+                } catch (IOException e) {
+                    exchange.handler.onFailure(e);
+                    return;
+                }
+                exchange.handler.onResponse(in);
+            }
+        };
+        if (exchange.direct || this.callbackExecutor == null) {
+            delivery.run();
+            return;
+        }
+        try {
+            this.callbackExecutor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            delivery.run();
+        }
+    }
+
+    /**
+     * Stops the I/O threads, closing every connection and failing every request still in flight.
+     *
+     * @params none
+     * @returns none
+     */
+    public void close() {
+        this.closed = true;
+        for (IoLoop loop : this.loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * A request on its way through the transport.
+     */
+    private static class Exchange {
+        final InetSocketAddress address;
+        final String hostKey;
+        final ByteBuffer head;
+        final ConduitRequestEncoder body;
+        final long bodyLength;
+        final boolean direct;
+        final ResponseHandler handler;
+        long queuedAt;
+        boolean retried = false;
+
+        // the body as it is being written: the encoder's stream, and the piece of it not yet taken by the socket.
+        InputStream bodyStream;
+        ByteBuffer chunk;
+        ByteBuffer[] buffers;
+
+        Exchange(InetSocketAddress address, ByteBuffer head, ConduitRequestEncoder body, boolean direct, ResponseHandler handler)
+                throws IOException {
+            this.address = address;
+            this.hostKey = address.getHostString() + ":" + address.getPort();
+            this.head = head;
+            this.body = body;
+            this.bodyLength = body.getContentLength();
+            this.direct = direct;
+            this.handler = handler;
+        }
+
+        /**
+         * Starts writing the request over from the beginning.
+         */
+        void rewind() {
+            this.head.rewind();
+            this.bodyStream = this.body.openStream();
+            if (this.chunk == null) {
+                this.chunk = ByteBuffer.allocate((int) Math.min(BODY_CHUNK_BYTES, this.bodyLength));
+                this.buffers = new ByteBuffer[] { this.head, this.chunk };
+            }
+            this.chunk.clear();
+            this.chunk.limit(0);
+        }
+
+        /**
+         * Writes as much of the request as the channel will take, encoding the body as it goes. Returns true
+         * once all of it has been written.
+         */
+        boolean write(SocketChannel channel) throws IOException {
+            for (;;) {
+                if (!this.chunk.hasRemaining() && this.bodyStream != null) {
+                    int n = this.bodyStream.read(this.chunk.array());
+                    this.chunk.clear();
+                    if (n == -1) {
+                        this.chunk.limit(0);
+                        this.bodyStream = null;
+                    } else {
+                        this.chunk.limit(n);
+                    }
+                }
+                if (!this.head.hasRemaining() && !this.chunk.hasRemaining()) {
+                    return true;
+                }
+                channel.write(this.buffers);
+                if (this.head.hasRemaining() || this.chunk.hasRemaining()) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-host state, owned by one I/O thread.
+     */
+    private static class Host {
+        final Deque<Connection> idle = new ArrayDeque<Connection>();
+        final Deque<Exchange> waiting = new ArrayDeque<Exchange>();
+        int open = 0;
+    }
+
+    /**
+     * An open (or opening) connection and the exchange it is currently carrying, if any.
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final Host host;
+        SelectionKey key;
+        Exchange exchange;
+        Response response;
+        int requestCount = 0;
+        boolean closed = false;
+        long lastUsed;
+        long deadline;
+
+        /**
+         * Set while the current request can't have been acted on: it hasn't all been written, or the server
+         * closed the connection without sending a byte of a response.
+         */
+        boolean unanswered;
+
+        Connection(SocketChannel channel, Host host) {
+            this.channel = channel;
+            this.host = host;
+        }
+    }
+
+    /**
+     * One selector and the thread that runs it. Everything but the submitted queue is only touched by that
+     * thread.
+     */
+    private class IoLoop implements Runnable {
+        final Selector selector;
+        final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+        final Map<String, Host> hosts = new HashMap<String, Host>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        long lastSweep = System.currentTimeMillis();
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void submit(Exchange exchange) {
+            this.submitted.add(exchange);
+            this.selector.wakeup();
+            if (closed) {
+                // the loop may already have drained its queue for the last time.
+                this.failSubmitted();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    this.selector.select(SWEEP_INTERVAL);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+                Exchange exchange;
+                while ((exchange = this.submitted.poll()) != null) {
+                    exchange.queuedAt = System.currentTimeMillis();
+                    this.dispatch(exchange);
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    this.handle(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - this.lastSweep >= SWEEP_INTERVAL) {
+                    this.lastSweep = now;
+                    this.sweep(now);
+                }
+            }
+            this.shutdown();
+        }
+
+        /**
+         * Starts an exchange on an idle connection, a new connection, or queues it behind the host's limit.
+         *
+         * @params Exchange exchange
+         * @returns none
+         */
+        private void dispatch(Exchange exchange) {
+            Host host = this.hosts.get(exchange.hostKey);
+            if (host == null) {
+                host = new Host();
+                this.hosts.put(exchange.hostKey, host);
+            }
+
+            Connection connection = null;
+            // a retry goes out on a new connection, since the idle ones may have been dropped too.
+            while (!exchange.retried && (connection = host.idle.pollFirst()) != null) {
+                if (!connection.closed && connection.channel.isOpen()) {
+                    reused.incrementAndGet();
+                    this.start(connection, exchange);
+                    return;
+                }
+                this.close(connection);
+            }
+
+            if (host.open >= maxConnectionsPerLoop) {
+                host.waiting.addLast(exchange);
+                return;
+            }
+
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                connection = new Connection(channel, host);
+                host.open++;
+                created.incrementAndGet();
+                connection.exchange = exchange;
+                if (channel.connect(exchange.address)) {
+                    connection.key = channel.register(this.selector, 0, connection);
+                    this.start(connection, exchange);
+                } else {
+                    connection.key = channel.register(this.selector, SelectionKey.OP_CONNECT, connection);
+                    connection.deadline = System.currentTimeMillis() + connectTimeout;
+                }
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.exchange = null;
+                    this.close(connection);
+                } else if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) { }
+                }
+                deliver(exchange, null, e);
+            }
+        }
+
+        private void start(Connection connection, Exchange exchange) {
+            connection.exchange = exchange;
+            exchange.rewind();
+            connection.response = new Response();
+            connection.unanswered = true;
+            connection.deadline = System.currentTimeMillis() + readTimeout;
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    if (connection.channel.finishConnect()) {
+                        this.start(connection, connection.exchange);
+                    }
+                } else if (key.isWritable()) {
+                    boolean written = connection.exchange.write(connection.channel);
+                    connection.deadline = System.currentTimeMillis() + readTimeout;
+                    if (written) {
+                        connection.unanswered = false;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    this.read(connection);
+                }
+            } catch (IOException e) {
+                this.fail(connection, e);
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            if (connection.exchange == null) {
+                // an idle connection is only readable when the server closes it.
+                this.close(connection);
+                return;
+            }
+            for (;;) {
+                this.readBuffer.clear();
+                int n = connection.channel.read(this.readBuffer);
+                if (n == -1) {
+                    connection.unanswered = !connection.response.started();
+                    connection.response.eof();
+                    break;
+                }
+                if (n == 0) {
+                    break;
+                }
+                this.readBuffer.flip();
+                connection.response.feed(this.readBuffer);
+                if (connection.response.isComplete()) {
+                    break;
+                }
+            }
+            connection.deadline = System.currentTimeMillis() + readTimeout;
+            if (connection.response.isComplete()) {
+                this.complete(connection);
+            }
+        }
+
+        private void complete(Connection connection) {
+            Exchange exchange = connection.exchange;
+            Response response = connection.response;
+            connection.exchange = null;
+            connection.response = null;
+            connection.requestCount++;
+            connection.lastUsed = System.currentTimeMillis();
+
+            Exchange next = connection.host.waiting.peekFirst();
+            if (next != null && next.retried) {
+                // a retry needs a new connection; closing this one makes room and dispatches it.
+                this.close(connection);
+            } else if (response.keepAlive && connection.channel.isOpen()) {
+                if (next != null) {
+                    connection.host.waiting.pollFirst();
+                    reused.incrementAndGet();
+                    this.start(connection, next);
+                } else {
+                    connection.key.interestOps(SelectionKey.OP_READ);
+                    connection.host.idle.addFirst(connection);
+                }
+            } else {
+                this.close(connection);
+            }
+            deliver(exchange, response, null);
+        }
+
+        /**
+         * Closes a connection that hit an error, failing its exchange. A request on a kept-alive connection that
+         * broke before the request was all written, or that the server closed without answering, is retried once
+         * on a new connection. Anything else, timeouts included, may have reached a server that acted on it, and
+         * is never sent again.
+         *
+         * @params Connection connection, IOException error
+         * @returns none
+         */
+        private void fail(Connection connection, IOException error) {
+            Exchange exchange = connection.exchange;
+            boolean stale = connection.requestCount > 0 && connection.unanswered;
+            connection.exchange = null;
+            this.close(connection);
+            if (exchange == null) {
+                return;
+            }
+            if (stale && !exchange.retried) {
+                exchange.retried = true;
+                this.dispatch(exchange);
+                return;
+            }
+            deliver(exchange, null, error);
+        }
+
+        /**
+         * Closes a connection and lets the next waiting exchange for its host have the free slot.
+         *
+         * @params Connection connection
+         * @returns none
+         */
+        private void close(Connection connection) {
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException e) { }
+            connection.host.idle.remove(connection);
+            connection.host.open--;
+
+            Exchange next = connection.host.waiting.pollFirst();
+            if (next != null) {
+                this.dispatch(next);
+            }
+        }
+
+        /**
+         * Fails requests that have timed out and closes connections that have been idle too long.
+         *
+         * @params long now
+         * @returns none
+         */
+        private void sweep(long now) {
+            for (SelectionKey key : new ArrayList<SelectionKey>(this.selector.keys())) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.closed) {
+                    continue;
+                }
+                if (connection.exchange != null && connection.deadline - now <= 0) {
+                    connection.unanswered = false; // a timed out request is never sent again.
+                    this.fail(connection, new SocketTimeoutException("Timed out waiting for " + connection.exchange.address));
+                } else if (connection.exchange == null && now - connection.lastUsed >= idleTimeout) {
+                    this.close(connection);
+                }
+            }
+            for (Host host : this.hosts.values()) {
+                Exchange exchange;
+                while ((exchange = host.waiting.peekFirst()) != null && now - exchange.queuedAt >= connectTimeout) {
+                    host.waiting.pollFirst();
+                    deliver(exchange, null, new SocketTimeoutException("Timed out waiting for a connection to " + exchange.address));
+                }
+            }
+        }
+
+        private void failSubmitted() {
+            Exchange exchange;
+            while ((exchange = this.submitted.poll()) != null) {
+                deliver(exchange, null, new IOException("Transport has been closed."));
+            }
+        }
+
+        private void shutdown() {
+            IOException closedError = new IOException("Transport has been closed.");
+            for (SelectionKey key : this.selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                try {
+                    connection.channel.close();
+                } catch (IOException e) { }
+                if (connection.exchange != null) {
+                    deliver(connection.exchange, null, closedError);
+                }
+            }
+            for (Host host : this.hosts.values()) {
+                for (Exchange exchange : host.waiting) {
+                    deliver(exchange, null, closedError);
+                }
+                host.waiting.clear();
+            }
+            this.failSubmitted();
+            try {
+                this.selector.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Incremental HTTP/1.1 response parser. Bytes are fed in as they arrive; the body is collected (with any
+     * chunked framing removed) until the response is complete.
+     */
+    private static class Response {
+        private static final int STATUS = 0, HEADERS = 1, FIXED = 2, CHUNK_SIZE = 3, CHUNK_DATA = 4, CHUNK_END = 5,
+            TRAILERS = 6, UNTIL_CLOSE = 7, DONE = 8;
+
+        private byte[] buf = new byte[8192];
+        private int len = 0;
+        private int pos = 0;
+        private int state = STATUS;
+        private long remaining = 0;
+        private boolean received = false;
+
+        int statusCode = -1;
+        boolean keepAlive = true;
+        String contentEncoding = null;
+        private boolean chunked = false;
+        private long contentLength = -1;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        boolean isComplete() {
+            return this.state == DONE;
+        }
+
+        /**
+         * Returns true once any byte of the response has arrived.
+         */
+        boolean started() {
+            return this.received;
+        }
+
+        void feed(ByteBuffer src) throws IOException {
+            this.received = true;
+            int n = src.remaining();
+            if (this.len == this.pos) {
+                this.len = this.pos = 0;
+            }
+            if (this.len + n > this.buf.length) {
+                if (this.pos > 0) {
+                    System.arraycopy(this.buf, this.pos, this.buf, 0, this.len - this.pos);
+                    this.len -= this.pos;
+                    this.pos = 0;
+                }
+                if (this.len + n > this.buf.length) {
+                    this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+                }
+            }
+            src.get(this.buf, this.len, n);
+            this.len += n;
+            this.parse();
+        }
+
+        void eof() throws IOException {
+            if (this.state == UNTIL_CLOSE) {
+                this.state = DONE;
+            } else if (this.state != DONE) {
+                throw new EOFException("Connection closed before the response was complete");
+            }
+            this.keepAlive = false;
+        }
+
+        /**
+         * Returns the next line (without its line terminator), or null if no full line has arrived yet.
+         */
+        private String line() throws IOException {
+            for (int i = this.pos; i < this.len; i++) {
+                if (this.buf[i] == '\n') {
+                    int end = i > this.pos && this.buf[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(this.buf, this.pos, end - this.pos, "ISO-8859-1");
+                    this.pos = i + 1;
+                    return line;
+                }
+            }
+            if (this.len - this.pos > MAX_HEADER_BYTES) {
+                throw new IOException("HTTP header line too long");
+            }
+            return null;
+        }
+
+        private void copyBody() {
+            int n = (int) Math.min(this.len - this.pos, this.remaining);
+            this.body.write(this.buf, this.pos, n);
+            this.pos += n;
+            this.remaining -= n;
+        }
+
+        private void parse() throws IOException {
+            String line;
+            for (;;) {
+                switch (this.state) {
+                    case STATUS:
+                        if ((line = this.line()) == null) {
+                            return;
+                        }
+                        if (line.length() == 0) {
+                            break;
+                        }
+                        String[] status = line.split(" ", 3);
+                        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                            throw new IOException("Malformed HTTP status line: " + line);
+                        }
+                        try {
+                            this.statusCode = Integer.parseInt(status[1]);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Malformed HTTP status line: " + line);
+                        }
+                        this.keepAlive = !"HTTP/1.0".equals(status[0]);
+                        this.state = HEADERS;
+                        break;
+                    case HEADERS:
+                        if ((line = this.line()) == null) {
+                            return;
+                        }
+                        if (line.length() > 0) {
+                            this.header(line);
+                        } else if (this.statusCode >= 100 && this.statusCode < 200) {
+                            // interim response; the real one follows.
+                            this.statusCode = -1;
+                            this.state = STATUS;
+                        } else if (this.statusCode == 204 || this.statusCode == 304) {
+                            this.state = DONE;
+                        } else if (this.chunked) {
+                            this.state = CHUNK_SIZE;
+                        } else if (this.contentLength >= 0) {
+                            this.remaining = this.contentLength;
+                            this.state = this.contentLength == 0 ? DONE : FIXED;
+                        } else {
+                            this.remaining = Long.MAX_VALUE;
+                            this.keepAlive = false;
+                            this.state = UNTIL_CLOSE;
+                        }
+                        break;
+                    case FIXED:
+                    case CHUNK_DATA:
+                    case UNTIL_CLOSE:
+                        this.copyBody();
+                        if (this.remaining > 0) {
+                            return;
+                        }
+                        this.state = this.state == FIXED ? DONE : CHUNK_END;
+                        break;
+                    case CHUNK_SIZE:
+                        if ((line = this.line()) == null) {
+                            return;
+                        }
+                        int semicolon = line.indexOf(';');
+                        try {
+                            this.remaining = Long.parseLong((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Malformed chunk size: " + line);
+                        }
+                        this.state = this.remaining == 0 ? TRAILERS : CHUNK_DATA;
+                        break;
+                    case CHUNK_END:
+                        if (this.line() == null) {
+                            return;
+                        }
+                        this.state = CHUNK_SIZE;
+                        break;
+                    case TRAILERS:
+                        if ((line = this.line()) == null) {
+                            return;
+                        }
+                        if (line.length() == 0) {
+                            this.state = DONE;
+                        }
+                        break;
+                    default:
+                        return;
+                }
+            }
+        }
+
+        private void header(String line) throws IOException {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                return;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    this.contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed Content-Length: " + value);
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                this.chunked = value.toLowerCase().contains("chunked");
+            } else if (name.equalsIgnoreCase("Content-Encoding")) {
+                this.contentEncoding = value.toLowerCase();
+            } else if (name.equalsIgnoreCase("Connection")) {
+                if (value.equalsIgnoreCase("close")) {
+                    this.keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) {
+                    this.keepAlive = true;
+                }
+            }
+        }
+    }
+}
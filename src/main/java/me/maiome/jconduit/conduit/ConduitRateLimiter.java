@@ -0,0 +1,179 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Per-method token-bucket rate limits. Each limit covers the methods matching its pattern (see
+ * {@link ConduitCallKey#matches}) and allows a burst of up to burst calls, refilled at permitsPerSecond. The
+ * first matching limit applies; methods with no matching limit aren't limited. Callers over the rate sleep
+ * until their turn instead of being refused.
+ */
+public class ConduitRateLimiter {
+
+    /**
+     * Limiter used by new clients, or null.
+     */
+    private static volatile ConduitRateLimiter defaultLimiter = null;
+
+    /**
+     * A token bucket. Tokens may go negative: a caller reserves the next token and sleeps until it is due, so
+     * waiting callers are served in order without spinning.
+     */
+    private static class Bucket {
+        final double permitsPerSecond;
+        final double burst;
+        double tokens;
+        long refilledAt = System.nanoTime();
+
+        Bucket(double permitsPerSecond, double burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        /**
+         * Takes a token and returns how long (in ns) the caller has to wait before using it.
+         */
+        synchronized long reserve() {
+            this.refill();
+            this.tokens -= 1;
+            return this.tokens >= 0 ? 0 : (long) (-this.tokens / this.permitsPerSecond * 1e9);
+        }
+
+        synchronized boolean tryTake() {
+            this.refill();
+            if (this.tokens < 1) {
+                return false;
+            }
+            this.tokens -= 1;
+            return true;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.refilledAt) / 1e9 * this.permitsPerSecond);
+            this.refilledAt = now;
+        }
+    }
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<String, Bucket>();
+
+    // limiter statistics
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong delayNanos = new AtomicLong();
+
+    public ConduitRateLimiter() {
+    }
+
+    /**
+     * Returns the limiter that new clients use, or null.
+     *
+     * @params none
+     * @returns ConduitRateLimiter
+     */
+    public static ConduitRateLimiter getDefault() {
+        return defaultLimiter;
+    }
+
+    /**
+     * Sets the limiter that new clients (including those made by ConduitAsyncClient and ConduitUtil) use.
+     *
+     * @params ConduitRateLimiter limiter
+     * @returns none
+     */
+    public static void setDefault(ConduitRateLimiter limiter) {
+        defaultLimiter = limiter;
+    }
+
+    /**
+     * Limits calls to matching methods to permitsPerSecond, allowing bursts of up to burst calls.
+     *
+     * @params String methodPattern, double permitsPerSecond, int burst
+     * @returns none
+     */
+    public synchronized void setRate(String methodPattern, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1.");
+        }
+        this.buckets.put(methodPattern, new Bucket(permitsPerSecond, burst));
+    }
+
+    /**
+     * Removes the limit for a method pattern.
+     *
+     * @params String methodPattern
+     * @returns none
+     */
+    public synchronized void removeRate(String methodPattern) {
+        this.buckets.remove(methodPattern);
+    }
+
+    private synchronized Bucket bucketFor(String method) {
+        Bucket bucket = this.buckets.get(method);
+        if (bucket != null) {
+            return bucket;
+        }
+        for (Map.Entry<String, Bucket> entry : this.buckets.entrySet()) {
+            if (ConduitCallKey.matches(entry.getKey(), method)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits until a call to the method is allowed.
+     *
+     * @params String method
+     * @returns none
+     */
+    public void acquire(String method) throws IOException {
+        Bucket bucket = this.bucketFor(method);
+        if (bucket == null) {
+            return;
+        }
+        long wait = bucket.reserve();
+        if (wait <= 0) {
+            return;
+        }
+        this.delayed.incrementAndGet();
+        this.delayNanos.addAndGet(wait);
+        try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the rate limit on " + method);
+        }
+    }
+
+    /**
+     * Takes a permit for the method if one is available right now.
+     *
+     * @params String method
+     * @returns boolean
+     */
+    public boolean tryAcquire(String method) {
+        Bucket bucket = this.bucketFor(method);
+        return bucket == null || bucket.tryTake();
+    }
+
+    /**
+     * Returns the number of calls that had to wait.
+     */
+    public long getDelayedCount() {
+        return this.delayed.get();
+    }
+
+    /**
+     * Returns the total time (in ms) calls have waited.
+     */
+    public long getTotalDelay() {
+        return this.delayNanos.get() / 1000000;
+    }
+
+    public String toString() {
+        return String.format("ConduitRateLimiter[delayed=%d, totalDelay=%dms]", this.getDelayedCount(), this.getTotalDelay());
+    }
+}
@@ -0,0 +1,532 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Encodes a Conduit argument map as an <code>application/x-www-form-urlencoded</code> request body of the form
+ * <code>params=&lt;url-encoded JSON&gt;</code>. The argument tree is walked and written straight to the output
+ * as UTF-8 bytes, so neither a JSONObject copy of the arguments nor a String of the whole body is built.
+ * An encoder belongs to a single call and is not thread-safe.
+ */
+public class ConduitRequestEncoder {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private static final byte[] PREFIX = "params=".getBytes();
+
+    /**
+     * Size of the pieces the body is produced in.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Room past CHUNK_SIZE for the piece being written when a chunk fills: one character, fully escaped.
+     */
+    private static final int CHUNK_SLACK = 32;
+
+    private static final Object NO_VALUE = new Object();
+
+    /**
+     * The argument map that will be encoded.
+     */
+    private final Map<String, Object> params;
+
+    /**
+     * Cached encoded length; -1 until it has been measured.
+     */
+    private long contentLength = -1;
+
+    /**
+     * Constructs an encoder for the given argument map.
+     *
+     * @params Map<String, Object> params
+     */
+    public ConduitRequestEncoder(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    /**
+     * Returns the exact number of bytes that writeTo() will produce. The first call walks the argument tree
+     * without writing anything; the result is cached.
+     *
+     * @params none
+     * @returns long
+     */
+    public long getContentLength() throws IOException {
+        if (this.contentLength < 0) {
+            Encoding encoding = new Encoding(null);
+            encoding.fill();
+            this.contentLength = encoding.count;
+        }
+        return this.contentLength;
+    }
+
+    /**
+     * Writes the encoded body to the given stream. May be called more than once.
+     *
+     * @params OutputStream out
+     * @returns none
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Encoding encoding = new Encoding(new byte[CHUNK_SIZE + CHUNK_SLACK]);
+        int n;
+        while ((n = encoding.fill()) > 0) {
+            out.write(encoding.buf, 0, n);
+        }
+        this.contentLength = encoding.count;
+    }
+
+    /**
+     * Returns a stream that encodes the body a few KB at a time as it is read, for transports that pull the
+     * body rather than have it written to them. May be called more than once; each stream starts over.
+     *
+     * @params none
+     * @returns InputStream
+     */
+    public InputStream openStream() {
+        final Encoding encoding = new Encoding(new byte[CHUNK_SIZE + CHUNK_SLACK]);
+        return new InputStream() {
+            private int pos = 0;
+            private int limit = 0;
+
+            private boolean refill() throws IOException {
+                if (this.pos == this.limit) {
+                    this.pos = 0;
+                    this.limit = encoding.fill();
+                }
+                return this.limit > 0;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return this.refill() ? encoding.buf[this.pos++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!this.refill()) {
+                    return -1;
+                }
+                int n = Math.min(len, this.limit - this.pos);
+                System.arraycopy(encoding.buf, this.pos, b, off, n);
+                this.pos += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return this.limit - this.pos;
+            }
+        };
+    }
+
+    /**
+     * Encodes the body into a byte array. Mainly useful for debugging and tests.
+     *
+     * @params none
+     * @returns byte[]
+     */
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(this.getContentLength(), Integer.MAX_VALUE));
+        this.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A container or string that is partly written.
+     */
+    private static final class Frame {
+        static final int ARRAY = 0;
+        static final int OBJECT = 1;
+        static final int STRING = 2;
+        static final int CHARS = 3;
+
+        final int kind;
+
+        // ARRAY: the items; OBJECT: the Map.Entry pairs.
+        Iterator<?> items;
+        boolean first = true;
+        // OBJECT: the value still to be written after the key that was just written, or NO_VALUE.
+        Object pending = NO_VALUE;
+
+        // STRING (a quoted JSON string) and CHARS (raw JSON text): the text and how far it has been written.
+        String text;
+        int index = 0;
+        char last = 0;
+
+        Frame(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * One pass over the argument tree. The tree is walked with an explicit stack rather than by recursion, so
+     * the pass can stop whenever a chunk is full and pick up there on the next fill().
+     */
+    private final class Encoding {
+        // output for the current chunk; null while we are only measuring.
+        final byte[] buf;
+        int pos;
+        long count = 0;
+        final ArrayList<Frame> stack = new ArrayList<Frame>();
+        boolean started = false;
+
+        Encoding(byte[] buf) {
+            this.buf = buf;
+        }
+
+        /**
+         * Encodes the next chunk into buf and returns its length, or 0 at the end of the body. When measuring,
+         * encodes the whole body in one go.
+         */
+        int fill() throws IOException {
+            this.pos = 0;
+            if (!this.started) {
+                this.started = true;
+                for (int i = 0; i < PREFIX.length; i++) {
+                    this.rawByte(PREFIX[i]);
+                }
+                this.pushValue(params);
+            }
+            while (!this.stack.isEmpty() && !this.full()) {
+                this.step(this.stack.get(this.stack.size() - 1));
+            }
+            return this.pos;
+        }
+
+        private boolean full() {
+            return this.buf != null && this.pos >= CHUNK_SIZE;
+        }
+
+        private void pop() {
+            this.stack.remove(this.stack.size() - 1);
+        }
+
+        /**
+         * Writes the next piece of the frame on top of the stack.
+         */
+        private void step(Frame frame) throws IOException {
+            switch (frame.kind) {
+            case Frame.ARRAY:
+                if (!frame.items.hasNext()) {
+                    this.jsonChar(']');
+                    this.pop();
+                    return;
+                }
+                if (!frame.first) {
+                    this.jsonChar(',');
+                }
+                frame.first = false;
+                this.pushValue(frame.items.next());
+                return;
+            case Frame.OBJECT:
+                if (frame.pending != NO_VALUE) {
+                    Object value = frame.pending;
+                    frame.pending = NO_VALUE;
+                    this.jsonChar(':');
+                    this.pushValue(value);
+                    return;
+                }
+                while (frame.items.hasNext()) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) frame.items.next();
+                    // entries with null values are dropped, like JSONObject(Map) does.
+                    if (entry.getValue() == null) {
+                        continue;
+                    }
+                    if (!frame.first) {
+                        this.jsonChar(',');
+                    }
+                    frame.first = false;
+                    frame.pending = entry.getValue();
+                    this.pushString(String.valueOf(entry.getKey()));
+                    return;
+                }
+                this.jsonChar('}');
+                this.pop();
+                return;
+            case Frame.STRING:
+                this.writeString(frame);
+                return;
+            default:
+                this.writeChars(frame);
+            }
+        }
+
+        /**
+         * Starts writing a single value as JSON, following the same conversions as JSONObject.wrap().
+         *
+         * @params Object value
+         * @returns none
+         */
+        @SuppressWarnings("unchecked")
+        private void pushValue(Object value) throws IOException {
+            if (value == null || JSONObject.NULL.equals(value)) {
+                this.pushChars("null");
+            } else if (value instanceof String) {
+                this.pushString((String) value);
+            } else if (value instanceof Number) {
+                try {
+                    this.pushChars(JSONObject.numberToString((Number) value));
+                } catch (JSONException e) {
+                    throw new IOException(e.getMessage());
+                }
+            } else if (value instanceof Boolean) {
+                this.pushChars(value.toString());
+            } else if (value instanceof Character) {
+                this.pushString(value.toString());
+            } else if (value instanceof Map) {
+                this.jsonChar('{');
+                this.pushContainer(Frame.OBJECT, ((Map<Object, Object>) value).entrySet().iterator());
+            } else if (value instanceof Collection) {
+                this.jsonChar('[');
+                this.pushContainer(Frame.ARRAY, ((Collection<Object>) value).iterator());
+            } else if (value.getClass().isArray()) {
+                this.jsonChar('[');
+                this.pushContainer(Frame.ARRAY, new ArrayItems(value));
+            } else if (value instanceof JSONObject) {
+                this.jsonChar('{');
+                this.pushContainer(Frame.OBJECT, new JSONObjectEntries((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                this.jsonChar('[');
+                this.pushContainer(Frame.ARRAY, new ArrayItems(value));
+            } else if (value instanceof JSONString) {
+                this.pushChars(((JSONString) value).toJSONString());
+            } else {
+                Object wrapped = JSONObject.wrap(value);
+                if (wrapped == null || wrapped == value) {
+                    this.pushString(value.toString());
+                } else {
+                    this.pushValue(wrapped);
+                }
+            }
+        }
+
+        private void pushContainer(int kind, Iterator<?> items) {
+            Frame frame = new Frame(kind);
+            frame.items = items;
+            this.stack.add(frame);
+        }
+
+        private void pushString(String string) throws IOException {
+            this.jsonChar('"');
+            Frame frame = new Frame(Frame.STRING);
+            frame.text = string;
+            this.stack.add(frame);
+        }
+
+        private void pushChars(String string) {
+            Frame frame = new Frame(Frame.CHARS);
+            frame.text = string;
+            this.stack.add(frame);
+        }
+
+        /**
+         * Writes a quoted JSON string up to the end of the chunk, escaping exactly like JSONObject.quote().
+         *
+         * @params Frame frame
+         * @returns none
+         */
+        private void writeString(Frame frame) throws IOException {
+            String string = frame.text;
+            char c = frame.last;
+            int len = string.length();
+            int i = frame.index;
+            for (; i < len && !this.full(); i++) {
+                char b = c;
+                c = string.charAt(i);
+                switch (c) {
+                case '\\':
+                case '"':
+                    this.jsonChar('\\');
+                    this.jsonChar(c);
+                    break;
+                case '/':
+                    if (b == '<') {
+                        this.jsonChar('\\');
+                    }
+                    this.jsonChar(c);
+                    break;
+                case '\b':
+                    this.writeAscii("\\b");
+                    break;
+                case '\t':
+                    this.writeAscii("\\t");
+                    break;
+                case '\n':
+                    this.writeAscii("\\n");
+                    break;
+                case '\f':
+                    this.writeAscii("\\f");
+                    break;
+                case '\r':
+                    this.writeAscii("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        this.writeAscii("\\u");
+                        this.jsonChar((char) HEX[(c >> 12) & 0xf]);
+                        this.jsonChar((char) HEX[(c >> 8) & 0xf]);
+                        this.jsonChar((char) HEX[(c >> 4) & 0xf]);
+                        this.jsonChar((char) HEX[c & 0xf]);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        this.codePoint(Character.toCodePoint(c, string.charAt(++i)));
+                    } else if (Character.isSurrogate(c)) {
+                        this.jsonChar('?');
+                    } else {
+                        this.codePoint(c);
+                    }
+                }
+            }
+            frame.index = i;
+            frame.last = c;
+            if (i == len) {
+                this.jsonChar('"');
+                this.pop();
+            }
+        }
+
+        /**
+         * Writes raw JSON text up to the end of the chunk.
+         *
+         * @params Frame frame
+         * @returns none
+         */
+        private void writeChars(Frame frame) throws IOException {
+            String string = frame.text;
+            int len = string.length();
+            int i = frame.index;
+            for (; i < len && !this.full(); i++) {
+                char c = string.charAt(i);
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    this.codePoint(Character.toCodePoint(c, string.charAt(++i)));
+                } else {
+                    this.codePoint(Character.isSurrogate(c) ? '?' : c);
+                }
+            }
+            frame.index = i;
+            if (i == len) {
+                this.pop();
+            }
+        }
+
+        private void writeAscii(String string) throws IOException {
+            for (int i = 0; i < string.length(); i++) {
+                this.jsonChar(string.charAt(i));
+            }
+        }
+
+        /**
+         * Writes one BMP character of JSON text; the caller guarantees it is not a surrogate.
+         */
+        private void jsonChar(char c) throws IOException {
+            this.codePoint(c);
+        }
+
+        /**
+         * UTF-8 encodes a code point and form-encodes each resulting byte.
+         */
+        private void codePoint(int cp) throws IOException {
+            if (cp < 0x80) {
+                this.formByte(cp);
+            } else if (cp < 0x800) {
+                this.formByte(0xc0 | (cp >> 6));
+                this.formByte(0x80 | (cp & 0x3f));
+            } else if (cp < 0x10000) {
+                this.formByte(0xe0 | (cp >> 12));
+                this.formByte(0x80 | ((cp >> 6) & 0x3f));
+                this.formByte(0x80 | (cp & 0x3f));
+            } else {
+                this.formByte(0xf0 | (cp >> 18));
+                this.formByte(0x80 | ((cp >> 12) & 0x3f));
+                this.formByte(0x80 | ((cp >> 6) & 0x3f));
+                this.formByte(0x80 | (cp & 0x3f));
+            }
+        }
+
+        /**
+         * Form-encodes a single byte the way URLEncoder does.
+         */
+        private void formByte(int b) throws IOException {
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '.' || b == '-' || b == '*' || b == '_') {
+                this.rawByte(b);
+            } else if (b == ' ') {
+                this.rawByte('+');
+            } else {
+                this.rawByte('%');
+                this.rawByte(HEX[(b >> 4) & 0xf]);
+                this.rawByte(HEX[b & 0xf]);
+            }
+        }
+
+        private void rawByte(int b) {
+            this.count++;
+            if (this.buf != null) {
+                this.buf[this.pos++] = (byte) b;
+            }
+        }
+    }
+
+    /**
+     * Iterates over the items of a Java array or a JSONArray.
+     */
+    private static final class ArrayItems implements Iterator<Object> {
+        private final Object array;
+        private final int length;
+        private int index = 0;
+
+        ArrayItems(Object array) {
+            this.array = array;
+            this.length = array instanceof JSONArray ? ((JSONArray) array).length() : Array.getLength(array);
+        }
+
+        public boolean hasNext() {
+            return this.index < this.length;
+        }
+
+        public Object next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = this.index++;
+            return this.array instanceof JSONArray ? ((JSONArray) this.array).opt(i) : Array.get(this.array, i);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Iterates over the members of a JSONObject as Map entries.
+     */
+    private static final class JSONObjectEntries implements Iterator<Object> {
+        private final JSONObject object;
+        private final Iterator keys;
+
+        JSONObjectEntries(JSONObject object) {
+            this.object = object;
+            this.keys = object.keys();
+        }
+
+        public boolean hasNext() {
+            return this.keys.hasNext();
+        }
+
+        public Object next() {
+            String key = this.keys.next().toString();
+            return new AbstractMap.SimpleImmutableEntry<String, Object>(key, this.object.opt(key));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
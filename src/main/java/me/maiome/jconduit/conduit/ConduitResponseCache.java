@@ -0,0 +1,409 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Caches responses of idempotent Conduit reads. ConduitClient consults the cache for every call whose method has
+ * a TTL set here; by default that is *.query, *.search, phid.lookup and conduit.query. Successful calls to write
+ * methods (*.edit and *.update by default) invalidate the cached reads of the same application, so a
+ * maniphest.edit drops cached maniphest.* responses; more rules can be added with addInvalidation().
+ *
+ * Responses are kept serialized and re-parsed on every hit, so callers can't change each other's results and
+ * the memory bound is accurate. Storage is pluggable through {@link Store}; the default keeps entries in memory
+ * and evicts the least recently used ones once the size limit is reached.
+ */
+public class ConduitResponseCache {
+
+    /**
+     * Default memory bound (in chars of serialized responses) of the in-memory store.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Where cached responses are kept. Implementations must be thread-safe.
+     */
+    public interface Store {
+        /**
+         * Returns the entry for a key, or null.
+         */
+        public Entry get(String key);
+
+        public void put(String key, Entry entry);
+
+        public void remove(String key);
+
+        /**
+         * Removes every entry whose method matches the pattern, returning the number removed.
+         */
+        public int removeMethods(String methodPattern);
+
+        public void clear();
+
+        public int size();
+
+        /**
+         * Returns the number of entries dropped to stay within the store's bounds.
+         */
+        public long getEvictionCount();
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+        public final String method;
+        public final String response;
+        public final long expiresAt;
+
+        public Entry(String method, String response, long expiresAt) {
+            this.method = method;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Store store;
+
+    /**
+     * TTL (in ms) per method pattern. Exact method names win over patterns; among patterns the first match wins.
+     */
+    private final Map<String, Long> ttls = new LinkedHashMap<String, Long>();
+
+    /**
+     * Write method patterns, and the read patterns each one invalidates besides its own application's.
+     */
+    private final Map<String, List<String>> invalidations = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Bumped on every invalidation, so a read that started before one doesn't store a stale response.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    // cache statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    /**
+     * Constructs a cache with an in-memory store of the default size.
+     *
+     * @params none
+     */
+    public ConduitResponseCache() {
+        this(new MemoryStore(DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Constructs a cache on the given store.
+     *
+     * @params Store store
+     */
+    public ConduitResponseCache(Store store) {
+        this.store = store;
+        this.setTtl("*.query", 60000);
+        this.setTtl("*.search", 60000);
+        this.setTtl("phid.lookup", 300000);
+        this.setTtl("conduit.query", 3600000);
+        this.addWriteMethod("*.edit");
+        this.addWriteMethod("*.update");
+    }
+
+    /**
+     * Sets how long (in ms) responses of matching methods are cached. A TTL of 0 or less stops caching them.
+     *
+     * @params String methodPattern, long ttl
+     * @returns none
+     */
+    public synchronized void setTtl(String methodPattern, long ttl) {
+        this.ttls.put(methodPattern, ttl);
+    }
+
+    /**
+     * Returns the TTL (in ms) for a method, or 0 if its responses aren't cached.
+     *
+     * @params String method
+     * @returns long
+     */
+    public synchronized long getTtl(String method) {
+        Long ttl = this.ttls.get(method);
+        if (ttl != null) {
+            return Math.max(ttl, 0);
+        }
+        for (Map.Entry<String, Long> entry : this.ttls.entrySet()) {
+            if (ConduitCallKey.matches(entry.getKey(), method)) {
+                return Math.max(entry.getValue(), 0);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Marks matching methods as writes: a successful call to one invalidates its application's cached reads.
+     *
+     * @params String methodPattern
+     * @returns none
+     */
+    public synchronized void addWriteMethod(String methodPattern) {
+        if (!this.invalidations.containsKey(methodPattern)) {
+            this.invalidations.put(methodPattern, new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Makes a successful call to a matching write method also invalidate cached reads matching readPattern.
+     *
+     * @params String writePattern, String readPattern
+     * @returns none
+     */
+    public synchronized void addInvalidation(String writePattern, String readPattern) {
+        this.addWriteMethod(writePattern);
+        this.invalidations.get(writePattern).add(readPattern);
+    }
+
+    /**
+     * Returns the cache key for a call, or null if the method isn't cached.
+     *
+     * @params String scope, String method, Map<String, Object> argMap
+     * @returns String
+     */
+    public String key(String scope, String method, Map<String, Object> argMap) {
+        return this.getTtl(method) > 0 ? ConduitCallKey.of(scope, method, argMap) : null;
+    }
+
+    /**
+     * Returns the current invalidation generation; pass it back to put().
+     *
+     * @params none
+     * @returns long
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * Returns a fresh copy of the cached response for a key, or null.
+     *
+     * @params String key
+     * @returns JSONObject
+     */
+    public JSONObject get(String key) {
+        Entry entry = this.store.get(key);
+        if (entry != null && entry.expiresAt - System.currentTimeMillis() <= 0) {
+            this.store.remove(key);
+            this.expirations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        try {
+            JSONObject response = new JSONObject(entry.response);
+            this.hits.incrementAndGet();
+            return response;
+        } catch (JSONException e) {
+            this.store.remove(key);
+            this.misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Caches a successful response, unless something was invalidated since the given generation.
+     *
+     * @params String key, String method, JSONObject response, long generation
+     * @returns none
+     */
+    public void put(String key, String method, JSONObject response, long generation) {
+        long ttl = this.getTtl(method);
+        if (ttl <= 0 || generation != this.generation.get()) {
+            return;
+        }
+        this.store.put(key, new Entry(method, response.toString(), System.currentTimeMillis() + ttl));
+        if (generation != this.generation.get()) {
+            // an invalidation slipped in while we stored; don't keep what may be stale.
+            this.store.remove(key);
+        }
+    }
+
+    /**
+     * Called after a successful call; if the method is a write, invalidates the reads it affects.
+     *
+     * @params String method
+     * @returns none
+     */
+    public void afterCall(String method) {
+        List<String> patterns = new ArrayList<String>();
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> entry : this.invalidations.entrySet()) {
+                if (ConduitCallKey.matches(entry.getKey(), method)) {
+                    patterns.addAll(entry.getValue());
+                    int dot = method.lastIndexOf('.');
+                    if (dot > 0) {
+                        patterns.add(method.substring(0, dot + 1) + "*");
+                    }
+                }
+            }
+        }
+        for (String pattern : patterns) {
+            this.invalidate(pattern);
+        }
+    }
+
+    /**
+     * Drops cached responses of every method matching the pattern.
+     *
+     * @params String methodPattern
+     * @returns none
+     */
+    public void invalidate(String methodPattern) {
+        this.generation.incrementAndGet();
+        this.invalidated.addAndGet(this.store.removeMethods(methodPattern));
+    }
+
+    /**
+     * Drops every cached response.
+     *
+     * @params none
+     * @returns none
+     */
+    public void clear() {
+        this.generation.incrementAndGet();
+        this.store.clear();
+    }
+
+    public int size() {
+        return this.store.size();
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns hits / (hits + misses), or 0 before the first lookup.
+     */
+    public double getHitRatio() {
+        long hits = this.getHitCount();
+        long total = hits + this.getMissCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return this.store.getEvictionCount();
+    }
+
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    /**
+     * Returns the number of entries dropped by invalidations.
+     */
+    public long getInvalidationCount() {
+        return this.invalidated.get();
+    }
+
+    public String toString() {
+        return String.format("ConduitResponseCache[size=%d, hits=%d, misses=%d, hitRatio=%.2f, evictions=%d, expirations=%d, invalidations=%d]",
+            this.size(), this.getHitCount(), this.getMissCount(), this.getHitRatio(), this.getEvictionCount(),
+            this.getExpirationCount(), this.getInvalidationCount());
+    }
+
+    /**
+     * In-memory store bounded by the total length of the cached responses, evicting least recently used entries.
+     */
+    public static class MemoryStore implements Store {
+
+        private final long maxSize;
+        private long size = 0;
+        private long evictions = 0;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+        /**
+         * Constructs a store holding up to maxSize chars of responses (and keys).
+         *
+         * @params long maxSize
+         */
+        public MemoryStore(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private static long weigh(String key, Entry entry) {
+            return key.length() + entry.response.length();
+        }
+
+        @Override
+        public synchronized Entry get(String key) {
+            return this.entries.get(key);
+        }
+
+        @Override
+        public synchronized void put(String key, Entry entry) {
+            long weight = weigh(key, entry);
+            if (weight > this.maxSize) {
+                this.remove(key);
+                return;
+            }
+            Entry previous = this.entries.put(key, entry);
+            if (previous != null) {
+                this.size -= weigh(key, previous);
+            }
+            this.size += weight;
+            Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+            while (this.size > this.maxSize && eldest.hasNext()) {
+                Map.Entry<String, Entry> next = eldest.next();
+                this.size -= weigh(next.getKey(), next.getValue());
+                eldest.remove();
+                this.evictions++;
+            }
+        }
+
+        @Override
+        public synchronized void remove(String key) {
+            Entry entry = this.entries.remove(key);
+            if (entry != null) {
+                this.size -= weigh(key, entry);
+            }
+        }
+
+        @Override
+        public synchronized int removeMethods(String methodPattern) {
+            int removed = 0;
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> next = it.next();
+                if (ConduitCallKey.matches(methodPattern, next.getValue().method)) {
+                    this.size -= weigh(next.getKey(), next.getValue());
+                    it.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        @Override
+        public synchronized void clear() {
+            this.entries.clear();
+            this.size = 0;
+        }
+
+        @Override
+        public synchronized int size() {
+            return this.entries.size();
+        }
+
+        @Override
+        public synchronized long getEvictionCount() {
+            return this.evictions;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package me.maiome.jconduit.conduit;
+
+import me.maiome.jconduit.json.*;
+
+/**
+ * Reads the result of a call made with ConduitClient.callStreaming() straight off the response, so a result of
+ * any size can be processed without building it as a JSONObject first.
+ */
+public interface ConduitResultReader {
+
+    /**
+     * Called with a reader on the first token of the call's result: BEGIN_OBJECT, BEGIN_ARRAY or a value. The
+     * reader may stop anywhere inside the result (whatever is left of it is skipped) but must not read past its
+     * end. Only called when the call has succeeded. A ConduitException thrown here is passed on to the caller
+     * of callStreaming(); the call still counts as answered, so it doesn't count against the server in the
+     * circuit breaker or concurrency limiter.
+     *
+     * @params String method, JSONReader result
+     * @returns none
+     */
+    public void readResult(String method, JSONReader result) throws ConduitException, JSONException;
+}
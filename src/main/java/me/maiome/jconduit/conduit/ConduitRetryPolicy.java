@@ -0,0 +1,223 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Decides whether a call that failed with an I/O error (connection refused or reset, timeout, HTTP 5xx) is sent
+ * again, and how long to wait first. Only methods matching one of the policy's method patterns are retried; by
+ * default these are the read methods, since replaying a write the server may already have applied isn't safe.
+ * Conduit errors are never retried.
+ *
+ * Delays grow exponentially from baseDelay up to maxDelay with full jitter: each wait is drawn uniformly from
+ * zero to the current bound, so clients that failed together don't retry together. Retries are also held to a
+ * budget, as in gRPC's retry throttling: every failed attempt costs a token and every success earns back
+ * tokenRatio of one, and no retries are made while fewer than half the tokens are left. A server that is down
+ * for good therefore sees little more traffic than it would without retries.
+ */
+public class ConduitRetryPolicy {
+
+    /**
+     * Method patterns retried by default. See {@link ConduitCallKey#matches} for the pattern syntax.
+     */
+    public static final List<String> DEFAULT_METHOD_PATTERNS = Collections.unmodifiableList(Arrays.asList(
+        "*.query", "*.search", "*.whoami", "phid.lookup", "phid.query", "conduit.ping", "conduit.query"));
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY = 100;
+    public static final long DEFAULT_MAX_DELAY = 5000;
+    public static final double DEFAULT_MAX_TOKENS = 10;
+    public static final double DEFAULT_TOKEN_RATIO = 0.1;
+
+    /**
+     * Policy used by new clients, or null.
+     */
+    private static volatile ConduitRetryPolicy defaultPolicy = null;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final double maxTokens;
+    private final double tokenRatio;
+    private final Set<String> methodPatterns = new CopyOnWriteArraySet<String>(DEFAULT_METHOD_PATTERNS);
+
+    private double tokens;
+
+    // retry statistics
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Constructs a policy with the default settings.
+     *
+     * @params none
+     */
+    public ConduitRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_TOKENS, DEFAULT_TOKEN_RATIO);
+    }
+
+    /**
+     * Constructs a policy.
+     *
+     * @params int maxAttempts (including the first), long baseDelay (ms), long maxDelay (ms), double maxTokens, double tokenRatio
+     */
+    public ConduitRetryPolicy(int maxAttempts, long baseDelay, long maxDelay, double maxTokens, double tokenRatio) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1.");
+        }
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= baseDelay <= maxDelay.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxTokens = maxTokens;
+        this.tokenRatio = tokenRatio;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Returns the policy used by new clients, or null if they don't retry.
+     *
+     * @params none
+     * @returns ConduitRetryPolicy
+     */
+    public static ConduitRetryPolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Sets the policy used by clients created from now on. Pass null to stop retrying by default.
+     *
+     * @params ConduitRetryPolicy policy
+     * @returns none
+     */
+    public static void setDefault(ConduitRetryPolicy policy) {
+        defaultPolicy = policy;
+    }
+
+    /**
+     * Adds a method pattern to retry.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void addMethodPattern(String pattern) {
+        this.methodPatterns.add(pattern);
+    }
+
+    /**
+     * Stops retrying a method pattern.
+     *
+     * @params String pattern
+     * @returns none
+     */
+    public void removeMethodPattern(String pattern) {
+        this.methodPatterns.remove(pattern);
+    }
+
+    /**
+     * Returns true if failed calls to the method may be retried.
+     *
+     * @params String method
+     * @returns boolean
+     */
+    public boolean isRetried(String method) {
+        for (String pattern : this.methodPatterns) {
+            if (ConduitCallKey.matches(pattern, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Records a failed attempt and returns how long (in ms) to wait before the next one, or -1 if the call
+     * shouldn't be retried.
+     *
+     * @params String method, int attempt (1 for the first), IOException error
+     * @returns long
+     */
+    public long onFailure(String method, int attempt, IOException error) {
+        boolean allowed;
+        synchronized (this) {
+            this.tokens = Math.max(0, this.tokens - 1);
+            allowed = this.tokens > this.maxTokens / 2;
+        }
+        if (!this.isRetried(method) || error instanceof InterruptedIOException && !(error instanceof SocketTimeoutException)) {
+            return -1;
+        }
+        if (attempt >= this.maxAttempts) {
+            this.exhausted.incrementAndGet();
+            return -1;
+        }
+        if (!allowed) {
+            this.throttled.incrementAndGet();
+            return -1;
+        }
+        this.retries.incrementAndGet();
+        return this.backoff(attempt);
+    }
+
+    /**
+     * Records a successful attempt.
+     *
+     * @params none
+     * @returns none
+     */
+    public synchronized void onSuccess() {
+        this.tokens = Math.min(this.maxTokens, this.tokens + this.tokenRatio);
+    }
+
+    /**
+     * Returns a jittered delay (in ms) to wait after the given failed attempt.
+     *
+     * @params int attempt
+     * @returns long
+     */
+    public long backoff(int attempt) {
+        long bound = this.baseDelay << Math.min(attempt - 1, 30);
+        if (bound <= 0 || bound > this.maxDelay) {
+            bound = this.maxDelay;
+        }
+        return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Returns the number of retries made.
+     */
+    public long getRetryCount() {
+        return this.retries.get();
+    }
+
+    /**
+     * Returns the number of retries skipped because the retry budget was spent.
+     */
+    public long getThrottledCount() {
+        return this.throttled.get();
+    }
+
+    /**
+     * Returns the number of calls that failed on their last allowed attempt.
+     */
+    public long getExhaustedCount() {
+        return this.exhausted.get();
+    }
+
+    public String toString() {
+        double tokens;
+        synchronized (this) {
+            tokens = this.tokens;
+        }
+        return String.format("ConduitRetryPolicy[retries=%d, throttled=%d, exhausted=%d, tokens=%.1f]", this.getRetryCount(),
+            this.getThrottledCount(), this.getExhaustedCount(), tokens);
+    }
+}
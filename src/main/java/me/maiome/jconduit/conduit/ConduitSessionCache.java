@@ -0,0 +1,176 @@
+package me.maiome.jconduit.conduit;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Caches established Conduit sessions so that {@link ConduitClient#fromCertificate} only performs a
+ * <code>conduit.connect</code> handshake the first time a (username, certificate, apiURL) triple is seen, or
+ * after the server has told us the session is no longer valid. Concurrent lookups of the same key share a
+ * single handshake.
+ */
+public class ConduitSessionCache {
+
+    /**
+     * Shared cache used by ConduitClient.fromCertificate().
+     */
+    private static final ConduitSessionCache defaultCache = new ConduitSessionCache();
+
+    /**
+     * An established session.
+     */
+    public static class Session {
+        public final String sessionKey;
+        public final int connectionID;
+
+        public Session(String sessionKey, int connectionID) {
+            this.sessionKey = sessionKey;
+            this.connectionID = connectionID;
+        }
+    }
+
+    private final ConcurrentHashMap<String, FutureTask<Session>> sessions = new ConcurrentHashMap<String, FutureTask<Session>>();
+
+    /**
+     * Conduit error codes that mean the session has to be re-established.
+     */
+    private final Set<String> sessionErrorCodes = new CopyOnWriteArraySet<String>(Arrays.asList("ERR-INVALID-SESSION"));
+
+    public ConduitSessionCache() {
+    }
+
+    /**
+     * Returns the shared session cache.
+     *
+     * @params none
+     * @returns ConduitSessionCache
+     */
+    public static ConduitSessionCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Builds the cache key. The certificate is hashed so that it isn't kept around as a map key. A null
+     * certificate gets an empty hash, which no real certificate can have, so it is handshaken (and fails) as it
+     * always was.
+     *
+     * @params String username, String certificate, String apiURL
+     * @returns String
+     */
+    static String key(String username, String certificate, String apiURL) {
+        if (certificate == null) {
+            return username + "\n\n" + apiURL;
+        }
+        String certificateHash = "";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(certificate.getBytes("UTF-8"));
+            certificateHash = ConduitClient.byteMap(digest.digest());
+        } catch (java.lang.Exception e) {
+            certificateHash = Integer.toHexString(certificate.hashCode());
+        }
+        return username + "\n" + certificateHash + "\n" + apiURL;
+    }
+
+    /**
+     * Returns the cached session for the credentials, performing a handshake if there isn't one. Returns null
+     * if the handshake failed; failures are not cached.
+     *
+     * @params final String username, final String certificate, final String apiURL
+     * @returns Session
+     */
+    public Session get(final String username, final String certificate, final String apiURL) {
+        String key = key(username, certificate, apiURL);
+        FutureTask<Session> task = this.sessions.get(key);
+        if (task == null) {
+            FutureTask<Session> created = new FutureTask<Session>(new Callable<Session>() {
+                @Override
+                public Session call() throws Exception {
+                    return ConduitClient.handshake(username, certificate, apiURL);
+                }
+            });
+            task = this.sessions.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+
+        Session session = null;
+        try {
+            session = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        if (session == null) {
+            this.sessions.remove(key, task);
+        }
+        return session;
+    }
+
+    /**
+     * Drops a session that the server has rejected. Only the given session is removed, so a session that
+     * another thread has already renewed is left alone.
+     *
+     * @params String username, String certificate, String apiURL, Session stale
+     * @returns none
+     */
+    public void invalidate(String username, String certificate, String apiURL, Session stale) {
+        String key = key(username, certificate, apiURL);
+        FutureTask<Session> task = this.sessions.get(key);
+        if (task == null || !task.isDone()) {
+            return;
+        }
+        try {
+            Session current = task.get();
+            if (current == null || stale == null || current.sessionKey.equals(stale.sessionKey)) {
+                this.sessions.remove(key, task);
+            }
+        } catch (java.lang.Exception e) {
+            this.sessions.remove(key, task);
+        }
+    }
+
+    /**
+     * Returns true if the exception means the session has expired and a new handshake may succeed.
+     *
+     * @params ConduitException e
+     * @returns boolean
+     */
+    public boolean isSessionError(ConduitException e) {
+        return e.getErrorCode() != null && this.sessionErrorCodes.contains(e.getErrorCode());
+    }
+
+    /**
+     * Adds a Conduit error code that should trigger a re-handshake.
+     *
+     * @params String errorCode
+     * @returns none
+     */
+    public void addSessionErrorCode(String errorCode) {
+        this.sessionErrorCodes.add(errorCode);
+    }
+
+    /**
+     * Forgets every cached session.
+     *
+     * @params none
+     * @returns none
+     */
+    public void clear() {
+        this.sessions.clear();
+    }
+
+    /**
+     * Returns the number of cached sessions.
+     *
+     * @params none
+     * @returns int
+     */
+    public int size() {
+        return this.sessions.size();
+    }
+}
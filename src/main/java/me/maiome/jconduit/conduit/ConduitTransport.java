@@ -0,0 +1,20 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * Sends Conduit requests over the wire. Every ConduitClient call goes through a transport, so the HTTP stack
+ * can be chosen per deployment (see {@link ConduitTransports}) without touching call sites.
+ */
+public interface ConduitTransport {
+
+    /**
+     * Sends a POST request with the given form body and returns the response body. Closing the returned stream
+     * releases whatever the transport holds for the request. HTTP error statuses are raised as IOExceptions.
+     *
+     * @params URL url, ConduitRequestEncoder body
+     * @returns InputStream
+     */
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException;
+}
@@ -0,0 +1,81 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+
+/**
+ * Chooses the transport that new clients use. The default can be set in code, or per deployment with the
+ * <code>jconduit.transport</code> system property:
+ * <ul>
+ * <li><code>pooled</code> (the default) - the shared ConduitConnectionPool of persistent HTTP/1.1 sockets</li>
+ * <li><code>urlconnection</code> - java.net.URLConnection, as jConduit originally did</li>
+ * <li><code>http2</code> - java.net.http.HttpClient, multiplexing calls over HTTP/2 (Java 11 and newer)</li>
+ * <li><code>nio</code> - ConduitNioTransport, non-blocking HTTP/1.1 driven by a selector thread</li>
+ * </ul>
+ */
+public class ConduitTransports {
+
+    /**
+     * System property that names the default transport.
+     */
+    public static final String TRANSPORT_PROPERTY = "jconduit.transport";
+
+    /**
+     * Transport set with setDefault(), or null to go by the system property.
+     */
+    private static ConduitTransport defaultTransport = null;
+
+    private ConduitTransports() {
+    }
+
+    /**
+     * Returns the transport that new clients use.
+     *
+     * @params none
+     * @returns ConduitTransport
+     */
+    public static synchronized ConduitTransport getDefault() {
+        if (defaultTransport != null) {
+            return defaultTransport;
+        }
+        String name = System.getProperty(TRANSPORT_PROPERTY, "pooled");
+        if (name.equals("pooled")) {
+            // not cached, so that a closed default pool is replaced.
+            return ConduitConnectionPool.getDefault();
+        }
+        defaultTransport = forName(name);
+        return defaultTransport;
+    }
+
+    /**
+     * Replaces the transport that new clients use. Passing null goes back to the system property.
+     *
+     * @params ConduitTransport transport
+     * @returns none
+     */
+    public static synchronized void setDefault(ConduitTransport transport) {
+        defaultTransport = transport;
+    }
+
+    /**
+     * Creates (or, for "pooled", returns the shared instance of) the named transport.
+     *
+     * @params String name
+     * @returns ConduitTransport
+     */
+    public static ConduitTransport forName(String name) {
+        if (name.equals("pooled")) {
+            return ConduitConnectionPool.getDefault();
+        } else if (name.equals("urlconnection")) {
+            return new ConduitURLConnectionTransport();
+        } else if (name.equals("http2")) {
+            return new ConduitHttpClientTransport();
+        } else if (name.equals("nio")) {
+            try {
+                return new ConduitNioTransport();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not start the NIO transport.", e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown Conduit transport: " + name);
+    }
+}
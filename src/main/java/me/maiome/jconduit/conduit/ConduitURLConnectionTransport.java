@@ -0,0 +1,63 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * Sends calls through java.net.URLConnection, as jConduit originally did. Connection reuse is left to the
+ * JDK's own keep-alive cache. Useful where raw sockets aren't allowed, or behind proxies that the JDK's
+ * proxy selection handles.
+ */
+public class ConduitURLConnectionTransport implements ConduitTransport {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * Constructs a transport with the connection pool's default timeouts.
+     *
+     * @params none
+     */
+    public ConduitURLConnectionTransport() {
+        this(ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructs a transport with the given timeouts (in ms).
+     *
+     * @params int connectTimeout, int readTimeout
+     */
+    public ConduitURLConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setFixedLengthStreamingMode(body.getContentLength());
+        }
+
+        long start = System.nanoTime();
+        OutputStream out = connection.getOutputStream();
+        long connected = System.nanoTime();
+        ConduitMetrics.phase(ConduitMetrics.CONNECT, connected - start);
+        try {
+            body.writeTo(out);
+        } finally {
+            out.close();
+        }
+        long sent = System.nanoTime();
+        ConduitMetrics.phase(ConduitMetrics.SEND, sent - connected);
+        try {
+            return connection.getInputStream();
+        } finally {
+            ConduitMetrics.phase(ConduitMetrics.WAIT, System.nanoTime() - sent);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.concurrent.*;
+
+/**
+ * Access to virtual threads. This is the baseline version for JVMs without them; the multi-release layer in
+ * src/main/java21 replaces it on Java 21 and newer.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        throw new UnsupportedOperationException("Virtual threads need Java 21 or newer.");
+    }
+}
@@ -95,6 +95,15 @@ public class JSONArray {
         this.myArrayList = new ArrayList();
     }
 
+    /**
+     * Construct a lazy JSONArray over an indexed array.
+     * @param index The index of the source text.
+     * @param node  The array's node in the index.
+     */
+    JSONArray(JSONIndex index, int node) {
+        this.myArrayList = new JSONIndex.LazyList(index, node);
+    }
+
     /**
      * Construct a JSONArray from a JSONTokener.
      * @param x A JSONTokener
@@ -0,0 +1,726 @@
+package me.maiome.jconduit.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A JSONTokener that reads UTF-8 bytes directly, from an InputStream or a
+ * heap or direct ByteBuffer. The structure of JSON text is all ASCII, so it
+ * is scanned as bytes; only the contents of strings and barewords are
+ * decoded, straight into chars, without a Reader or CharsetDecoder. It
+ * builds the same JSONObject and JSONArray trees as a JSONTokener.
+ * <p>
+ * Malformed UTF-8 is decoded as U+FFFD, as InputStreamReader does. Positions
+ * in syntax errors are byte offsets.
+ */
+public class JSONByteTokener extends JSONTokener {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Longest UTF-8 sequence; back() may need to step over one.
+     */
+    private static final int MAX_SEQUENCE = 4;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * Bytes that end an unquoted value, besides control characters.
+     */
+    private static final boolean[] BAREWORD_END = new boolean[128];
+
+    static {
+        for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+            BAREWORD_END[c] = true;
+        }
+    }
+
+    private final InputStream stream;
+    private final ByteBuffer buffer;
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * Source index of buf[0].
+     */
+    private long offset;
+
+    /**
+     * Start of the window kept by skipTo() while it looks ahead, or -1.
+     */
+    private int mark = -1;
+
+    private boolean eof;
+    private boolean usePrevious;
+    private boolean pastEnd;
+
+    /**
+     * The last string or bareword skipped was plain ASCII.
+     */
+    boolean plain;
+
+    // what back() has to undo: the bytes of the last character, or the low surrogate handed out last.
+    private int lastWidth;
+    private char lastLow;
+
+    /**
+     * Second half of a supplementary character whose first half next() has
+     * returned, or 0.
+     */
+    private char pendingLow;
+
+    /**
+     * Decoded characters of the string or bareword being read.
+     */
+    private char[] chars = new char[64];
+
+    // line and character positions, counted up to scanned when the window moves or an error is built.
+    private int scanned;
+    private long line = 1;
+    private long lineStart = -1;
+    private boolean afterCR;
+
+
+    /**
+     * Construct a JSONByteTokener reading UTF-8 from an InputStream. The
+     * stream is read in blocks, so it may be read past the end of the JSON
+     * text.
+     *
+     * @param stream     An input stream.
+     */
+    public JSONByteTokener(InputStream stream) {
+        this.stream = stream;
+        this.buffer = null;
+        this.buf = new byte[BUFFER_SIZE];
+    }
+
+
+    /**
+     * Construct a JSONByteTokener reading UTF-8 from a ByteBuffer, between
+     * its position and limit. The buffer's position is not changed. A heap
+     * buffer's array is read in place; a direct buffer is copied out a
+     * window at a time.
+     *
+     * @param buffer     A byte buffer.
+     */
+    public JSONByteTokener(ByteBuffer buffer) {
+        this.stream = null;
+        if (buffer.hasArray()) {
+            this.buffer = null;
+            this.buf = buffer.array();
+            this.pos = buffer.arrayOffset() + buffer.position();
+            this.limit = buffer.arrayOffset() + buffer.limit();
+            this.offset = -this.pos;
+            this.scanned = this.pos;
+        } else {
+            this.buffer = buffer.duplicate();
+            this.buf = new byte[Math.max(16, Math.min(buffer.remaining(), BUFFER_SIZE))];
+        }
+    }
+
+
+    /**
+     * Moves the window along the source and reads more bytes into it. The
+     * last character before pos is kept, so back() still works, and so is
+     * everything from the mark on.
+     *
+     * @return false at the end of the source.
+     */
+    private boolean fill() throws JSONException {
+        if (this.stream == null && this.buffer == null) {
+            return false; // a heap buffer is all in the window already.
+        }
+        int keep = this.mark >= 0 ? this.mark : Math.max(this.pos - MAX_SEQUENCE, 0);
+        if (keep > 0) {
+            this.countLines(keep);
+            System.arraycopy(this.buf, keep, this.buf, 0, this.limit - keep);
+            this.offset += keep;
+            this.pos -= keep;
+            this.limit -= keep;
+            this.scanned -= keep;
+            if (this.mark >= 0) {
+                this.mark = 0;
+            }
+        }
+        if (this.limit == this.buf.length) {
+            byte[] grown = new byte[this.buf.length * 2];
+            System.arraycopy(this.buf, 0, grown, 0, this.limit);
+            this.buf = grown;
+        }
+        int n;
+        if (this.buffer != null) {
+            n = Math.min(this.buf.length - this.limit, this.buffer.remaining());
+            this.buffer.get(this.buf, this.limit, n);
+        } else {
+            try {
+                n = this.stream.read(this.buf, this.limit, this.buf.length - this.limit);
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+        }
+        if (n <= 0) {
+            return false;
+        }
+        this.limit += n;
+        return true;
+    }
+
+
+    /**
+     * Makes sure the window holds at least n bytes from pos on, unless the
+     * source ends first.
+     */
+    private boolean ensure(int n) throws JSONException {
+        while (this.limit - this.pos < n) {
+            if (!this.fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Counts the line breaks in the window from scanned up to the given
+     * position.
+     */
+    private void countLines(int to) {
+        for (int i = this.scanned; i < to; i++) {
+            byte b = this.buf[i];
+            if (b == '\r') {
+                this.line += 1;
+                this.lineStart = this.offset + i + 1;
+                this.afterCR = true;
+            } else {
+                if (b == '\n') {
+                    if (!this.afterCR) {
+                        this.line += 1;
+                    }
+                    this.lineStart = this.offset + i + 1;
+                }
+                this.afterCR = false;
+            }
+        }
+        if (to > this.scanned) {
+            this.scanned = to;
+        }
+    }
+
+
+    private long index() {
+        return this.offset + this.pos + (this.pastEnd ? 1 : 0);
+    }
+
+
+    /**
+     * Decodes the UTF-8 sequence whose first byte, b, is at pos and moves
+     * past it.
+     *
+     * @return The code point, or U+FFFD if the sequence is malformed.
+     */
+    private int decode(int b) throws JSONException {
+        int lead = b & 0xFF;
+        int length;
+        int cp;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+            cp = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            length = 3;
+            cp = lead & 0x0F;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            cp = lead & 0x07;
+        } else {
+            this.pos += 1;
+            return REPLACEMENT;
+        }
+        this.ensure(length);
+        int i = 1;
+        for (; i < length && this.pos + i < this.limit; i++) {
+            int next = this.buf[this.pos + i] & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                break;
+            }
+            // overlong forms and code points past U+10FFFF are caught at the second byte.
+            if (i == 1 && ((lead == 0xE0 && next < 0xA0) || (lead == 0xF0 && next < 0x90) || (lead == 0xF4 && next > 0x8F))) {
+                break;
+            }
+            cp = (cp << 6) | (next & 0x3F);
+        }
+        // like InputStreamReader, a malformed sequence becomes one U+FFFD for the bytes up to where it went wrong.
+        this.pos += i;
+        if (i < length || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+            return REPLACEMENT;
+        }
+        return cp;
+    }
+
+
+    /**
+     * Adds a decoded character (two, for a supplementary code point) to the
+     * chars being collected.
+     */
+    private int append(int count, int cp) {
+        if (count + 2 > this.chars.length) {
+            char[] grown = new char[this.chars.length * 2];
+            System.arraycopy(this.chars, 0, grown, 0, count);
+            this.chars = grown;
+        }
+        if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            this.chars[count] = (char) cp;
+            return count + 1;
+        }
+        this.chars[count] = Character.highSurrogate(cp);
+        this.chars[count + 1] = Character.lowSurrogate(cp);
+        return count + 2;
+    }
+
+
+    /**
+     * Back up one character.
+     */
+    public void back() throws JSONException {
+        if (this.usePrevious || this.index() <= 0) {
+            throw new JSONException("Stepping back two steps is not supported");
+        }
+        if (this.pastEnd) {
+            this.pastEnd = false;
+        } else if (this.lastLow != 0) {
+            this.pendingLow = this.lastLow;
+        } else {
+            this.pos -= this.lastWidth;
+            this.pendingLow = 0;
+        }
+        this.usePrevious = true;
+        this.eof = false;
+    }
+
+
+    public boolean end() {
+        return this.eof && !this.usePrevious;
+    }
+
+
+    /**
+     * Get the next character in the source.
+     *
+     * @return The next character, or 0 if past the end of the source.
+     */
+    public char next() throws JSONException {
+        this.usePrevious = false;
+        this.lastLow = 0;
+        if (this.pendingLow != 0) {
+            char low = this.pendingLow;
+            this.pendingLow = 0;
+            this.lastLow = low;
+            this.lastWidth = 0;
+            return low;
+        }
+        if (this.pos < this.limit || this.fill()) {
+            int b = this.buf[this.pos];
+            if (b >= 0) {
+                this.pos += 1;
+                this.lastWidth = 1;
+                if (b == 0) {
+                    this.eof = true;
+                }
+                return (char) b;
+            }
+            // decode() may move the window to read the rest of the sequence, so measure it from the source index.
+            long start = this.offset + this.pos;
+            int cp = this.decode(b);
+            this.lastWidth = (int) (this.offset + this.pos - start);
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                return (char) cp;
+            }
+            this.pendingLow = Character.lowSurrogate(cp);
+            return Character.highSurrogate(cp);
+        }
+        this.eof = true;
+        this.pastEnd = true;
+        this.lastWidth = 0;
+        return 0;
+    }
+
+
+    /**
+     * Get the next char in the source, skipping whitespace.
+     *
+     * @return  A character, or 0 if there are no more characters.
+     */
+    public char nextClean() throws JSONException {
+        if (this.pendingLow != 0) {
+            return this.next();
+        }
+        for (;;) {
+            while (this.pos < this.limit) {
+                int b = this.buf[this.pos];
+                if (b < 0 || b == 0) {
+                    return this.next();
+                }
+                this.pos += 1;
+                if (b > ' ') {
+                    this.usePrevious = false;
+                    this.lastWidth = 1;
+                    this.lastLow = 0;
+                    return (char) b;
+                }
+            }
+            if (!this.fill()) {
+                return this.next();
+            }
+        }
+    }
+
+
+    /**
+     * Return the characters up to the next close quote character, with
+     * backslash processing done.
+     *
+     * @param quote The quoting character, either
+     *      <code>"</code>&nbsp;<small>(double quote)</small> or
+     *      <code>'</code>&nbsp;<small>(single quote)</small>.
+     * @return      A String.
+     * @throws JSONException Unterminated string.
+     */
+    public String nextString(char quote) throws JSONException {
+        this.usePrevious = false;
+        int count = 0;
+        if (this.pendingLow != 0) {
+            count = this.append(count, this.pendingLow);
+            this.pendingLow = 0;
+        }
+        for (;;) {
+            // copy the ASCII run up to the next quote, escape, non-ASCII byte or end of the window in one go.
+            byte[] buf = this.buf;
+            int limit = this.limit;
+            int i = this.pos;
+            int room = this.chars.length - count;
+            if (limit - i > room) {
+                limit = i + room;
+            }
+            char[] chars = this.chars;
+            int b = 0;
+            while (i < limit) {
+                b = buf[i];
+                if (b == quote || b == '\\' || b == '\n' || b == '\r' || b <= 0) {
+                    break;
+                }
+                chars[count++] = (char) b;
+                i++;
+            }
+            this.pos = i;
+            if (i == limit) {
+                if (limit == this.limit && !this.fill()) {
+                    this.next();
+                    throw this.syntaxError("Unterminated string");
+                }
+                if (count + 2 > this.chars.length) {
+                    this.append(count, 0);
+                }
+                continue;
+            }
+            if (b == quote) {
+                this.pos = i + 1;
+                this.lastWidth = 1;
+                this.lastLow = 0;
+                return new String(this.chars, 0, count);
+            }
+            if (b < 0) {
+                count = this.append(count, this.decode(b));
+                continue;
+            }
+            if (b != '\\') {
+                this.next();
+                throw this.syntaxError("Unterminated string");
+            }
+            char c;
+            if (i + 1 < limit && buf[i + 1] > 0) {
+                c = (char) buf[i + 1]; // the usual one-byte escape, read in place.
+                this.pos = i + 2;
+            } else {
+                this.pos += 1;
+                c = this.next();
+            }
+            switch (c) {
+            case 'b':
+                count = this.append(count, '\b');
+                break;
+            case 't':
+                count = this.append(count, '\t');
+                break;
+            case 'n':
+                count = this.append(count, '\n');
+                break;
+            case 'f':
+                count = this.append(count, '\f');
+                break;
+            case 'r':
+                count = this.append(count, '\r');
+                break;
+            case 'u':
+                count = this.append(count, (char)Integer.parseInt(this.next(4), 16));
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                count = this.append(count, c);
+                break;
+            default:
+                throw this.syntaxError("Illegal escape.");
+            }
+        }
+    }
+
+
+    /**
+     * Get the next value. The value can be a Boolean, Double, Integer,
+     * JSONArray, JSONObject, Long, BigDecimal, BigInteger, or String, or the
+     * JSONObject.NULL object.
+     * @throws JSONException If syntax error.
+     *
+     * @return An object.
+     */
+    public Object nextValue() throws JSONException {
+        char c = this.nextClean();
+
+        switch (c) {
+            case '"':
+            case '\'':
+                return this.nextString(c);
+            case '{':
+                this.back();
+                return new JSONObject(this);
+            case '[':
+                this.back();
+                return new JSONArray(this);
+        }
+
+        // unquoted text: true, false, null, a number, or a non-standard bareword.
+        if (this.pastEnd || c < ' ' || (c < 128 && BAREWORD_END[c])) {
+            this.back();
+            throw this.syntaxError("Missing value");
+        }
+        int count = this.append(0, c);
+        if (Character.isHighSurrogate(c)) {
+            count = this.append(count, this.next());
+        }
+        for (;;) {
+            if (this.pos == this.limit && !this.fill()) {
+                break;
+            }
+            int b = this.buf[this.pos];
+            if (b >= 0) {
+                if (b < ' ' || BAREWORD_END[b]) {
+                    break;
+                }
+                count = this.append(count, b);
+                this.pos += 1;
+            } else {
+                count = this.append(count, this.decode(b));
+            }
+        }
+        this.usePrevious = true; // as if the terminator had been read and backed over.
+
+        Number number = JSONNumber.parse(this.chars, 0, count);
+        if (number != null) {
+            return number;
+        }
+        String string = new String(this.chars, 0, count).trim();
+        if ("".equals(string)) {
+            throw this.syntaxError("Missing value");
+        }
+        return JSONObject.stringToValue(string);
+    }
+
+
+    /**
+     * Position of the next byte. For a tokener reading a heap ByteBuffer,
+     * this is an index into the buffer's array.
+     */
+    int position() {
+        return this.pos;
+    }
+
+
+    /**
+     * Skip the rest of a string, as nextString() would read it, without
+     * building it. Sets plain if the string is all ASCII, without escapes.
+     *
+     * @param quote The quoting character.
+     * @return The hash code of the String nextString() would return.
+     * @throws JSONException Unterminated string.
+     */
+    int skipString(char quote) throws JSONException {
+        this.usePrevious = false;
+        this.plain = true;
+        int hash = 0;
+        for (;;) {
+            byte[] buf = this.buf;
+            int limit = this.limit;
+            int i = this.pos;
+            int b = 0;
+            while (i < limit) {
+                b = buf[i];
+                if (b == quote || b == '\\' || b == '\n' || b == '\r' || b <= 0) {
+                    break;
+                }
+                hash = 31 * hash + b;
+                i++;
+            }
+            this.pos = i;
+            if (i == limit) {
+                if (!this.fill()) {
+                    this.next();
+                    throw this.syntaxError("Unterminated string");
+                }
+                continue;
+            }
+            if (b == quote) {
+                this.pos = i + 1;
+                this.lastWidth = 1;
+                this.lastLow = 0;
+                return hash;
+            }
+            this.plain = false;
+            if (b < 0) {
+                int cp = this.decode(b);
+                if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    hash = 31 * hash + cp;
+                } else {
+                    hash = 31 * (31 * hash + Character.highSurrogate(cp)) + Character.lowSurrogate(cp);
+                }
+                continue;
+            }
+            if (b != '\\') {
+                this.next();
+                throw this.syntaxError("Unterminated string");
+            }
+            char c;
+            if (i + 1 < limit && buf[i + 1] > 0) {
+                c = (char) buf[i + 1]; // the usual one-byte escape, read in place.
+                this.pos = i + 2;
+            } else {
+                this.pos += 1;
+                c = this.next();
+            }
+            switch (c) {
+            case 'b':
+                c = '\b';
+                break;
+            case 't':
+                c = '\t';
+                break;
+            case 'n':
+                c = '\n';
+                break;
+            case 'f':
+                c = '\f';
+                break;
+            case 'r':
+                c = '\r';
+                break;
+            case 'u':
+                c = (char)Integer.parseInt(this.next(4), 16);
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                break;
+            default:
+                throw this.syntaxError("Illegal escape.");
+            }
+            hash = 31 * hash + c;
+        }
+    }
+
+
+    /**
+     * Skip the rest of an unquoted value, as nextValue() would read it,
+     * without building it. Sets plain if the value is all ASCII.
+     *
+     * @param c The first character of the value, as nextClean() returned it.
+     * @return The position of the first character.
+     * @throws JSONException Missing value.
+     */
+    int skipBareword(char c) throws JSONException {
+        if (this.pastEnd || c < ' ' || (c < 128 && BAREWORD_END[c])) {
+            this.back();
+            throw this.syntaxError("Missing value");
+        }
+        int start = this.pos - this.lastWidth;
+        this.plain = c < 128;
+        if (this.pendingLow != 0) {
+            this.next();
+        }
+        for (;;) {
+            if (this.pos == this.limit && !this.fill()) {
+                break;
+            }
+            int b = this.buf[this.pos];
+            if (b >= 0) {
+                if (b < ' ' || BAREWORD_END[b]) {
+                    break;
+                }
+                this.pos += 1;
+            } else {
+                this.plain = false;
+                this.decode(b);
+            }
+        }
+        this.usePrevious = true;
+        return start;
+    }
+
+
+    /**
+     * Skip characters until the next character is the requested character.
+     * If the requested character is not found, no characters are skipped.
+     * @param to A character to skip to.
+     * @return The requested character, or zero if the requested character
+     * is not found.
+     */
+    public char skipTo(char to) throws JSONException {
+        char c;
+        this.mark = this.pos;
+        boolean usePrevious = this.usePrevious;
+        char pendingLow = this.pendingLow;
+        try {
+            do {
+                c = this.next();
+                if (c == 0) {
+                    this.pos = this.mark;
+                    this.pastEnd = false;
+                    this.eof = false;
+                    this.usePrevious = usePrevious;
+                    this.pendingLow = pendingLow;
+                    return c;
+                }
+            } while (c != to);
+        } finally {
+            this.mark = -1;
+        }
+
+        this.back();
+        return c;
+    }
+
+
+    /**
+     * Make a printable string of this JSONByteTokener.
+     *
+     * @return " at {byte index} [character {byte in line} line {line}]"
+     */
+    public String toString() {
+        this.countLines(this.pos);
+        long index = this.index();
+        return " at " + index + " [character " + (index - this.lineStart) + " line " +
+            this.line + "]";
+    }
+}
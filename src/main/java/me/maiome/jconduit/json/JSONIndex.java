@@ -0,0 +1,627 @@
+package me.maiome.jconduit.json;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The structure of a UTF-8 JSON text, kept alongside the text itself so that
+ * lazy JSONObjects and JSONArrays can decode their values on first access.
+ * <p>
+ * Indexing checks the whole text with the same grammar, and fails with the
+ * same syntax errors, as JSONObject and JSONArray, but builds nothing: every
+ * value becomes a node of four ints on a tape, in document order. A node
+ * holds its type, where it starts in the text, where it ends (for objects
+ * and arrays, the tape index past their last descendant, so they can be
+ * stepped over), and for objects and arrays the number of members or
+ * elements, for strings the hash code of the decoded string. Duplicate keys
+ * are looked for as each object ends, so a text with both a duplicate key
+ * and a later syntax error in the same object reports the syntax error.
+ */
+final class JSONIndex {
+
+    private static final int NODE = 4;
+
+    private static final int OBJECT = 0;
+    private static final int ARRAY = 1;
+    private static final int STRING = 2;       // quoted, with escapes or non-ASCII text
+    private static final int PLAIN_STRING = 3; // quoted, ASCII without escapes
+    private static final int BAREWORD = 4;
+    private static final int PLAIN_BAREWORD = 5;
+    private static final int EMPTY = 6;        // an element left out of an array, as in [1,,2]
+
+    /**
+     * Stands in for an element of a LazyList that has not been decoded yet.
+     */
+    private static final Object PENDING = new Object();
+
+    private final byte[] source;
+    private int[] tape;
+    private int size;
+
+    /**
+     * Hash and node of the keys of the objects being indexed, innermost
+     * last, to look for duplicates when each object ends.
+     */
+    private long[] keys = new long[64];
+    private int keyCount;
+
+
+    private JSONIndex(byte[] source, int length) {
+        this.source = source;
+        this.tape = new int[Math.max(64, length / 4)]; // a node for every 16 bytes or so.
+    }
+
+
+    /**
+     * Index a UTF-8 JSON object text and return the lazy JSONObject for it.
+     *
+     * @param source A byte array holding the text.
+     * @param offset Where the text starts.
+     * @param length How long it is.
+     * @return A JSONObject.
+     * @throws JSONException If there is a syntax error or a duplicated key.
+     */
+    static JSONObject parseObject(byte[] source, int offset, int length) throws JSONException {
+        JSONIndex index = new JSONIndex(source, length);
+        int node = index.object(new JSONByteTokener(ByteBuffer.wrap(source, offset, length)));
+        index.keys = null;
+        return new JSONObject(index, node);
+    }
+
+
+    private int add(int type, int start) {
+        if (this.size + NODE > this.tape.length) {
+            this.tape = Arrays.copyOf(this.tape, this.tape.length * 2);
+        }
+        int node = this.size;
+        this.tape[node] = type;
+        this.tape[node + 1] = start;
+        this.size += NODE;
+        return node;
+    }
+
+
+    /**
+     * Indexes the next value, as JSONTokener.nextValue() would read it.
+     */
+    private int value(JSONByteTokener x) throws JSONException {
+        char c = x.nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                int node = this.add(0, x.position() - 1);
+                this.tape[node + 3] = x.skipString(c);
+                this.tape[node] = x.plain ? PLAIN_STRING : STRING;
+                this.tape[node + 2] = x.position();
+                return node;
+            case '{':
+                x.back();
+                return this.object(x);
+            case '[':
+                x.back();
+                return this.array(x);
+        }
+        int start = x.skipBareword(c);
+        int node = this.add(x.plain ? PLAIN_BAREWORD : BAREWORD, start);
+        this.tape[node + 2] = x.position();
+        return node;
+    }
+
+
+    /**
+     * Indexes an object, as the JSONObject constructor would read it.
+     */
+    private int object(JSONByteTokener x) throws JSONException {
+        char c;
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        int node = this.add(OBJECT, x.position() - 1);
+        int firstKey = this.keyCount;
+        for (;;) {
+            c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return this.close(node, firstKey);
+            default:
+                x.back();
+                int key = this.value(x);
+                if (this.keyCount == this.keys.length) {
+                    this.keys = Arrays.copyOf(this.keys, this.keyCount * 2);
+                }
+                this.keys[this.keyCount++] = ((long) this.keyHash(key) << 32) | key;
+            }
+
+// The key is followed by ':'. We will also tolerate '=' or '=>'.
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            this.value(x);
+
+// Pairs are separated by ','. We will also tolerate ';'.
+
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == '}') {
+                    return this.close(node, firstKey);
+                }
+                x.back();
+                break;
+            case '}':
+                return this.close(node, firstKey);
+            default:
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+
+    /**
+     * Finishes an object node, checking its keys for duplicates. Keys are
+     * sorted by hash, so only keys with equal hashes are compared; the
+     * duplicate reported is the one JSONObject would have found first.
+     */
+    private int close(int node, int firstKey) throws JSONException {
+        int count = this.keyCount - firstKey;
+        this.tape[node + 2] = this.size;
+        this.tape[node + 3] = count;
+        if (count > 1) {
+            Arrays.sort(this.keys, firstKey, this.keyCount);
+            int duplicate = -1;
+            for (int i = firstKey; i < this.keyCount; i++) {
+                for (int j = i + 1; j < this.keyCount && (int) (this.keys[j] >>> 32) == (int) (this.keys[i] >>> 32); j++) {
+                    int second = Math.max((int) this.keys[i], (int) this.keys[j]);
+                    if ((duplicate < 0 || second < duplicate) &&
+                            this.key((int) this.keys[i]).equals(this.key((int) this.keys[j]))) {
+                        duplicate = second;
+                    }
+                }
+            }
+            if (duplicate >= 0) {
+                throw new JSONException("Duplicate key \"" + this.key(duplicate) + "\"");
+            }
+        }
+        this.keyCount = firstKey;
+        return node;
+    }
+
+
+    /**
+     * Indexes an array, as the JSONArray constructor would read it.
+     */
+    private int array(JSONByteTokener x) throws JSONException {
+        if (x.nextClean() != '[') {
+            throw x.syntaxError("A JSONArray text must start with '['");
+        }
+        int node = this.add(ARRAY, x.position() - 1);
+        int count = 0;
+        if (x.nextClean() != ']') {
+            x.back();
+            for (;;) {
+                if (x.nextClean() == ',') {
+                    x.back();
+                    this.add(EMPTY, x.position());
+                } else {
+                    x.back();
+                    this.value(x);
+                }
+                count += 1;
+                switch (x.nextClean()) {
+                case ';':
+                case ',':
+                    if (x.nextClean() == ']') {
+                        break;
+                    }
+                    x.back();
+                    continue;
+                case ']':
+                    break;
+                default:
+                    throw x.syntaxError("Expected a ',' or ']'");
+                }
+                break;
+            }
+        }
+        this.tape[node + 2] = this.size;
+        this.tape[node + 3] = count;
+        return node;
+    }
+
+
+    /**
+     * Returns the node after a value and everything in it.
+     */
+    private int skip(int node) {
+        int type = this.tape[node];
+        return type == OBJECT || type == ARRAY ? this.tape[node + 2] : node + NODE;
+    }
+
+
+    private int count(int node) {
+        return this.tape[node + 3];
+    }
+
+
+    /**
+     * Returns the hash code of the key a node stands for.
+     */
+    private int keyHash(int node) throws JSONException {
+        int type = this.tape[node];
+        if (type == STRING || type == PLAIN_STRING) {
+            return this.tape[node + 3];
+        }
+        return this.key(node).hashCode();
+    }
+
+
+    /**
+     * Decodes a key, as JSONObject would: the string form of its value.
+     */
+    private String key(int node) throws JSONException {
+        return this.decode(node).toString();
+    }
+
+
+    /**
+     * Determines whether a node is the key for a name, decoding it only if
+     * it is not a plain string.
+     */
+    private boolean isKey(int node, String name) throws JSONException {
+        if (this.tape[node] != PLAIN_STRING) {
+            return this.key(node).equals(name);
+        }
+        int start = this.tape[node + 1] + 1;
+        int length = this.tape[node + 2] - 1 - start;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.source[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Builds the value of a node. Objects and arrays come back lazy.
+     */
+    @SuppressWarnings("deprecation")
+    private Object decode(int node) throws JSONException {
+        int start = this.tape[node + 1];
+        int end = this.tape[node + 2];
+        switch (this.tape[node]) {
+        case OBJECT:
+            return new JSONObject(this, node);
+        case ARRAY:
+            return new JSONArray(this, node);
+        case PLAIN_STRING:
+            return new String(this.source, 0, start + 1, end - start - 2);
+        case PLAIN_BAREWORD:
+            Number number = JSONNumber.parse(this.source, start, end);
+            if (number != null) {
+                return number;
+            }
+            return JSONObject.stringToValue(new String(this.source, 0, start, end - start).trim());
+        case EMPTY:
+            return JSONObject.NULL;
+        default:
+            return new JSONByteTokener(ByteBuffer.wrap(this.source, start, end - start)).nextValue();
+        }
+    }
+
+
+    /**
+     * Decodes a node that was checked when the text was indexed, so cannot
+     * fail.
+     */
+    private Object decodeChecked(int node) {
+        try {
+            return this.decode(node);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * The members of an indexed object. Keys are compared against the text
+     * and values decoded only when asked for; anything that needs the whole
+     * map (listing the keys, or changing the object) first decodes it into
+     * a HashMap, in document order, like the one JSONObject would have
+     * built.
+     */
+    static final class LazyMap extends AbstractMap<String, Object> {
+
+        /**
+         * Objects with more members than this get a hash table of their
+         * keys on the first lookup; smaller ones are scanned.
+         */
+        private static final int SCAN_LIMIT = 8;
+
+        private final JSONIndex index;
+        private final int node;
+        private Object[] values;
+        private HashMap<String, Object> map;
+
+        /**
+         * Key node of the member find() last found.
+         */
+        private int found;
+
+        /**
+         * Key node of each member, and an open-addressed table of member
+         * ordinals plus one by key hash, for objects past SCAN_LIMIT.
+         */
+        private int[] members;
+        private int[] slots;
+
+        LazyMap(JSONIndex index, int node) {
+            this.index = index;
+            this.node = node;
+        }
+
+        /**
+         * Returns the ordinal of the member with a name, or -1, and notes
+         * where its key is.
+         */
+        private int find(Object name) {
+            if (!(name instanceof String)) {
+                return -1;
+            }
+            String key = (String) name;
+            int hash = key.hashCode();
+            try {
+                if (this.index.count(this.node) > SCAN_LIMIT) {
+                    return this.lookup(key, hash);
+                }
+                int member = this.node + NODE;
+                for (int i = 0; i < this.index.count(this.node); i++) {
+                    if (this.index.keyHash(member) == hash && this.index.isKey(member, key)) {
+                        this.found = member;
+                        return i;
+                    }
+                    member = this.index.skip(this.index.skip(member));
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            return -1;
+        }
+
+        /**
+         * Finds a member through the key table, building it first if need
+         * be. The keys are unique, as indexing checked.
+         */
+        private int lookup(String key, int hash) throws JSONException {
+            if (this.slots == null) {
+                int count = this.index.count(this.node);
+                int[] members = new int[count];
+                int[] slots = new int[Integer.highestOneBit(count) << 2];
+                int mask = slots.length - 1;
+                int member = this.node + NODE;
+                for (int i = 0; i < count; i++) {
+                    members[i] = member;
+                    int slot = spread(this.index.keyHash(member)) & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = i + 1;
+                    member = this.index.skip(this.index.skip(member));
+                }
+                this.members = members;
+                this.slots = slots;
+            }
+            int mask = this.slots.length - 1;
+            for (int slot = spread(hash) & mask; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+                int ordinal = this.slots[slot] - 1;
+                int member = this.members[ordinal];
+                if (this.index.keyHash(member) == hash && this.index.isKey(member, key)) {
+                    this.found = member;
+                    return ordinal;
+                }
+            }
+            return -1;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private Object value(int ordinal, int member) {
+            if (this.values == null) {
+                this.values = new Object[this.index.count(this.node)];
+            }
+            Object value = this.values[ordinal];
+            if (value == null) {
+                value = this.index.decodeChecked(this.index.skip(member));
+                this.values[ordinal] = value;
+            }
+            return value;
+        }
+
+        private HashMap<String, Object> inflate() {
+            if (this.map == null) {
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                int member = this.node + NODE;
+                for (int i = 0; i < this.index.count(this.node); i++) {
+                    try {
+                        map.put(this.index.key(member), this.value(i, member));
+                    } catch (JSONException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    member = this.index.skip(this.index.skip(member));
+                }
+                this.map = map;
+                this.values = null;
+                this.members = null;
+                this.slots = null;
+            }
+            return this.map;
+        }
+
+        @Override
+        public synchronized Object get(Object key) {
+            if (this.map != null) {
+                return this.map.get(key);
+            }
+            int ordinal = this.find(key);
+            return ordinal < 0 ? null : this.value(ordinal, this.found);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return this.map != null ? this.map.containsKey(key) : this.find(key) >= 0;
+        }
+
+        @Override
+        public synchronized int size() {
+            return this.map != null ? this.map.size() : this.index.count(this.node);
+        }
+
+        @Override
+        public synchronized Object put(String key, Object value) {
+            return this.inflate().put(key, value);
+        }
+
+        @Override
+        public synchronized Object remove(Object key) {
+            return this.inflate().remove(key);
+        }
+
+        @Override
+        public synchronized Set<String> keySet() {
+            return this.inflate().keySet();
+        }
+
+        @Override
+        public synchronized Set<Map.Entry<String, Object>> entrySet() {
+            return this.inflate().entrySet();
+        }
+    }
+
+
+    /**
+     * The elements of an indexed array. Each starts out PENDING and is
+     * decoded when first read; anything that would move elements, or hand
+     * them out in bulk, first decodes them all.
+     */
+    static final class LazyList extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 0;
+
+        private final JSONIndex index;
+        private int[] elements;
+        private boolean inflated;
+
+        LazyList(JSONIndex index, int node) {
+            super(index.count(node));
+            this.index = index;
+            int count = index.count(node);
+            for (int i = 0; i < count; i++) {
+                super.add(PENDING);
+            }
+            if (count > 0) {
+                this.elements = new int[count];
+                int element = node + NODE;
+                for (int i = 0; i < count; i++) {
+                    this.elements[i] = element;
+                    element = index.skip(element);
+                }
+            }
+            this.inflated = count == 0;
+        }
+
+        @Override
+        public synchronized Object get(int i) {
+            Object value = super.get(i);
+            if (value == PENDING) {
+                value = this.index.decodeChecked(this.elements[i]);
+                super.set(i, value);
+            }
+            return value;
+        }
+
+        private void inflate() {
+            if (!this.inflated) {
+                for (int i = 0; i < this.elements.length; i++) {
+                    this.get(i);
+                }
+                this.elements = null;
+                this.inflated = true;
+            }
+        }
+
+        @Override
+        public synchronized Object remove(int i) {
+            this.inflate();
+            return super.remove(i);
+        }
+
+        @Override
+        public synchronized boolean remove(Object o) {
+            this.inflate();
+            return super.remove(o);
+        }
+
+        @Override
+        public synchronized void add(int i, Object element) {
+            this.inflate();
+            super.add(i, element);
+        }
+
+        @Override
+        public synchronized boolean addAll(int i, Collection<? extends Object> c) {
+            this.inflate();
+            return super.addAll(i, c);
+        }
+
+        @Override
+        public synchronized Object[] toArray() {
+            this.inflate();
+            return super.toArray();
+        }
+
+        @Override
+        public synchronized <T> T[] toArray(T[] a) {
+            this.inflate();
+            return super.toArray(a);
+        }
+
+        @Override
+        public synchronized Iterator<Object> iterator() {
+            this.inflate();
+            return super.iterator();
+        }
+
+        @Override
+        public synchronized ListIterator<Object> listIterator() {
+            this.inflate();
+            return super.listIterator();
+        }
+
+        @Override
+        public synchronized ListIterator<Object> listIterator(int i) {
+            this.inflate();
+            return super.listIterator(i);
+        }
+    }
+}
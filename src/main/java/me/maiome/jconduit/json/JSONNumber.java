@@ -0,0 +1,306 @@
+package me.maiome.jconduit.json;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Scans numbers straight out of the tokeners' buffers, without building a
+ * String first and without using exceptions to find out what isn't a number.
+ * <p>
+ * A number is an optional sign, digits with an optional decimal point (with
+ * a digit on at least one side of it), and an optional exponent, surrounded
+ * by any amount of whitespace; leading zeros and a leading plus sign are
+ * accepted, as they always were. Integers come back as Integer when they fit
+ * one and Long when they fit one, through the boxes' caches, and as
+ * BigInteger otherwise. Numbers with a decimal point or an exponent come back
+ * as Double, or as BigDecimal if they are too large for a double. Anything
+ * else isn't a number, and is left for the caller to treat as a bareword.
+ * <p>
+ * Most doubles are worked out exactly from their digits; only those with more
+ * than 15 significant digits or a large exponent go through
+ * Double.parseDouble.
+ */
+final class JSONNumber {
+
+    /**
+     * Significant digits that always fit in a long.
+     */
+    private static final int LONG_DIGITS = 18;
+
+    /**
+     * Significant digits, and powers of ten, that a double holds exactly.
+     */
+    private static final int DOUBLE_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Exponents are not accumulated past this; a number with a larger one is
+     * zero or infinite as a double anyway.
+     */
+    private static final int EXPONENT_LIMIT = 100000000;
+
+
+    private JSONNumber() {
+    }
+
+
+    /**
+     * Scan a number from characters.
+     *
+     * @param s     The characters.
+     * @param start The first character.
+     * @param end   The end of the characters.
+     * @return A Number, or null if the characters aren't one.
+     */
+    static Number parse(char[] s, int start, int end) {
+        while (start < end && s[start] <= ' ') {
+            start += 1;
+        }
+        while (end > start && s[end - 1] <= ' ') {
+            end -= 1;
+        }
+        if (start == end || !isStart(s[start])) {
+            return null;
+        }
+        int i = start;
+        boolean negative = s[i] == '-';
+        if (negative || s[i] == '+') {
+            i += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = s[i];
+            if (c >= '0' && c <= '9') {
+                digits += 1;
+                if (point) {
+                    scale += 1;
+                }
+                if (significant > 0 || c != '0') {
+                    if (significant < LONG_DIGITS) {
+                        mantissa = mantissa * 10 + (c - '0');
+                    }
+                    significant += 1;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        boolean exponentPart = false;
+        int exponent = 0;
+        if (i < end) {
+            char c = s[i];
+            if (c != 'e' && c != 'E' || ++i == end) {
+                return null;
+            }
+            exponentPart = true;
+            boolean negativeExponent = s[i] == '-';
+            if ((negativeExponent || s[i] == '+') && ++i == end) {
+                return null;
+            }
+            for (; i < end; i++) {
+                c = s[i];
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                if (exponent < EXPONENT_LIMIT) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (!point && !exponentPart) {
+            if (significant <= LONG_DIGITS) {
+                return integer(negative ? -mantissa : mantissa);
+            }
+            return integer(new String(s, start, end - start));
+        }
+        if (isExact(significant, exponent - scale)) {
+            return decimal(negative, mantissa, exponent - scale);
+        }
+        return decimal(new String(s, start, end - start), exponent);
+    }
+
+
+    /**
+     * Scan a number from UTF-8 bytes. A number is all ASCII, so any other
+     * byte just means the bytes aren't one.
+     *
+     * @param s     The bytes.
+     * @param start The first byte.
+     * @param end   The end of the bytes.
+     * @return A Number, or null if the bytes aren't one.
+     */
+    @SuppressWarnings("deprecation")
+    static Number parse(byte[] s, int start, int end) {
+        while (start < end && s[start] <= ' ' && s[start] >= 0) {
+            start += 1;
+        }
+        while (end > start && s[end - 1] <= ' ' && s[end - 1] >= 0) {
+            end -= 1;
+        }
+        if (start == end || !isStart((char) s[start])) {
+            return null;
+        }
+        int i = start;
+        boolean negative = s[i] == '-';
+        if (negative || s[i] == '+') {
+            i += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte c = s[i];
+            if (c >= '0' && c <= '9') {
+                digits += 1;
+                if (point) {
+                    scale += 1;
+                }
+                if (significant > 0 || c != '0') {
+                    if (significant < LONG_DIGITS) {
+                        mantissa = mantissa * 10 + (c - '0');
+                    }
+                    significant += 1;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        boolean exponentPart = false;
+        int exponent = 0;
+        if (i < end) {
+            byte c = s[i];
+            if (c != 'e' && c != 'E' || ++i == end) {
+                return null;
+            }
+            exponentPart = true;
+            boolean negativeExponent = s[i] == '-';
+            if ((negativeExponent || s[i] == '+') && ++i == end) {
+                return null;
+            }
+            for (; i < end; i++) {
+                c = s[i];
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                if (exponent < EXPONENT_LIMIT) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (!point && !exponentPart) {
+            if (significant <= LONG_DIGITS) {
+                return integer(negative ? -mantissa : mantissa);
+            }
+            return integer(new String(s, 0, start, end - start));
+        }
+        if (isExact(significant, exponent - scale)) {
+            return decimal(negative, mantissa, exponent - scale);
+        }
+        return decimal(new String(s, 0, start, end - start), exponent);
+    }
+
+
+    /**
+     * Scan a number from a string.
+     *
+     * @param string A string.
+     * @return A Number, or null if the string isn't one.
+     */
+    static Number parse(String string) {
+        int length = string.length();
+        if (length == 0 || !isStart(string.charAt(0))) {
+            return null;
+        }
+        return parse(string.toCharArray(), 0, length);
+    }
+
+
+    /**
+     * Whether a number can start with a character.
+     */
+    private static boolean isStart(char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+';
+    }
+
+
+    private static Number integer(long value) {
+        if (value == (int) value) {
+            return Integer.valueOf((int) value);
+        }
+        return Long.valueOf(value);
+    }
+
+
+    /**
+     * An integer with too many digits to be sure it fits a long.
+     */
+    private static Number integer(String digits) {
+        BigInteger value = new BigInteger(digits);
+        if (value.bitLength() < 64) {
+            return integer(value.longValue());
+        }
+        return value;
+    }
+
+
+    /**
+     * Whether a double has few enough digits, and a small enough power of
+     * ten, that one multiplication or division rounds it correctly.
+     */
+    private static boolean isExact(int significant, int exponent) {
+        return significant == 0 || significant <= DOUBLE_DIGITS
+            && exponent > -POWERS_OF_TEN.length && exponent < POWERS_OF_TEN.length;
+    }
+
+
+    private static Number decimal(boolean negative, long mantissa, int exponent) {
+        if (mantissa == 0) {
+            return Double.valueOf(negative ? -0.0 : 0.0);
+        }
+        double value = exponent < 0
+            ? mantissa / POWERS_OF_TEN[-exponent]
+            : mantissa * POWERS_OF_TEN[exponent];
+        return Double.valueOf(negative ? -value : value);
+    }
+
+
+    /**
+     * A double that has to be worked out from its text, or a BigDecimal if
+     * it is too large for one.
+     */
+    private static Number decimal(String text, int exponent) {
+        double value = Double.parseDouble(text);
+        if (!Double.isInfinite(value)) {
+            return Double.valueOf(value);
+        }
+        if (exponent >= EXPONENT_LIMIT) {
+            return null; // too large even for a BigDecimal's scale.
+        }
+        return new BigDecimal(text);
+    }
+}
@@ -166,6 +166,16 @@ public class JSONObject {
     }
 
 
+    /**
+     * Construct a lazy JSONObject over an indexed object.
+     * @param index The index of the source text.
+     * @param node  The object's node in the index.
+     */
+    JSONObject(JSONIndex index, int node) {
+        this.map = new JSONIndex.LazyMap(index, node);
+    }
+
+
     /**
      * Construct a JSONObject from a subset of another JSONObject.
      * An array of strings is used to identify the keys that should be copied.
@@ -328,6 +338,41 @@ public class JSONObject {
     }
 
 
+    /**
+     * Construct a lazy JSONObject from a UTF-8 source JSON text. The text is
+     * checked and indexed, but values are only decoded, once each, when they
+     * are first asked for; objects and arrays inside it are lazy too. The
+     * object behaves like one built by JSONObject(String), and keeps the
+     * source array for as long as it or anything taken from it is reachable,
+     * so the array must not be changed.
+     * @param source    A byte array holding a UTF-8 text beginning
+     *  with <code>{</code>&nbsp;<small>(left brace)</small> and ending
+     *  with <code>}</code>&nbsp;<small>(right brace)</small>.
+     * @param offset    Where the text starts.
+     * @param length    How long it is.
+     * @return A JSONObject.
+     * @exception JSONException If there is a syntax error in the source
+     *  text or a duplicated key.
+     */
+    public static JSONObject parseLazy(byte[] source, int offset, int length) throws JSONException {
+        return JSONIndex.parseObject(source, offset, length);
+    }
+
+
+    /**
+     * Construct a lazy JSONObject from a whole byte array holding a UTF-8
+     * source JSON text.
+     * @param source    A byte array.
+     * @return A JSONObject.
+     * @exception JSONException If there is a syntax error in the source
+     *  text or a duplicated key.
+     * @see #parseLazy(byte[], int, int)
+     */
+    public static JSONObject parseLazy(byte[] source) throws JSONException {
+        return parseLazy(source, 0, source.length);
+    }
+
+
     /**
      * Construct a JSONObject from a ResourceBundle.
      * @param baseName The ResourceBundle base name.
@@ -1274,24 +1319,15 @@ public class JSONObject {
 
     /**
      * Try to convert a string into a number, boolean, or null. If the string
-     * can't be converted, return the string.
+     * can't be converted, return the string. Integers too large for a long
+     * become BigIntegers, and decimals too large for a double BigDecimals.
      * @param string A String.
      * @return A simple JSON value.
      */
     public static Object stringToValue(String string) {
-        Double d;
         if (string.equals("")) {
             return string;
         }
-        if (string.equalsIgnoreCase("true")) {
-            return Boolean.TRUE;
-        }
-        if (string.equalsIgnoreCase("false")) {
-            return Boolean.FALSE;
-        }
-        if (string.equalsIgnoreCase("null")) {
-            return JSONObject.NULL;
-        }
 
         /*
          * If it might be a number, try converting it.
@@ -1301,25 +1337,18 @@ public class JSONObject {
          * non-JSON forms as long as it accepts all correct JSON forms.
          */
 
-        char b = string.charAt(0);
-        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
-            try {
-                if (string.indexOf('.') > -1 ||
-                        string.indexOf('e') > -1 || string.indexOf('E') > -1) {
-                    d = Double.valueOf(string);
-                    if (!d.isInfinite() && !d.isNaN()) {
-                        return d;
-                    }
-                } else {
-                    Long myLong = new Long(string);
-                    if (myLong.longValue() == myLong.intValue()) {
-                        return new Integer(myLong.intValue());
-                    } else {
-                        return myLong;
-                    }
-                }
-            }  catch (Exception ignore) {
-            }
+        Number number = JSONNumber.parse(string);
+        if (number != null) {
+            return number;
+        }
+        if (string.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (string.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        if (string.equalsIgnoreCase("null")) {
+            return JSONObject.NULL;
         }
         return string;
     }
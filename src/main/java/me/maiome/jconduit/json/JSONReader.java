@@ -0,0 +1,495 @@
+package me.maiome.jconduit.json;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A pull parser for JSON text. Where JSONObject and JSONArray build the
+ * whole tree, a JSONReader hands out one token at a time, so a document of
+ * any size can be walked in constant memory. It accepts the same text as
+ * JSONObject and JSONArray, including their non-standard forms, and fails
+ * with the same syntax errors.
+ * <p>
+ * next() moves to the next token and returns its type. Inside an object,
+ * each member is a NAME token followed by the tokens of its value. The
+ * accessors read the current token: getName() is the name of the member
+ * being read, getValue() and the typed getters read a NAME or a scalar
+ * value. skipValue() passes over a value without building it; readValue()
+ * builds just that value, so a large array can be read one element at a
+ * time:
+ * <pre>
+ * reader.next();                        // BEGIN_ARRAY
+ * while (reader.hasNext()) {
+ *     reader.next();                    // BEGIN_OBJECT
+ *     JSONObject task = (JSONObject) reader.readValue();
+ * }
+ * reader.next();                        // END_ARRAY
+ * </pre>
+ */
+public class JSONReader {
+
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int NAME = 5;
+    public static final int STRING = 6;
+    public static final int NUMBER = 7;
+    public static final int BOOLEAN = 8;
+    public static final int NULL = 9;
+    public static final int END_DOCUMENT = 10;
+
+    // where the reader is within each open scope.
+    private static final int DOCUMENT_START = 0;
+    private static final int DOCUMENT_END = 1;
+    private static final int OBJECT_START = 2;  // after '{'
+    private static final int OBJECT_NAME = 3;   // a name is next
+    private static final int OBJECT_VALUE = 4;  // after a name and its ':'
+    private static final int OBJECT_NEXT = 5;   // after a member's value
+    private static final int ARRAY_START = 6;   // after '['
+    private static final int ARRAY_ELEMENT = 7; // an element is next
+    private static final int ARRAY_NEXT = 8;    // after an element
+    private static final int OBJECT_CLOSED = 9; // after '}'
+    private static final int ARRAY_CLOSED = 10; // after ']'
+
+    private final JSONTokener x;
+
+    private int[] scopes = new int[32];
+
+    /**
+     * Name of the member being read in each open scope, null in arrays.
+     */
+    private String[] names = new String[32];
+
+    private int top;
+
+    private int token;
+    private String name;
+    private Object value;
+
+
+    /**
+     * Construct a JSONReader reading from a JSONTokener.
+     *
+     * @param x A JSONTokener.
+     */
+    public JSONReader(JSONTokener x) {
+        this.x = x;
+        this.scopes[0] = DOCUMENT_START;
+    }
+
+
+    /**
+     * Construct a JSONReader reading UTF-8 from an InputStream, through a
+     * JSONByteTokener.
+     *
+     * @param inputStream An input stream.
+     */
+    public JSONReader(InputStream inputStream) {
+        this(new JSONByteTokener(inputStream));
+    }
+
+
+    /**
+     * Construct a JSONReader reading from a Reader.
+     *
+     * @param reader A reader.
+     */
+    public JSONReader(Reader reader) {
+        this(new JSONTokener(reader));
+    }
+
+
+    /**
+     * Construct a JSONReader reading from a string.
+     *
+     * @param source A JSON text.
+     */
+    public JSONReader(String source) {
+        this(new JSONTokener(source));
+    }
+
+
+    /**
+     * Determine whether the object or array being read has another member
+     * or element. At the top level, this is true until the one value in the
+     * document has been read.
+     *
+     * @return true if next() will not return END_OBJECT, END_ARRAY or
+     *  END_DOCUMENT.
+     * @throws JSONException If there is a syntax error.
+     */
+    public boolean hasNext() throws JSONException {
+        char c;
+        switch (this.scopes[this.top]) {
+        case DOCUMENT_START:
+        case OBJECT_NAME:
+        case OBJECT_VALUE:
+        case ARRAY_ELEMENT:
+            return true;
+        case OBJECT_START:
+            c = this.x.nextClean();
+            if (c == 0) {
+                throw this.x.syntaxError("A JSONObject text must end with '}'");
+            }
+            return this.open(c, '}', OBJECT_NAME, OBJECT_CLOSED);
+        case OBJECT_NEXT:
+            c = this.x.nextClean();
+            if (c == ';' || c == ',') {
+                c = this.x.nextClean();
+                if (c == 0) {
+                    throw this.x.syntaxError("A JSONObject text must end with '}'");
+                }
+                return this.open(c, '}', OBJECT_NAME, OBJECT_CLOSED);
+            }
+            if (c != '}') {
+                throw this.x.syntaxError("Expected a ',' or '}'");
+            }
+            return this.open(c, '}', OBJECT_NAME, OBJECT_CLOSED);
+        case ARRAY_START:
+            return this.open(this.x.nextClean(), ']', ARRAY_ELEMENT, ARRAY_CLOSED);
+        case ARRAY_NEXT:
+            c = this.x.nextClean();
+            if (c == ';' || c == ',') {
+                return this.open(this.x.nextClean(), ']', ARRAY_ELEMENT, ARRAY_CLOSED);
+            }
+            if (c != ']') {
+                throw this.x.syntaxError("Expected a ',' or ']'");
+            }
+            return this.open(c, ']', ARRAY_ELEMENT, ARRAY_CLOSED);
+        default:
+            return false;
+        }
+    }
+
+
+    /**
+     * Moves the current scope on, given the first character after an
+     * opening bracket or separator: either the scope is closed, or the
+     * character is put back and a member or element is next.
+     */
+    private boolean open(char c, char close, int scope, int closed) throws JSONException {
+        if (c == close) {
+            this.scopes[this.top] = closed;
+            return false;
+        }
+        this.x.back();
+        this.scopes[this.top] = scope;
+        return true;
+    }
+
+
+    /**
+     * Move to the next token.
+     *
+     * @return The type of the token: BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY,
+     *  END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL or END_DOCUMENT.
+     * @throws JSONException If there is a syntax error.
+     */
+    public int next() throws JSONException {
+        int scope = this.scopes[this.top];
+        if (scope == DOCUMENT_END) {
+            this.name = null;
+            this.value = null;
+            return this.token = END_DOCUMENT;
+        }
+        if (scope == DOCUMENT_START) {
+            this.scopes[this.top] = DOCUMENT_END;
+            return this.readValueToken();
+        }
+        if (scope == OBJECT_VALUE) {
+            this.scopes[this.top] = OBJECT_NEXT;
+            return this.readValueToken();
+        }
+        if (!this.hasNext()) {
+            boolean object = this.scopes[this.top] == OBJECT_CLOSED;
+            this.top -= 1;
+            this.name = this.names[this.top];
+            this.value = null;
+            return this.token = object ? END_OBJECT : END_ARRAY;
+        }
+        if (this.scopes[this.top] == OBJECT_NAME) {
+
+// The key is followed by ':'. We will also tolerate '=' or '=>'.
+
+            this.name = this.x.nextValue().toString();
+            char c = this.x.nextClean();
+            if (c == '=') {
+                if (this.x.next() != '>') {
+                    this.x.back();
+                }
+            } else if (c != ':') {
+                throw this.x.syntaxError("Expected a ':' after a key");
+            }
+            this.names[this.top] = this.name;
+            this.value = this.name;
+            this.scopes[this.top] = OBJECT_VALUE;
+            return this.token = NAME;
+        }
+        this.scopes[this.top] = ARRAY_NEXT;
+        if (this.x.nextClean() == ',') {
+            this.x.back();
+            this.name = null;
+            this.value = JSONObject.NULL;
+            return this.token = NULL;
+        }
+        this.x.back();
+        return this.readValueToken();
+    }
+
+
+    /**
+     * Reads the first token of a value: an opening bracket, or a whole
+     * scalar.
+     */
+    private int readValueToken() throws JSONException {
+        this.name = this.names[this.top];
+        char c = this.x.nextClean();
+        if (c == '{' || c == '[') {
+            this.push(c == '{' ? OBJECT_START : ARRAY_START);
+            this.value = null;
+            return this.token = c == '{' ? BEGIN_OBJECT : BEGIN_ARRAY;
+        }
+        this.x.back();
+        this.value = this.x.nextValue();
+        if (this.value == JSONObject.NULL) {
+            return this.token = NULL;
+        }
+        if (this.value instanceof Boolean) {
+            return this.token = BOOLEAN;
+        }
+        if (this.value instanceof Number) {
+            return this.token = NUMBER;
+        }
+        return this.token = STRING;
+    }
+
+
+    private void push(int scope) {
+        this.top += 1;
+        if (this.top == this.scopes.length) {
+            int[] scopes = new int[this.top * 2];
+            System.arraycopy(this.scopes, 0, scopes, 0, this.top);
+            this.scopes = scopes;
+            String[] names = new String[this.top * 2];
+            System.arraycopy(this.names, 0, names, 0, this.top);
+            this.names = names;
+        }
+        this.scopes[this.top] = scope;
+        this.names[this.top] = null;
+    }
+
+
+    /**
+     * Get the type of the current token.
+     *
+     * @return The value next() last returned, or 0 before the first call.
+     */
+    public int getToken() {
+        return this.token;
+    }
+
+
+    /**
+     * Get the number of objects and arrays the reader is inside. A
+     * BEGIN_OBJECT or BEGIN_ARRAY token counts as inside what it opens; an
+     * END_OBJECT or END_ARRAY token counts as outside what it closes.
+     *
+     * @return The nesting depth, 0 at the top level.
+     */
+    public int getDepth() {
+        return this.top;
+    }
+
+
+    /**
+     * Get the name of the member being read: the name itself on a NAME
+     * token, or the name of the member whose value the current token is in,
+     * begins or ends.
+     *
+     * @return A name, or null if the current value is not in an object.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+
+    /**
+     * Get the value of the current token: the name on a NAME token, or a
+     * Boolean, Double, Integer, Long, BigDecimal, BigInteger, String, or the
+     * JSONObject.NULL object.
+     *
+     * @return A value, or null on a structural token.
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+
+    /**
+     * Get the current value as a string. Numbers and booleans are given in
+     * their JSON form.
+     *
+     * @return A string.
+     * @throws JSONException If the current token is not a NAME or a value.
+     */
+    public String getString() throws JSONException {
+        if (this.value == null) {
+            throw this.x.syntaxError("Expected a value");
+        }
+        return this.value.toString();
+    }
+
+
+    /**
+     * Get the current value as a boolean.
+     *
+     * @return The truth.
+     * @throws JSONException
+     *  if the value is not a Boolean or the String "true" or "false".
+     */
+    public boolean getBoolean() throws JSONException {
+        this.getString();
+        Object object = this.value;
+        if (object.equals(Boolean.FALSE) ||
+                (object instanceof String &&
+                ((String)object).equalsIgnoreCase("false"))) {
+            return false;
+        } else if (object.equals(Boolean.TRUE) ||
+                (object instanceof String &&
+                ((String)object).equalsIgnoreCase("true"))) {
+            return true;
+        }
+        throw this.x.syntaxError("Expected a Boolean");
+    }
+
+
+    /**
+     * Get the current value as a double.
+     *
+     * @return The numeric value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public double getDouble() throws JSONException {
+        String string = this.getString();
+        try {
+            return this.value instanceof Number
+                ? ((Number)this.value).doubleValue()
+                : Double.parseDouble(string);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected a number");
+        }
+    }
+
+
+    /**
+     * Get the current value as an int.
+     *
+     * @return The integer value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public int getInt() throws JSONException {
+        String string = this.getString();
+        try {
+            return this.value instanceof Number
+                ? ((Number)this.value).intValue()
+                : Integer.parseInt(string);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected an int");
+        }
+    }
+
+
+    /**
+     * Get the current value as a long.
+     *
+     * @return The long value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public long getLong() throws JSONException {
+        String string = this.getString();
+        try {
+            return this.value instanceof Number
+                ? ((Number)this.value).longValue()
+                : Long.parseLong(string);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected a long");
+        }
+    }
+
+
+    /**
+     * Build the current value: a JSONObject or JSONArray for a BEGIN_OBJECT
+     * or BEGIN_ARRAY token, which leaves the reader on the matching
+     * END_OBJECT or END_ARRAY, or the scalar itself. On a NAME token, the
+     * member's value is read.
+     *
+     * @return A JSONObject, JSONArray, Boolean, Double, Integer, Long,
+     *  BigDecimal, BigInteger, String, or the JSONObject.NULL object.
+     * @throws JSONException If there is a syntax error.
+     */
+    public Object readValue() throws JSONException {
+        if (this.token == NAME) {
+            this.next();
+        }
+        switch (this.token) {
+        case BEGIN_OBJECT:
+            JSONObject object = new JSONObject();
+            while (this.next() != END_OBJECT) {
+                String key = this.name;
+                this.next();
+                object.putOnce(key, this.readValue());
+            }
+            return object;
+        case BEGIN_ARRAY:
+            JSONArray array = new JSONArray();
+            while (this.next() != END_ARRAY) {
+                array.put(this.readValue());
+            }
+            return array;
+        case STRING:
+        case NUMBER:
+        case BOOLEAN:
+        case NULL:
+            return this.value;
+        default:
+            throw this.x.syntaxError("Expected a value");
+        }
+    }
+
+
+    /**
+     * Skip the current value without building it. On a BEGIN_OBJECT or
+     * BEGIN_ARRAY token, the reader is left on the matching END_OBJECT or
+     * END_ARRAY; on a NAME token, the member's value is skipped. On any
+     * other token, nothing is skipped.
+     *
+     * @throws JSONException If there is a syntax error.
+     */
+    public void skipValue() throws JSONException {
+        if (this.token == NAME) {
+            this.next();
+        }
+        if (this.token == BEGIN_OBJECT || this.token == BEGIN_ARRAY) {
+            int depth = this.top;
+            do {
+                this.next();
+            } while (this.top >= depth);
+        }
+    }
+
+
+    /**
+     * Make a JSONException to signal a syntax error at the reader's
+     * position.
+     *
+     * @param message The error message.
+     * @return  A JSONException object, suitable for throwing
+     */
+    public JSONException syntaxError(String message) {
+        return this.x.syntaxError(message);
+    }
+}
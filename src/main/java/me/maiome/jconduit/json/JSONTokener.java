@@ -1,11 +1,10 @@
 package me.maiome.jconduit.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.Charset;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -35,19 +34,65 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * The source is scanned through a char[] window, refilled in bulk from the
+ * Reader (or straight from the String, without a Reader in between). Runs of
+ * string and bareword characters are copied out of the window in one go, and
+ * the line and character reported in syntax errors are only worked out when
+ * an error is built.
  * @author JSON.org
  * @version 2012-02-16
  */
 public class JSONTokener {
 
-    private long    character;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Characters that end an unquoted value, besides control characters.
+     */
+    private static final boolean[] BAREWORD_END = new boolean[128];
+
+    static {
+        for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+            BAREWORD_END[c] = true;
+        }
+    }
+
+    private final Reader reader;
+    private final String source;
+    private int sourcePos;
+
+    private char[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * Number of characters dropped from the front of the window so far.
+     */
+    private long offset;
+
+    /**
+     * Start of the window kept by skipTo() while it looks ahead, or -1.
+     */
+    private int mark = -1;
+
     private boolean eof;
-    private long    index;
-    private long    line;
-    private char    previous;
-    private Reader  reader;
     private boolean usePrevious;
 
+    /**
+     * Set after next() has returned 0 for the end of the source, which counts
+     * as a character for back() and the index.
+     */
+    private boolean pastEnd;
+
+    // line and character positions, counted up to scanned when the window moves or an error is built.
+    private int scanned;
+    private long line = 1;
+    private long lineStart = -1;
+    private boolean afterCR;
+
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -55,23 +100,18 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported()
-            ? reader
-            : new BufferedReader(reader);
-        this.eof = false;
-        this.usePrevious = false;
-        this.previous = 0;
-        this.index = 0;
-        this.character = 1;
-        this.line = 1;
+        this.reader = reader;
+        this.source = null;
+        this.buf = new char[BUFFER_SIZE];
     }
 
 
     /**
-     * Construct a JSONTokener from an InputStream.
+     * Construct a JSONTokener from an InputStream of UTF-8 text. See
+     * JSONByteTokener for a tokener that skips the charset decoder.
      */
     public JSONTokener(InputStream inputStream) throws JSONException {
-        this(new InputStreamReader(inputStream));
+        this(new InputStreamReader(inputStream, UTF8));
     }
 
 
@@ -81,7 +121,97 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this.reader = null;
+        this.source = s;
+        this.buf = new char[Math.max(16, Math.min(s.length(), BUFFER_SIZE))];
+    }
+
+
+    /**
+     * Construct a JSONTokener for a subclass that reads its own source and
+     * overrides the methods that read it.
+     */
+    protected JSONTokener() {
+        this.reader = null;
+        this.source = null;
+        this.buf = new char[0];
+    }
+
+
+    /**
+     * Moves the window along the source and reads more characters into it.
+     * The character before pos is kept, so back() still works, and so is
+     * everything from the mark on.
+     *
+     * @return false at the end of the source.
+     */
+    private boolean fill() throws JSONException {
+        int keep = this.mark >= 0 ? this.mark : Math.max(this.pos - 1, 0);
+        if (keep > 0) {
+            this.countLines(keep);
+            System.arraycopy(this.buf, keep, this.buf, 0, this.limit - keep);
+            this.offset += keep;
+            this.pos -= keep;
+            this.limit -= keep;
+            this.scanned -= keep;
+            if (this.mark >= 0) {
+                this.mark = 0;
+            }
+        }
+        if (this.limit == this.buf.length) {
+            char[] grown = new char[this.buf.length * 2];
+            System.arraycopy(this.buf, 0, grown, 0, this.limit);
+            this.buf = grown;
+        }
+        int n;
+        if (this.source != null) {
+            n = Math.min(this.buf.length - this.limit, this.source.length() - this.sourcePos);
+            this.source.getChars(this.sourcePos, this.sourcePos + n, this.buf, this.limit);
+            this.sourcePos += n;
+        } else {
+            try {
+                n = this.reader.read(this.buf, this.limit, this.buf.length - this.limit);
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+        }
+        if (n <= 0) {
+            return false;
+        }
+        this.limit += n;
+        return true;
+    }
+
+
+    /**
+     * Counts the line breaks in the window from scanned up to the given
+     * position, as next() used to for every character.
+     */
+    private void countLines(int to) {
+        for (int i = this.scanned; i < to; i++) {
+            char c = this.buf[i];
+            if (c == '\r') {
+                this.line += 1;
+                this.lineStart = this.offset + i + 1;
+                this.afterCR = true;
+            } else {
+                if (c == '\n') {
+                    if (!this.afterCR) {
+                        this.line += 1;
+                    }
+                    this.lineStart = this.offset + i + 1;
+                }
+                this.afterCR = false;
+            }
+        }
+        if (to > this.scanned) {
+            this.scanned = to;
+        }
+    }
+
+
+    private long index() {
+        return this.offset + this.pos + (this.pastEnd ? 1 : 0);
     }
 
 
@@ -91,11 +221,14 @@ public class JSONTokener {
      * the next number or identifier.
      */
     public void back() throws JSONException {
-        if (this.usePrevious || this.index <= 0) {
+        if (this.usePrevious || this.index() <= 0) {
             throw new JSONException("Stepping back two steps is not supported");
         }
-        this.index -= 1;
-        this.character -= 1;
+        if (this.pastEnd) {
+            this.pastEnd = false;
+        } else {
+            this.pos -= 1;
+        }
         this.usePrevious = true;
         this.eof = false;
     }
@@ -146,34 +279,17 @@ public class JSONTokener {
      * @return The next character, or 0 if past the end of the source string.
      */
     public char next() throws JSONException {
-        int c;
-        if (this.usePrevious) {
-            this.usePrevious = false;
-            c = this.previous;
-        } else {
-            try {
-                c = this.reader.read();
-            } catch (IOException exception) {
-                throw new JSONException(exception);
-            }
-
-            if (c <= 0) { // End of stream
+        this.usePrevious = false;
+        if (this.pos < this.limit || this.fill()) {
+            char c = this.buf[this.pos++];
+            if (c == 0) {
                 this.eof = true;
-                c = 0;
             }
+            return c;
         }
-        this.index += 1;
-        if (this.previous == '\r') {
-            this.line += 1;
-            this.character = c == '\n' ? 0 : 1;
-        } else if (c == '\n') {
-            this.line += 1;
-            this.character = 0;
-        } else {
-            this.character += 1;
-        }
-        this.previous = (char) c;
-        return this.previous;
+        this.eof = true;
+        this.pastEnd = true;
+        return 0;
     }
 
 
@@ -207,6 +323,12 @@ public class JSONTokener {
          if (n == 0) {
              return "";
          }
+         if (this.limit - this.pos >= n) {
+             this.usePrevious = false;
+             String chars = new String(this.buf, this.pos, n);
+             this.pos += n;
+             return chars;
+         }
 
          char[] chars = new char[n];
          int pos = 0;
@@ -229,9 +351,20 @@ public class JSONTokener {
      */
     public char nextClean() throws JSONException {
         for (;;) {
-            char c = this.next();
-            if (c == 0 || c > ' ') {
-                return c;
+            while (this.pos < this.limit) {
+                char c = this.buf[this.pos++];
+                if (c > ' ') {
+                    this.usePrevious = false;
+                    return c;
+                }
+                if (c == 0) {
+                    this.usePrevious = false;
+                    this.eof = true;
+                    return c;
+                }
+            }
+            if (!this.fill()) {
+                return this.next();
             }
         }
     }
@@ -249,51 +382,73 @@ public class JSONTokener {
      * @throws JSONException Unterminated string.
      */
     public String nextString(char quote) throws JSONException {
-        char c;
-        StringBuffer sb = new StringBuffer();
+        this.usePrevious = false;
+        StringBuilder sb = null;
         for (;;) {
+            // copy the run up to the next quote, escape or end of the window in one go.
+            int start = this.pos;
+            char[] buf = this.buf;
+            int limit = this.limit;
+            int i = start;
+            char c = 0;
+            while (i < limit) {
+                c = buf[i];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                    break;
+                }
+                i++;
+            }
+            if (i < limit && c == quote) {
+                this.pos = i + 1;
+                if (sb == null) {
+                    return new String(buf, start, i - start);
+                }
+                return sb.append(buf, start, i - start).toString();
+            }
+            if (sb == null) {
+                sb = new StringBuilder(Math.max(16, (i - start) * 2));
+            }
+            sb.append(buf, start, i - start);
+            this.pos = i;
+            if (i == limit) {
+                if (!this.fill()) {
+                    this.next();
+                    throw this.syntaxError("Unterminated string");
+                }
+                continue;
+            }
             c = this.next();
-            switch (c) {
-            case 0:
-            case '\n':
-            case '\r':
+            if (c != '\\') {
                 throw this.syntaxError("Unterminated string");
+            }
+            c = this.next();
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'u':
+                sb.append((char)Integer.parseInt(this.next(4), 16));
+                break;
+            case '"':
+            case '\'':
             case '\\':
-                c = this.next();
-                switch (c) {
-                case 'b':
-                    sb.append('\b');
-                    break;
-                case 't':
-                    sb.append('\t');
-                    break;
-                case 'n':
-                    sb.append('\n');
-                    break;
-                case 'f':
-                    sb.append('\f');
-                    break;
-                case 'r':
-                    sb.append('\r');
-                    break;
-                case 'u':
-                    sb.append((char)Integer.parseInt(this.next(4), 16));
-                    break;
-                case '"':
-                case '\'':
-                case '\\':
-                case '/':
-                    sb.append(c);
-                    break;
-                default:
-                    throw this.syntaxError("Illegal escape.");
-                }
+            case '/':
+                sb.append(c);
                 break;
             default:
-                if (c == quote) {
-                    return sb.toString();
-                }
-                sb.append(c);
+                throw this.syntaxError("Illegal escape.");
             }
         }
     }
@@ -306,7 +461,7 @@ public class JSONTokener {
      * @return   A string.
      */
     public String nextTo(char delimiter) throws JSONException {
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             char c = this.next();
             if (c == delimiter || c == 0 || c == '\n' || c == '\r') {
@@ -328,7 +483,7 @@ public class JSONTokener {
      */
     public String nextTo(String delimiters) throws JSONException {
         char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             c = this.next();
             if (delimiters.indexOf(c) >= 0 || c == 0 ||
@@ -345,7 +500,8 @@ public class JSONTokener {
 
     /**
      * Get the next value. The value can be a Boolean, Double, Integer,
-     * JSONArray, JSONObject, Long, or String, or the JSONObject.NULL object.
+     * JSONArray, JSONObject, Long, BigDecimal, BigInteger, or String, or the
+     * JSONObject.NULL object.
      * @throws JSONException If syntax error.
      *
      * @return An object.
@@ -375,14 +531,47 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = this.next();
+        if (this.pastEnd) {
+            this.back();
+            throw this.syntaxError("Missing value");
+        }
+        this.pos -= 1;
+        StringBuilder sb = null;
+        for (;;) {
+            int start = this.pos;
+            int i = start;
+            while (i < this.limit) {
+                c = this.buf[i];
+                if (c < ' ' || (c < 128 && BAREWORD_END[c])) {
+                    break;
+                }
+                i++;
+            }
+            this.pos = i;
+            if (i < this.limit) {
+                if (sb == null) {
+                    // most barewords are numbers; scan them where they lie.
+                    Number number = JSONNumber.parse(this.buf, start, i);
+                    if (number != null) {
+                        return number;
+                    }
+                    string = new String(this.buf, start, i - start);
+                } else {
+                    string = sb.append(this.buf, start, i - start).toString();
+                }
+                break;
+            }
+            if (sb == null) {
+                sb = new StringBuilder();
+            }
+            sb.append(this.buf, start, i - start);
+            if (!this.fill()) {
+                string = sb.toString();
+                break;
+            }
         }
-        this.back();
 
-        string = sb.toString().trim();
+        string = string.trim();
         if ("".equals(string)) {
             throw this.syntaxError("Missing value");
         }
@@ -399,23 +588,21 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
+        this.mark = this.pos;
+        boolean usePrevious = this.usePrevious;
         try {
-            long startIndex = this.index;
-            long startCharacter = this.character;
-            long startLine = this.line;
-            this.reader.mark(1000000);
             do {
                 c = this.next();
                 if (c == 0) {
-                    this.reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
+                    this.pos = this.mark;
+                    this.pastEnd = false;
+                    this.eof = false;
+                    this.usePrevious = usePrevious;
                     return c;
                 }
             } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
+        } finally {
+            this.mark = -1;
         }
 
         this.back();
@@ -440,7 +627,9 @@ public class JSONTokener {
      * @return " at {index} [character {character} line {line}]"
      */
     public String toString() {
-        return " at " + this.index + " [character " + this.character + " line " +
+        this.countLines(this.pos);
+        long index = this.index();
+        return " at " + index + " [character " + (index - this.lineStart) + " line " +
             this.line + "]";
     }
 }
@@ -0,0 +1,150 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures callback latency and thread usage of asynchronous calls against a FakeConduitServer: the old
+ * thread-per-call client that polled for completion every 500 ms, the ConduitAsyncClient adapter (still a thread per call, but with no poll), and
+ * ConduitClient.callAsync().
+ *
+ * Usage: ConduitAsyncBenchmark [calls]
+ */
+public class ConduitAsyncBenchmark {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final String apiUrl;
+    private final int calls;
+
+    public ConduitAsyncBenchmark(String apiUrl, int calls) {
+        this.apiUrl = apiUrl;
+        this.calls = calls;
+    }
+
+    private void report(String label, long[] latencies, long elapsed) {
+        Arrays.sort(latencies);
+        System.out.println(String.format("  [*] %-10s p50 %6.1f ms  p99 %6.1f ms  %7.0f calls/s  peak threads %d", label,
+            latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6,
+            latencies.length / (elapsed / 1e9), threads.getPeakThreadCount()));
+    }
+
+    /**
+     * The previous ConduitAsyncClient model: one thread per call, completion noticed by a 500 ms poll.
+     */
+    private void runLegacy(final ConduitClient client) throws Exception {
+        final Timer timer = new Timer("legacy poll", true);
+        final long[] latencies = new long[this.calls];
+        final CountDownLatch done = new CountDownLatch(this.calls);
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            final int n = i;
+            final long issued = System.nanoTime();
+            final AtomicBoolean completed = new AtomicBoolean(false);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        client.call("user.whoami", new HashMap<String, Object>());
+                    } catch (ConduitException e) { }
+                    completed.set(true);
+                }
+            }.start();
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    if (completed.get()) {
+                        latencies[n] = System.nanoTime() - issued;
+                        done.countDown();
+                        this.cancel();
+                    }
+                }
+            }, 500, 500);
+        }
+        done.await();
+        this.report("legacy", latencies, System.nanoTime() - start);
+        timer.cancel();
+    }
+
+    private void runAdapter() throws Exception {
+        final long[] latencies = new long[this.calls];
+        final CountDownLatch done = new CountDownLatch(this.calls);
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            final int n = i;
+            final long issued = System.nanoTime();
+            ConduitAsyncClient async = new ConduitAsyncClient("user.whoami", new HashMap<String, Object>()) {
+                @Override
+                public void onFetchCompleted() {
+                    latencies[n] = System.nanoTime() - issued;
+                    done.countDown();
+                }
+
+                @Override
+                public void onFetchTimeout() {
+                    latencies[n] = System.nanoTime() - issued;
+                    done.countDown();
+                }
+            };
+            async.setConnectionInfo("jc-test", "certificate", this.apiUrl);
+            async.start();
+        }
+        done.await();
+        this.report("adapter", latencies, System.nanoTime() - start);
+    }
+
+    private void runCallAsync(ConduitClient client) throws Exception {
+        final long[] latencies = new long[this.calls];
+        final CountDownLatch done = new CountDownLatch(this.calls);
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            final int n = i;
+            final long issued = System.nanoTime();
+            client.callAsync("user.whoami", new HashMap<String, Object>()).addCallback(new ConduitFuture.Callback() {
+                @Override
+                public void onSuccess(JSONObject result) {
+                    latencies[n] = System.nanoTime() - issued;
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    latencies[n] = System.nanoTime() - issued;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        this.report("callAsync", latencies, System.nanoTime() - start);
+    }
+
+    public void runBenchmark() throws Exception {
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        System.out.println("[ Async call benchmark: " + this.calls + " concurrent calls ]");
+        for (int i = 0; i < 200; i++) {
+            client.call("user.whoami", new HashMap<String, Object>());
+        }
+        this.runLegacy(client);
+        this.runAdapter();
+        this.runCallAsync(client);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitAsyncBenchmark(server.getApiUrl(), calls).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
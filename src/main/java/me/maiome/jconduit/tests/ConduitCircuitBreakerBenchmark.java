@@ -0,0 +1,100 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Simulates an outage: a FakeConduitServer that stops answering (so every call waits out the read timeout),
+ * and then recovers. Reports how long failed calls take with and without a circuit breaker, and how soon the
+ * breaker lets traffic through again.
+ *
+ * Usage: ConduitCircuitBreakerBenchmark [threads] [seconds per phase]
+ */
+public class ConduitCircuitBreakerBenchmark {
+
+    private final FakeConduitServer server;
+    private final int threads;
+    private final int seconds;
+
+    public ConduitCircuitBreakerBenchmark(FakeConduitServer server, int threads, int seconds) {
+        this.server = server;
+        this.threads = threads;
+        this.seconds = seconds;
+    }
+
+    private void run(String label, final ConduitClient client) throws Exception {
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong failedNanos = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.seconds);
+        final CountDownLatch done = new CountDownLatch(this.threads);
+        for (int i = 0; i < this.threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        long issued = System.nanoTime();
+                        JSONObject result;
+                        try {
+                            result = client.call("user.whoami", new HashMap<String, Object>());
+                        } catch (ConduitException e) {
+                            result = new JSONObject();
+                        }
+                        if (result.length() > 0) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            failedNanos.addAndGet(System.nanoTime() - issued);
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        long failures = failed.get();
+        System.out.println(String.format("  [*] %-22s ok %7d  failed %8d  mean failure %9.3f ms", label, succeeded.get(), failures,
+            failures == 0 ? 0.0 : failedNanos.get() / 1e6 / failures));
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Circuit breaker benchmark: " + this.threads + " threads, " + this.seconds + "s per phase ]");
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        // the server stops answering rather than refusing connections, so calls wait out the read timeout.
+        client.setConnectionPool(new ConduitConnectionPool(this.threads, 30000, 2000, 1000, 1000));
+
+        this.server.setLatency(60000);
+        client.setCircuitBreaker(null);
+        this.run("down, no breaker", client);
+
+        ConduitCircuitBreaker breaker = new ConduitCircuitBreaker(0.5, 20, 10000, 2000, 3);
+        client.setCircuitBreaker(breaker);
+        this.run("down, breaker", client);
+        System.out.println("      " + breaker);
+
+        this.server.setLatency(5);
+        long recovered = System.nanoTime();
+        while (breaker.getState() == ConduitCircuitBreaker.OPEN) {
+            Thread.sleep(10);
+        }
+        System.out.println(String.format("      half-open %.0f ms after recovery", (System.nanoTime() - recovered) / 1e6));
+        this.run("recovered, breaker", client);
+        System.out.println("      " + breaker);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitCircuitBreakerBenchmark(server, threads, seconds).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
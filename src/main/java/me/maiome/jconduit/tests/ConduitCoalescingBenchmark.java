@@ -0,0 +1,117 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Has many threads issue the same user.query at the same moment against a FakeConduitServer with simulated
+ * latency, with and without a ConduitCallCoalescer, and reports how many requests reached the server. Then
+ * does the same with callAsync() bursts over ConduitNioTransport.
+ *
+ * Usage: ConduitCoalescingBenchmark [threads] [rounds] [latency ms]
+ */
+public class ConduitCoalescingBenchmark {
+
+    private final FakeConduitServer server;
+    private final int threads;
+    private final int rounds;
+
+    public ConduitCoalescingBenchmark(FakeConduitServer server, int threads, int rounds) {
+        this.server = server;
+        this.threads = threads;
+        this.rounds = rounds;
+    }
+
+    private void run(String label, final ConduitCallCoalescer coalescer) throws Exception {
+        final ConduitConnectionPool pool = new ConduitConnectionPool(this.threads, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_VALIDATE_AFTER, ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+        final String apiUrl = this.server.getApiUrl();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        long requestsBefore = this.server.getRequestCount();
+        long start = System.nanoTime();
+        for (int round = 0; round < this.rounds; round++) {
+            // every thread in a round waits on the barrier, so their calls overlap like a burst of page loads.
+            final CyclicBarrier barrier = new CyclicBarrier(this.threads);
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < this.threads; t++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", apiUrl);
+                        client.setConnectionPool(pool);
+                        client.setCoalescer(coalescer);
+                        Map<String, Object> args = new HashMap<String, Object>();
+                        args.put("phids", Arrays.asList("PHID-USER-alice", "PHID-USER-bob", "PHID-USER-carol"));
+                        barrier.await();
+                        client.call("user.query", args);
+                        return client.getPreviousResponse().getJSONArray("result");
+                    }
+                }));
+            }
+            for (Future<Object> f : futures) {
+                f.get();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        pool.close();
+        System.out.println(String.format("  [*] %-12s %6d calls -> %6d requests in %5d ms", label, this.threads * this.rounds,
+            this.server.getRequestCount() - requestsBefore, elapsed / 1000000));
+        if (coalescer != null) {
+            System.out.println("  [*] " + coalescer);
+        }
+    }
+
+    private void runAsync(String label, ConduitCallCoalescer coalescer) throws Exception {
+        ConduitNioTransport transport = new ConduitNioTransport();
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        client.setTransport(transport);
+        client.setCoalescer(coalescer);
+        long requestsBefore = this.server.getRequestCount();
+        long start = System.nanoTime();
+        for (int round = 0; round < this.rounds; round++) {
+            List<ConduitFuture> futures = new ArrayList<ConduitFuture>();
+            for (int t = 0; t < this.threads; t++) {
+                Map<String, Object> args = new HashMap<String, Object>();
+                args.put("phids", Arrays.asList("PHID-USER-alice", "PHID-USER-bob", "PHID-USER-carol"));
+                futures.add(client.callAsync("user.query", args));
+            }
+            for (ConduitFuture f : futures) {
+                f.get();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        transport.close();
+        System.out.println(String.format("  [*] %-12s %6d calls -> %6d requests in %5d ms", label, this.threads * this.rounds,
+            this.server.getRequestCount() - requestsBefore, elapsed / 1000000));
+        if (coalescer != null) {
+            System.out.println("  [*] " + coalescer);
+        }
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Coalescing benchmark: " + this.threads + " threads x " + this.rounds + " rounds ]");
+        ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        this.run("direct", null);
+        this.run("coalesced", new ConduitCallCoalescer());
+        this.runAsync("async", null);
+        this.runAsync("async coal.", new ConduitCallCoalescer());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        server.setLatency(latency);
+        try {
+            new ConduitCoalescingBenchmark(server, threads, rounds).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
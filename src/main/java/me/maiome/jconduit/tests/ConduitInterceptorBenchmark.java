@@ -0,0 +1,107 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Compares calls against a FakeConduitServer with no interceptors, with one that times calls, and with one that
+ * answers from memory without sending anything. Reports time and bytes allocated per call on the calling thread,
+ * to show what the chain costs.
+ *
+ * Usage: ConduitInterceptorBenchmark [calls per run]
+ */
+public class ConduitInterceptorBenchmark {
+
+    private final FakeConduitServer server;
+    private final int calls;
+
+    public ConduitInterceptorBenchmark(FakeConduitServer server, int calls) {
+        this.server = server;
+        this.calls = calls;
+    }
+
+    /**
+     * Adds up the time calls take.
+     */
+    private static class TimingInterceptor extends ConduitInterceptor.Adapter {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public JSONObject afterReceive(String method, Map<String, Object> argMap, JSONObject result, long start, long end) {
+            this.calls.incrementAndGet();
+            this.nanos.addAndGet(end - start);
+            return result;
+        }
+    }
+
+    /**
+     * Answers every call with the same result.
+     */
+    private static class StubInterceptor extends ConduitInterceptor.Adapter {
+        final JSONObject result = new JSONObject();
+
+        @Override
+        public JSONObject beforeSend(String method, Map<String, Object> argMap, long start) {
+            return this.result;
+        }
+    }
+
+    private void run(String label, ConduitClient client) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        Map<String, Object> argMap = new HashMap<String, Object>();
+
+        long allocatedBefore = allocation == null ? 0 : allocation.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            client.call("user.whoami", argMap);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocation == null ? -1 : allocation.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(String.format("  [*] %-14s %9.1f us per call  %8d bytes per call", label, elapsed / 1e3 / this.calls,
+            allocated < 0 ? -1 : allocated / this.calls));
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Interceptor benchmark: " + this.calls + " calls per run ]");
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        client.setMetrics(null);
+
+        this.run("warmup", client);
+        this.run("none", client);
+
+        TimingInterceptor timing = new TimingInterceptor();
+        client.addInterceptor(timing);
+        this.run("timing", client);
+        System.out.println(String.format("      interceptor saw %d calls, mean %.1f us", timing.calls.get(),
+            timing.nanos.get() / 1e3 / Math.max(1, timing.calls.get())));
+
+        StubInterceptor stub = new StubInterceptor();
+        client.addInterceptor(stub);
+        long requests = this.server.getRequestCount();
+        this.run("timing + stub", client);
+        System.out.println("      requests sent while stubbed: " + (this.server.getRequestCount() - requests));
+
+        client.removeInterceptor(stub);
+        client.removeInterceptor(timing);
+        this.run("none again", client);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitInterceptorBenchmark(server, calls).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
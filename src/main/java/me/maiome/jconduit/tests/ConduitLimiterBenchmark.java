@@ -0,0 +1,147 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Drives a FakeConduitServer with a fixed worker pool and a bounded backlog, like a PHP-FPM pool, from more
+ * client threads than it can serve. Without a limiter the overflow is turned away with HTTP 503; with the
+ * adaptive concurrency limiter the client should settle near the server's capacity and keep errors down.
+ * Then mixes a fast and a slow method on one limiter, which must not read the slow method's latency as
+ * congestion, and finally checks that a per-method rate limit holds its rate.
+ *
+ * Usage: ConduitLimiterBenchmark [threads] [seconds] [capacity] [latency ms] [slow method latency ms]
+ */
+public class ConduitLimiterBenchmark {
+
+    private final String apiUrl;
+    private final int threads;
+    private final int seconds;
+
+    public ConduitLimiterBenchmark(String apiUrl, int threads, int seconds) {
+        this.apiUrl = apiUrl;
+        this.threads = threads;
+        this.seconds = seconds;
+    }
+
+    private void run(String label, final ConduitClient client, final String... methods) throws Exception {
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<Long>();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.seconds);
+        final CountDownLatch done = new CountDownLatch(this.threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < this.threads; i++) {
+            final int offset = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    int calls = offset;
+                    while (System.nanoTime() < deadline) {
+                        String method = methods[calls++ % methods.length];
+                        long issued = System.nanoTime();
+                        JSONObject result;
+                        try {
+                            result = client.call(method, new HashMap<String, Object>());
+                        } catch (ConduitException e) {
+                            result = new JSONObject();
+                        }
+                        if (result.length() > 0) {
+                            succeeded.incrementAndGet();
+                            latencies.add(System.nanoTime() - issued);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = new long[latencies.size()];
+        int n = 0;
+        for (Long latency : latencies) {
+            sorted[n++] = latency;
+        }
+        Arrays.sort(sorted);
+        System.out.println(String.format("  [*] %-10s %7.0f ok/s  %7.0f errors/s  p50 %6.1f ms  p99 %6.1f ms", label,
+            succeeded.get() / elapsed, failed.get() / elapsed,
+            n == 0 ? 0.0 : sorted[n / 2] / 1e6, n == 0 ? 0.0 : sorted[(int) (n * 0.99)] / 1e6));
+    }
+
+    /**
+     * Feeds a limiter alternating 2 ms and 80 ms calls, all on time for their method, and checks that the limit
+     * isn't cut. Start times are made up, so the check doesn't depend on the machine's timing.
+     */
+    public static boolean checkMixedLatency() throws InterruptedException {
+        ConduitConcurrencyLimiter limiter = new ConduitConcurrencyLimiter();
+        // the limiter ignores calls that started before it was made, as if before its last cut.
+        Thread.sleep(100);
+        for (int i = 0; i < 2000; i++) {
+            if (!limiter.tryAcquire()) {
+                System.out.println("  [-] mixed latency: no slot free at call " + i);
+                return false;
+            }
+            boolean slow = i % 2 == 1;
+            long latency = TimeUnit.MILLISECONDS.toNanos(slow ? 80 : 2);
+            limiter.release(slow ? "maniphest.query" : "user.whoami", System.nanoTime() - latency, false);
+        }
+        if (limiter.getDecreaseCount() > 0 || limiter.getLimit() < ConduitConcurrencyLimiter.DEFAULT_INITIAL_LIMIT) {
+            System.out.println("  [-] mixed latency: limit cut to " + limiter.getLimit() + " (" + limiter + ")");
+            return false;
+        }
+        System.out.println("  [+] mixed latency: limit held at " + limiter.getLimit());
+        return true;
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Limiter benchmark: " + this.threads + " client threads, " + this.seconds + "s per run ]");
+        checkMixedLatency();
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        client.setConnectionPool(new ConduitConnectionPool(this.threads, 30000, 2000, 10000, 60000));
+
+        client.setConcurrencyLimiter(null);
+        this.run("unlimited", client, "user.whoami");
+
+        ConduitConcurrencyLimiter limiter = new ConduitConcurrencyLimiter();
+        client.setConcurrencyLimiter(limiter);
+        this.run("adaptive", client, "user.whoami");
+        System.out.println("      " + limiter);
+
+        limiter = new ConduitConcurrencyLimiter();
+        client.setConcurrencyLimiter(limiter);
+        this.run("mixed", client, "user.whoami", "maniphest.query");
+        System.out.println("      " + limiter);
+
+        ConduitRateLimiter rateLimiter = new ConduitRateLimiter();
+        rateLimiter.setRate("user.*", 100, 10);
+        client.setRateLimiter(rateLimiter);
+        this.run("100/s", client, "user.whoami");
+        System.out.println("      " + rateLimiter);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        long slowLatency = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        FakeConduitServer server = new FakeConduitServer();
+        server.setLatency(latency);
+        server.setLatency("maniphest.query", slowLatency);
+        server.setCapacity(capacity, capacity);
+        server.start();
+        try {
+            new ConduitLimiterBenchmark(server.getApiUrl(), threads, seconds).runBenchmark();
+            System.out.println("      server rejected " + server.getRejectedCount() + " calls");
+        } finally {
+            server.stop();
+        }
+    }
+}
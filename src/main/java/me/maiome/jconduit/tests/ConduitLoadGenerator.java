@@ -0,0 +1,175 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Drives a FakeConduitServer at a fixed concurrency through ConduitClient (one thread per caller) or
+ * ConduitAsyncClient (a fixed number of calls in flight), and reports throughput, errors and latency
+ * percentiles. Runs entirely in-process, so it works offline.
+ *
+ * Usage: ConduitLoadGenerator [client|async|both] [concurrency] [seconds] [method] [latency ms] [error rate]
+ *   method is one of conduit.ping, user.whoami, user.query and file.download.
+ *   -Djconduit.load.fileSize and -Djconduit.load.padding set the file.download and user record sizes.
+ */
+public class ConduitLoadGenerator {
+
+    private static final String USERNAME = "jc-load";
+    private static final String CERTIFICATE = "certificate";
+
+    private final FakeConduitServer server;
+    private final int concurrency;
+    private final int seconds;
+    private final String method;
+
+    public ConduitLoadGenerator(FakeConduitServer server, int concurrency, int seconds, String method) {
+        this.server = server;
+        this.concurrency = concurrency;
+        this.seconds = seconds;
+        this.method = method;
+    }
+
+    /**
+     * Returns the arguments for a call to the method under load.
+     */
+    private Map<String, Object> args() {
+        Map<String, Object> argMap = new HashMap<String, Object>();
+        if (this.method.equals("user.query")) {
+            List<String> phids = new ArrayList<String>();
+            for (int i = 0; i < 10; i++) {
+                phids.add("PHID-USER-load" + i);
+            }
+            argMap.put("phids", phids);
+        } else if (this.method.equals("file.download")) {
+            argMap.put("phid", "PHID-FILE-load");
+        }
+        return argMap;
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    private static class Results {
+        final ConduitHistogram latency = new ConduitHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        void report(String label, long elapsed) {
+            double seconds = elapsed / 1e9;
+            System.out.println(String.format("  [*] %-7s %8.0f calls/s  errors %6d  p50 %7.2f  p90 %7.2f  p99 %7.2f  p99.9 %7.2f  max %7.2f ms",
+                label, this.latency.getCount() / seconds, this.errors.get(), this.latency.getPercentile(50) / 1e6,
+                this.latency.getPercentile(90) / 1e6, this.latency.getPercentile(99) / 1e6, this.latency.getPercentile(99.9) / 1e6,
+                this.latency.getMax() / 1e6));
+        }
+    }
+
+    private void runClient() throws Exception {
+        final Results results = new Results();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.seconds);
+        final CountDownLatch done = new CountDownLatch(this.concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < this.concurrency; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    // a client per thread, so its previous response is this thread's; the session is shared.
+                    ConduitClient client = ConduitClient.fromCertificate(USERNAME, CERTIFICATE, server.getApiUrl());
+                    JSONObject previous = null;
+                    while (System.nanoTime() < deadline) {
+                        long issued = System.nanoTime();
+                        boolean failed;
+                        try {
+                            // results that aren't objects come back empty, so look at the whole response too;
+                            // if there is no new one, the call never got an answer.
+                            JSONObject result = client.call(method, args());
+                            JSONObject response = client.getPreviousResponse();
+                            failed = result.length() == 0 && (response == previous || response.isNull("result"));
+                            previous = response;
+                        } catch (ConduitException e) {
+                            failed = true;
+                            previous = client.getPreviousResponse();
+                        }
+                        results.latency.record(System.nanoTime() - issued);
+                        if (failed) {
+                            results.errors.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        results.report("client", System.nanoTime() - start);
+    }
+
+    private void runAsync() throws Exception {
+        final Results results = new Results();
+        final Semaphore inFlight = new Semaphore(this.concurrency);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.seconds);
+        long start = System.nanoTime();
+        while (System.nanoTime() < deadline) {
+            inFlight.acquire();
+            final long issued = System.nanoTime();
+            ConduitAsyncClient call = new ConduitAsyncClient(this.method, this.args()) {
+                @Override
+                public void onFetchCompleted() {
+                    results.latency.record(System.nanoTime() - issued);
+                    JSONObject response = getResponse();
+                    if (response == null || response.has("exception")) {
+                        results.errors.incrementAndGet();
+                    }
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFetchTimeout() {
+                    results.latency.record(System.nanoTime() - issued);
+                    results.errors.incrementAndGet();
+                    inFlight.release();
+                }
+            };
+            call.setConnectionInfo(USERNAME, CERTIFICATE, this.server.getApiUrl());
+            call.start();
+        }
+        inFlight.acquire(this.concurrency);
+        results.report("async", System.nanoTime() - start);
+    }
+
+    public void runLoad(String mode) throws Exception {
+        System.out.println("[ Load: " + this.method + ", concurrency " + this.concurrency + ", " + this.seconds + "s per run ]");
+        if (mode.equals("client") || mode.equals("both")) {
+            this.runClient();
+        }
+        if (mode.equals("async") || mode.equals("both")) {
+            this.runAsync();
+        }
+        System.out.println(String.format("      server: %d requests, %d handshakes, %d injected errors, %d rejected, %d bytes out",
+            this.server.getRequestCount(), this.server.getHandshakeCount(), this.server.getErrorCount(), this.server.getRejectedCount(),
+            this.server.getBytesOut()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "both";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String method = args.length > 3 ? args[3] : "user.whoami";
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        double errorRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+        FakeConduitServer server = new FakeConduitServer();
+        server.setLatency(latency);
+        server.setErrorRate(errorRate, "ERR-CONDUIT-CORE");
+        server.setFileSize(Integer.getInteger("jconduit.load.fileSize", 1024));
+        server.setRecordPadding(Integer.getInteger("jconduit.load.padding", 0));
+        server.start();
+        try {
+            new ConduitLoadGenerator(server, concurrency, seconds, method).runLoad(mode);
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+}
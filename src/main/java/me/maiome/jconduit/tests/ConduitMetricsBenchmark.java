@@ -0,0 +1,119 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * Measures what recording metrics costs: the time to record a call on its own, and throughput against a
+ * FakeConduitServer with and without a metrics registry. Then reads the recorded metrics back through the
+ * platform MBean server, as a JMX client would.
+ *
+ * Usage: ConduitMetricsBenchmark [threads] [seconds per run]
+ */
+public class ConduitMetricsBenchmark {
+
+    private static final int RECORDS = 2000000;
+
+    private final FakeConduitServer server;
+    private final int threads;
+    private final int seconds;
+
+    public ConduitMetricsBenchmark(FakeConduitServer server, int threads, int seconds) {
+        this.server = server;
+        this.threads = threads;
+        this.seconds = seconds;
+    }
+
+    private void recordOverhead() {
+        ConduitMetrics metrics = new ConduitMetrics();
+        metrics.setTrackAllocation(false);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < RECORDS; i++) {
+                ConduitMetrics.Call call = metrics.start("user.whoami");
+                metrics.finish(call);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("  [*] record                  %8.1f ns per call", (double) elapsed / RECORDS));
+        }
+        metrics.setTrackAllocation(true);
+        long start = System.nanoTime();
+        for (int i = 0; i < RECORDS; i++) {
+            ConduitMetrics.Call call = metrics.start("user.whoami");
+            metrics.finish(call);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("  [*] record + allocation     %8.1f ns per call", (double) elapsed / RECORDS));
+    }
+
+    private void run(String label, final ConduitClient client) throws Exception {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.seconds);
+        final CountDownLatch done = new CountDownLatch(this.threads);
+        for (int i = 0; i < this.threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        long issued = System.nanoTime();
+                        try {
+                            client.call("user.whoami", new HashMap<String, Object>());
+                        } catch (ConduitException e) { }
+                        nanos.addAndGet(System.nanoTime() - issued);
+                        calls.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        System.out.println(String.format("  [*] %-22s %8.0f calls/s  mean %7.3f ms", label, (double) calls.get() / this.seconds,
+            nanos.get() / 1e6 / Math.max(1, calls.get())));
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Metrics benchmark: " + this.threads + " threads, " + this.seconds + "s per run ]");
+        this.recordOverhead();
+
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        client.setConnectionPool(new ConduitConnectionPool(this.threads, 30000, 2000, 1000, 5000));
+        this.run("warmup", client);
+        client.setMetrics(null);
+        this.run("no metrics", client);
+        ConduitMetrics metrics = new ConduitMetrics();
+        metrics.registerMBeans("benchmark");
+        client.setMetrics(metrics);
+        this.run("metrics", client);
+
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ConduitMetrics.JMX_DOMAIN + ":type=ConduitMethodMetrics,name=\"benchmark\",method=\"user.whoami\"");
+        System.out.println("      " + metrics);
+        System.out.println("      " + metrics.getMethod("user.whoami"));
+        for (String attribute : new String[] { "CallCount", "ErrorCount", "LatencyP50", "LatencyP99", "LatencyP999", "ConnectMean",
+                                               "SendMean", "WaitMean", "ReadMean", "ParseMean", "BytesOut", "BytesIn",
+                                               "AllocatedBytesMean" }) {
+            System.out.println(String.format("      %-20s %s", attribute, mbeans.getAttribute(name, attribute)));
+        }
+        metrics.unregisterMBeans();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitMetricsBenchmark(server, threads, seconds).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
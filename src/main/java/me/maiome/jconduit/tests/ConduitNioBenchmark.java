@@ -0,0 +1,100 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fans out calls against a FakeConduitServer with simulated latency, once as blocking calls through the
+ * connection pool on a pool of platform threads, and once through ConduitNioTransport, where a single
+ * selector thread keeps every call in flight.
+ *
+ * Usage: ConduitNioBenchmark [calls] [latency ms] [platform threads] [nio connections]
+ */
+public class ConduitNioBenchmark {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final String apiUrl;
+    private final int calls;
+
+    public ConduitNioBenchmark(String apiUrl, int calls) {
+        this.apiUrl = apiUrl;
+        this.calls = calls;
+    }
+
+    private void run(String label, ConduitClient client) throws Exception {
+        final CountDownLatch done = new CountDownLatch(this.calls);
+        final long[] failures = new long[1];
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            client.callAsync("user.whoami", new HashMap<String, Object>()).addCallback(new ConduitFuture.Callback() {
+                @Override
+                public void onSuccess(JSONObject result) {
+                    if (result.length() == 0) {
+                        synchronized (failures) {
+                            failures[0]++;
+                        }
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    synchronized (failures) {
+                        failures[0]++;
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("  [*] %-22s %8.0f ms  %7.0f calls/s  peak threads %4d  failures %d",
+            label, elapsed / 1e6, this.calls / (elapsed / 1e9), threads.getPeakThreadCount(), failures[0]));
+    }
+
+    public void runBenchmark(int platformThreads, int nioConnections) throws Exception {
+        System.out.println("[ NIO transport benchmark: " + this.calls + " calls ]");
+
+        ConduitConnectionPool pool = new ConduitConnectionPool(platformThreads, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_VALIDATE_AFTER, ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+        ExecutorService executor = ConduitExecutors.newPlatformExecutor(platformThreads, "benchmark");
+        ConduitClient blocking = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        blocking.setConnectionPool(pool);
+        blocking.setExecutor(executor);
+        this.run("pooled x" + platformThreads + " threads", blocking);
+        executor.shutdown();
+        pool.close();
+
+        ExecutorService callbacks = ConduitExecutors.newPlatformExecutor(4, "benchmark callbacks");
+        ConduitNioTransport nio = new ConduitNioTransport(1, nioConnections, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT, callbacks);
+        ConduitClient async = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        async.setTransport(nio);
+        this.run("nio x" + nioConnections + " connections", async);
+        System.out.println(String.format("  [*] nio opened %d connections, reused %d times", nio.getCreatedCount(), nio.getReusedCount()));
+        nio.close();
+        callbacks.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int nioConnections = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        server.setLatency(latency);
+        try {
+            new ConduitNioBenchmark(server.getApiUrl(), calls).runBenchmark(platformThreads, nioConnections);
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares call throughput of a connection-per-call URLConnection client against the pooled ConduitClient,
+ * using a FakeConduitServer on localhost.
+ *
+ * Usage: ConduitPoolBenchmark [threads] [callsPerThread]
+ */
+public class ConduitPoolBenchmark {
+
+    private final String apiUrl;
+    private final int threads;
+    private final int callsPerThread;
+
+    public ConduitPoolBenchmark(String apiUrl, int threads, int callsPerThread) {
+        this.apiUrl = apiUrl;
+        this.threads = threads;
+        this.callsPerThread = callsPerThread;
+    }
+
+    /**
+     * The call path as it was before pooling: a fresh URLConnection per call.
+     */
+    private JSONObject legacyCall(String method, JSONObject args) throws Exception {
+        URLConnection connection = new URL(this.apiUrl + method).openConnection();
+        connection.setDoOutput(true);
+        OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
+        out.write("params=" + args.toString());
+        out.close();
+        StringBuilder data = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+        String input;
+        while ((input = in.readLine()) != null) {
+            data.append(input);
+        }
+        in.close();
+        return new JSONObject(data.toString()).getJSONObject("result");
+    }
+
+    private double run(String label, final Callable<Object> call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < this.threads; t++) {
+            futures.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < callsPerThread; i++) {
+                        call.call();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        double rate = (double) this.threads * this.callsPerThread / (elapsed / 1e9);
+        System.out.println(String.format("  [*] %-12s %8.0f calls/s (%d ms)", label, rate, elapsed / 1000000));
+        return rate;
+    }
+
+    public void runBenchmark() throws Exception {
+        final JSONObject args = new JSONObject();
+        final ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        final ConduitConnectionPool connectionPool = new ConduitConnectionPool(this.threads, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_VALIDATE_AFTER, ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+        client.setConnectionPool(connectionPool);
+
+        System.out.println("[ ConduitClient pool benchmark: " + this.threads + " threads x " + this.callsPerThread + " calls ]");
+        // warm both paths up before measuring.
+        for (int i = 0; i < 500; i++) {
+            this.legacyCall("user.whoami", args);
+            client.call("user.whoami", new HashMap<String, Object>());
+        }
+
+        double legacy = this.run("legacy", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return legacyCall("user.whoami", args);
+            }
+        });
+        double pooled = this.run("pooled", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return client.call("user.whoami", new HashMap<String, Object>());
+            }
+        });
+        System.out.println(String.format("  [*] speedup: %.2fx; pool opened %d connections, reused %d times", pooled / legacy,
+            connectionPool.getCreatedCount(), connectionPool.getReusedCount()));
+        connectionPool.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int callsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitPoolBenchmark(server.getApiUrl(), threads, callsPerThread).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+
+import java.util.*;
+
+/**
+ * Replays a skewed stream of user.query lookups against a FakeConduitServer with simulated latency, with and
+ * without a ConduitResponseCache, and reports throughput, requests sent and the cache's hit ratio.
+ *
+ * Usage: ConduitResponseCacheBenchmark [calls] [distinct queries] [latency ms]
+ */
+public class ConduitResponseCacheBenchmark {
+
+    private final FakeConduitServer server;
+    private final int calls;
+    private final int distinct;
+
+    public ConduitResponseCacheBenchmark(FakeConduitServer server, int calls, int distinct) {
+        this.server = server;
+        this.calls = calls;
+        this.distinct = distinct;
+    }
+
+    private void run(String label, ConduitResponseCache cache) throws Exception {
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        client.setResponseCache(cache);
+        Random random = new Random(42);
+        long requestsBefore = this.server.getRequestCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            // squaring a uniform draw favours the low ids, like a handful of popular users.
+            double r = random.nextDouble();
+            int id = (int) (r * r * this.distinct);
+            Map<String, Object> args = new HashMap<String, Object>();
+            args.put("phids", Arrays.asList("PHID-USER-u" + id));
+            client.call("user.query", args);
+            if (cache != null && i % 1000 == 999) {
+                // an occasional write drops the cached user.* reads.
+                cache.afterCall("user.edit");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("  [*] %-8s %6.0f calls/s, %5d requests", label, this.calls / (elapsed / 1e9),
+            this.server.getRequestCount() - requestsBefore));
+        if (cache != null) {
+            System.out.println("  [*] " + cache);
+        }
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Response cache benchmark: " + this.calls + " calls over " + this.distinct + " queries ]");
+        this.run("direct", null);
+        this.run("cached", new ConduitResponseCache());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        server.setLatency(latency);
+        try {
+            new ConduitResponseCacheBenchmark(server, calls, distinct).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures retries and hedged requests against a FakeConduitServer: how many calls come back empty when the
+ * server fails a share of requests, with and without a retry policy; and the latency tail when a share of
+ * requests are slow, with and without hedging.
+ *
+ * Usage: ConduitRetryBenchmark [calls] [threads]
+ */
+public class ConduitRetryBenchmark {
+
+    private final FakeConduitServer server;
+    private final int calls;
+    private final int threads;
+
+    public ConduitRetryBenchmark(FakeConduitServer server, int calls, int threads) {
+        this.server = server;
+        this.calls = calls;
+        this.threads = threads;
+    }
+
+    private void run(String label, final ConduitClient client) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(this.calls);
+        final AtomicLong empty = new AtomicLong();
+        final long[] latencies = new long[this.calls];
+        final CountDownLatch done = new CountDownLatch(this.threads);
+        long requestsBefore = this.server.getRequestCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    int n;
+                    while ((n = remaining.decrementAndGet()) >= 0) {
+                        long issued = System.nanoTime();
+                        JSONObject result;
+                        try {
+                            result = client.call("user.whoami", new HashMap<String, Object>());
+                        } catch (ConduitException e) {
+                            result = new JSONObject();
+                        }
+                        latencies[n] = System.nanoTime() - issued;
+                        if (result.length() == 0) {
+                            empty.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        System.out.println(String.format("  [*] %-10s empty %5d  p50 %6.1f ms  p99 %6.1f ms  p99.9 %6.1f ms  %6.0f calls/s  %6d requests",
+            label, empty.get(), latencies[this.calls / 2] / 1e6, latencies[(int) (this.calls * 0.99)] / 1e6,
+            latencies[(int) (this.calls * 0.999)] / 1e6, this.calls / elapsed, this.server.getRequestCount() - requestsBefore));
+    }
+
+    public void runBenchmark() throws Exception {
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        System.out.println("[ Retry benchmark: " + this.calls + " calls on " + this.threads + " threads ]");
+
+        System.out.println("  5% of requests fail with HTTP 503, 5 ms latency:");
+        this.server.setLatency(5);
+        this.server.setFailureRate(0.05);
+        client.setRetryPolicy(null);
+        this.run("no retry", client);
+        ConduitRetryPolicy retries = new ConduitRetryPolicy(3, 10, 1000, ConduitRetryPolicy.DEFAULT_MAX_TOKENS,
+            ConduitRetryPolicy.DEFAULT_TOKEN_RATIO);
+        client.setRetryPolicy(retries);
+        this.run("retry", client);
+        System.out.println("      " + retries);
+        this.server.setFailureRate(0);
+        client.setRetryPolicy(null);
+
+        System.out.println("  2% of requests take 200 ms longer, 5 ms latency:");
+        this.server.setSlowResponses(0.02, 200);
+        this.run("no hedge", client);
+        ConduitHedgePolicy hedging = new ConduitHedgePolicy();
+        client.setHedgePolicy(hedging);
+        this.run("hedge", client);
+        System.out.println("      " + hedging + ", hedge after " + hedging.getDelay("user.whoami") + " ms");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitRetryBenchmark(server, calls, threads).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Reads a large maniphest.query result from a FakeConduitServer with call(), which builds the whole result, and
+ * with callStreaming(), which walks it with a JSONReader. Reports time per call, bytes allocated on the calling
+ * thread and the most heap in use while each call ran, and checks both see the same tasks. The server shares the
+ * heap, so the peak includes its rendering of the response; the difference between the runs is the client's.
+ *
+ * Usage: ConduitStreamingBenchmark [tasks] [calls per run]
+ */
+public class ConduitStreamingBenchmark {
+
+    private final FakeConduitServer server;
+    private final int calls;
+
+    public ConduitStreamingBenchmark(FakeConduitServer server, int calls) {
+        this.server = server;
+        this.calls = calls;
+    }
+
+    /**
+     * Counts the tasks in a result and adds up their ids.
+     */
+    private static class TaskCounter implements ConduitResultReader {
+        int tasks;
+        long ids;
+
+        @Override
+        public void readResult(String method, JSONReader result) throws JSONException {
+            this.tasks = 0;
+            this.ids = 0;
+            while (result.next() == JSONReader.NAME) {
+                this.tasks++;
+                result.next(); // BEGIN_OBJECT
+                while (result.next() == JSONReader.NAME) {
+                    if (result.getName().equals("id")) {
+                        result.next();
+                        this.ids += result.getLong();
+                    } else {
+                        result.skipValue();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples heap use while a run goes on, and keeps the largest figure.
+     */
+    private static class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        volatile boolean running = true;
+        volatile long peak;
+
+        HeapSampler() {
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                this.peak = Math.max(this.peak, this.memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void run(String label, ConduitClient client, boolean streaming) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        Map<String, Object> argMap = new HashMap<String, Object>();
+        TaskCounter counter = new TaskCounter();
+
+        System.gc();
+        long baseline = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long allocatedBefore = allocation == null ? 0 : allocation.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            if (streaming) {
+                client.callStreaming("maniphest.query", argMap, counter);
+            } else {
+                JSONObject result = client.call("maniphest.query", argMap);
+                counter.tasks = result.length();
+                counter.ids = 0;
+                for (Iterator keys = result.keys(); keys.hasNext(); ) {
+                    counter.ids += result.getJSONObject((String) keys.next()).getLong("id");
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocation == null ? -1 : allocation.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        sampler.running = false;
+        sampler.join();
+        System.out.println(String.format("  [*] %-9s %9.1f ms per call  %8.1f MB allocated per call  peak heap +%6.1f MB  (%d tasks, ids %d)",
+            label, elapsed / 1e6 / this.calls, allocated < 0 ? -1 : allocated / 1e6 / this.calls,
+            Math.max(0, sampler.peak - baseline) / 1e6, counter.tasks, counter.ids));
+    }
+
+    public void runBenchmark(int tasks) throws Exception {
+        System.out.println("[ Streaming benchmark: " + tasks + " tasks, " + this.calls + " calls per run ]");
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.server.getApiUrl());
+        client.setMetrics(null);
+
+        this.run("warmup", client, false);
+        this.run("warmup", client, true);
+        this.run("tree", client, false);
+        this.run("streaming", client, true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        FakeConduitServer server = new FakeConduitServer();
+        server.setTaskCount(tasks);
+        server.start();
+        try {
+            new ConduitStreamingBenchmark(server, calls).runBenchmark(tasks);
+        } finally {
+            server.stop();
+        }
+    }
+}
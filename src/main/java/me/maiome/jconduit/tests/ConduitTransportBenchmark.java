@@ -0,0 +1,112 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares the available ConduitTransports against a FakeConduitServer: blocking calls from a fixed number of
+ * threads through each transport, then callAsync() through the HttpClient transport, which doesn't hold a
+ * thread per call. The fake server only speaks HTTP/1.1, so this measures the transports' overhead rather
+ * than HTTP/2 multiplexing itself.
+ *
+ * Usage: ConduitTransportBenchmark [threads] [callsPerThread]
+ */
+public class ConduitTransportBenchmark {
+
+    private final String apiUrl;
+    private final int threads;
+    private final int callsPerThread;
+
+    public ConduitTransportBenchmark(String apiUrl, int threads, int callsPerThread) {
+        this.apiUrl = apiUrl;
+        this.threads = threads;
+        this.callsPerThread = callsPerThread;
+    }
+
+    private void report(String label, long elapsed) {
+        double rate = (double) this.threads * this.callsPerThread / (elapsed / 1e9);
+        System.out.println(String.format("  [*] %-22s %8.0f calls/s (%d ms)", label, rate, elapsed / 1000000));
+    }
+
+    private void runBlocking(String label, ConduitTransport transport) throws Exception {
+        final ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        client.setTransport(transport);
+        for (int i = 0; i < 200; i++) {
+            client.call("user.whoami", new HashMap<String, Object>());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < this.threads; t++) {
+            futures.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int i = 0; i < callsPerThread; i++) {
+                        client.call("user.whoami", new HashMap<String, Object>());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> f : futures) {
+            f.get();
+        }
+        this.report(label, System.nanoTime() - start);
+        pool.shutdown();
+    }
+
+    private void runAsync(String label, ConduitTransport transport) throws Exception {
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        client.setTransport(transport);
+        int calls = this.threads * this.callsPerThread;
+        final CountDownLatch done = new CountDownLatch(calls);
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            client.callAsync("user.whoami", new HashMap<String, Object>()).addCallback(new ConduitFuture.Callback() {
+                @Override
+                public void onSuccess(JSONObject result) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        this.report(label, System.nanoTime() - start);
+    }
+
+    public void runBenchmark() throws Exception {
+        System.out.println("[ Transport benchmark: " + this.threads + " threads x " + this.callsPerThread + " calls ]");
+        this.runBlocking("urlconnection", new ConduitURLConnectionTransport());
+        ConduitConnectionPool connectionPool = new ConduitConnectionPool(this.threads, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_VALIDATE_AFTER, ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+        this.runBlocking("pooled", connectionPool);
+        connectionPool.close();
+        if (!ConduitHttpClientTransport.isSupported()) {
+            System.out.println("  [-] the HttpClient transport needs Java 11 and the multi-release jar; skipped.");
+            return;
+        }
+        ConduitHttpClientTransport http = new ConduitHttpClientTransport();
+        this.runBlocking("httpclient", http);
+        this.runAsync("httpclient async", http);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int callsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        try {
+            new ConduitTransportBenchmark(server.getApiUrl(), threads, callsPerThread).runBenchmark();
+        } finally {
+            server.stop();
+        }
+    }
+}
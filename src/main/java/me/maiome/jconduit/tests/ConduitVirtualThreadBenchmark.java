@@ -0,0 +1,91 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.conduit.*;
+import me.maiome.jconduit.json.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fans out blocking calls against a FakeConduitServer with simulated latency, once on a bounded pool of
+ * platform threads and once on virtual threads behind a concurrency limit. The virtual thread run needs Java
+ * 21 and the multi-release jar; on older JVMs it is skipped.
+ *
+ * Usage: ConduitVirtualThreadBenchmark [calls] [latency ms] [platform threads] [virtual thread limit]
+ */
+public class ConduitVirtualThreadBenchmark {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final String apiUrl;
+    private final int calls;
+
+    public ConduitVirtualThreadBenchmark(String apiUrl, int calls) {
+        this.apiUrl = apiUrl;
+        this.calls = calls;
+    }
+
+    private void run(String label, ExecutorService executor, int connections) throws Exception {
+        ConduitConnectionPool pool = new ConduitConnectionPool(connections, ConduitConnectionPool.DEFAULT_IDLE_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_VALIDATE_AFTER, ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT,
+            ConduitConnectionPool.DEFAULT_READ_TIMEOUT);
+        ConduitClient client = ConduitClient.fromCertificate("jc-test", "certificate", this.apiUrl);
+        client.setConnectionPool(pool);
+        client.setExecutor(executor);
+
+        final CountDownLatch done = new CountDownLatch(this.calls);
+        final long[] failures = new long[1];
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < this.calls; i++) {
+            client.callAsync("user.whoami", new HashMap<String, Object>()).addCallback(new ConduitFuture.Callback() {
+                @Override
+                public void onSuccess(JSONObject result) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    synchronized (failures) {
+                        failures[0]++;
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("  [*] %-22s %8.0f ms  %7.0f calls/s  peak platform threads %4d  failures %d",
+            label, elapsed / 1e6, this.calls / (elapsed / 1e9), threads.getPeakThreadCount(), failures[0]));
+        executor.shutdown();
+        pool.close();
+    }
+
+    public void runBenchmark(int platformThreads, int virtualLimit) throws Exception {
+        System.out.println("[ Virtual thread benchmark: " + this.calls + " calls ]");
+        this.run("platform x" + platformThreads, ConduitExecutors.newPlatformExecutor(platformThreads, "benchmark"),
+            platformThreads);
+        if (!ConduitExecutors.isVirtualThreadSupported()) {
+            System.out.println("  [-] virtual threads need Java 21 and the multi-release jar; skipped.");
+            return;
+        }
+        this.run("virtual limit " + virtualLimit, ConduitExecutors.newVirtualThreadExecutor(virtualLimit, "benchmark"),
+            virtualLimit);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int virtualLimit = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        FakeConduitServer server = new FakeConduitServer();
+        server.start();
+        server.setLatency(latency);
+        try {
+            new ConduitVirtualThreadBenchmark(server.getApiUrl(), calls).runBenchmark(platformThreads, virtualLimit);
+        } finally {
+            server.stop();
+        }
+    }
+}
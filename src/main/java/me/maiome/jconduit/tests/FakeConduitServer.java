@@ -0,0 +1,449 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.json.*;
+import me.maiome.jconduit.util.Base64;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * A small in-process Conduit server for exercising the client without a real Phabricator install. Implements
+ * conduit.connect, conduit.ping, user.whoami, user.query, file.download and maniphest.query, with configurable
+ * latency, payload sizes, capacity and injected failures.
+ */
+public class FakeConduitServer {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService delayer;
+    private final AtomicInteger connectionIDs = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private volatile boolean compressResponses = false;
+    private volatile long latency = 0;
+    private final Map<String, Long> methodLatencies = new ConcurrentHashMap<String, Long>();
+    private volatile boolean chunkedResponses = false;
+    private volatile int capacity = 0;
+    private volatile int backlogLimit = 0;
+    private volatile double failureRate = 0;
+    private volatile double slowFraction = 0;
+    private volatile long slowLatency = 0;
+    private int busy = 0;
+    private final ArrayDeque<Object[]> backlog = new ArrayDeque<Object[]>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private volatile double errorRate = 0;
+    private volatile String errorCode = "ERR-CONDUIT-CORE";
+    private final AtomicLong errorCount = new AtomicLong();
+    private volatile int recordPadding = 0;
+    private volatile String fileData = fileData(1024);
+    private volatile JSONString taskData = taskData(100);
+
+    public FakeConduitServer() {
+    }
+
+    public void start() throws IOException {
+        // the JDK server writes headers and body separately; without this Nagle holds every response for a delayed ACK.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 1024);
+        this.executor = Executors.newFixedThreadPool(64);
+        this.delayer = Executors.newScheduledThreadPool(4);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/api/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleCall(exchange);
+            }
+        });
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.delayer.shutdownNow();
+    }
+
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/api/";
+    }
+
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    public long getHandshakeCount() {
+        return this.handshakeCount.get();
+    }
+
+    /**
+     * Forgets every session, so the next authenticated call gets ERR-INVALID-SESSION.
+     */
+    public void expireSessions() {
+        this.sessions.clear();
+    }
+
+    /**
+     * Returns the number of request body bytes received, as sent on the wire.
+     */
+    public long getBytesIn() {
+        return this.bytesIn.get();
+    }
+
+    /**
+     * Returns the number of response body bytes sent, as sent on the wire.
+     */
+    public long getBytesOut() {
+        return this.bytesOut.get();
+    }
+
+    /**
+     * Gzips responses for clients that send Accept-Encoding: gzip.
+     */
+    public void setCompressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    /**
+     * Delays every response by the given number of milliseconds, to simulate a remote server. Delayed
+     * responses are sent from a timer, so slow calls don't tie up server threads.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Delays responses to one method by the given number of milliseconds instead of the usual latency.
+     */
+    public void setLatency(String method, long latency) {
+        this.methodLatencies.put(method, latency);
+    }
+
+    /**
+     * Sends responses with Transfer-Encoding: chunked instead of a Content-Length.
+     */
+    public void setChunkedResponses(boolean chunkedResponses) {
+        this.chunkedResponses = chunkedResponses;
+    }
+
+    /**
+     * Serves at most capacity calls at once, like a fixed pool of PHP workers: further calls wait in a backlog
+     * (so their latency grows with load) and are turned away with HTTP 503 once backlogLimit are waiting. A
+     * capacity of 0 serves every call at once.
+     */
+    public void setCapacity(int capacity, int backlogLimit) {
+        this.capacity = capacity;
+        this.backlogLimit = backlogLimit;
+    }
+
+    /**
+     * Answers the given fraction of calls (chosen at random) with HTTP 503, to simulate transient failures.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Delays the given fraction of calls (chosen at random) by slowLatency milliseconds on top of the usual
+     * latency, to simulate a slow tail.
+     */
+    public void setSlowResponses(double slowFraction, long slowLatency) {
+        this.slowFraction = slowFraction;
+        this.slowLatency = slowLatency;
+    }
+
+    /**
+     * Answers the given fraction of calls (chosen at random, handshakes excepted) with a Conduit error, which
+     * unlike a 503 reaches the caller as a ConduitException.
+     */
+    public void setErrorRate(double errorRate, String errorCode) {
+        this.errorCode = errorCode;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Returns the number of calls answered with an injected Conduit error.
+     */
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    /**
+     * Pads every user record with a field of the given number of characters, to grow user.whoami and user.query
+     * responses.
+     */
+    public void setRecordPadding(int recordPadding) {
+        this.recordPadding = recordPadding;
+    }
+
+    /**
+     * Sets the size (in bytes, before Base64) of the file every file.download call returns.
+     */
+    public void setFileSize(int fileSize) {
+        this.fileData = fileData(fileSize);
+    }
+
+    /**
+     * Sets the number of tasks every maniphest.query call returns.
+     */
+    public void setTaskCount(int taskCount) {
+        this.taskData = taskData(taskCount);
+    }
+
+    /**
+     * Renders a maniphest.query result once, so large results cost the server a copy per call rather than a
+     * JSONObject per task.
+     */
+    private static JSONString taskData(int count) {
+        StringBuilder sb = new StringBuilder(count * 400 + 2);
+        sb.append('{');
+        for (int i = 1; i <= count; i++) {
+            if (i > 1) {
+                sb.append(',');
+            }
+            String phid = JSONObject.quote("PHID-TASK-" + i);
+            sb.append(phid).append(":{\"id\":\"").append(i).append("\",\"phid\":").append(phid)
+                .append(",\"authorPHID\":\"PHID-USER-author\",\"ownerPHID\":\"PHID-USER-owner").append(i % 50)
+                .append("\",\"status\":\"open\",\"priority\":\"Normal\",\"title\":")
+                .append(JSONObject.quote("Task " + i + ": caf\u00e9 migration \u2013 step " + (i % 7)))
+                .append(",\"description\":").append(JSONObject.quote("Move the " + i + "th batch over.\nSee T" + (i - 1) + "."))
+                .append(",\"uri\":\"http://127.0.0.1/T").append(i)
+                .append("\",\"projectPHIDs\":[\"PHID-PROJ-core\"],\"dateCreated\":\"").append(1400000000 + i)
+                .append("\",\"dateModified\":\"").append(1400000000 + 2 * i).append("\"}");
+        }
+        sb.append('}');
+        final String json = sb.toString();
+        return new JSONString() {
+            @Override
+            public String toJSONString() {
+                return json;
+            }
+        };
+    }
+
+    private static String fileData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return Base64.encodeBytes(data);
+    }
+
+    /**
+     * Returns the number of calls answered with HTTP 503.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Reads the form-encoded request body, gunzipping it if needed, and returns the decoded params.
+     */
+    private JSONObject readParams(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            raw.write(buf, 0, n);
+        }
+        in.close();
+        this.bytesIn.addAndGet(raw.size());
+
+        byte[] body = raw.toByteArray();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body));
+            raw.reset();
+            while ((n = gzip.read(buf)) != -1) {
+                raw.write(buf, 0, n);
+            }
+            body = raw.toByteArray();
+        }
+
+        for (String pair : new String(body, "ISO-8859-1").split("&")) {
+            if (pair.startsWith("params=")) {
+                try {
+                    return new JSONObject(URLDecoder.decode(pair.substring("params=".length()), "UTF-8"));
+                } catch (JSONException e) {
+                    throw new IOException("Bad params: " + e.getMessage());
+                }
+            }
+        }
+        return new JSONObject();
+    }
+
+    /**
+     * Builds a user.query record for a PHID.
+     */
+    private Map<String, Object> fakeUser(String phid) {
+        String name = phid.substring("PHID-USER-".length());
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put("phid", phid);
+        user.put("userName", name);
+        user.put("realName", "User " + name);
+        user.put("image", "http://127.0.0.1/file/data/profile-" + name + ".png");
+        user.put("uri", "http://127.0.0.1/p/" + name + "/");
+        user.put("roles", Arrays.asList("verified", "approved", "activated"));
+        this.pad(user);
+        return user;
+    }
+
+    /**
+     * Adds the configured padding to a record.
+     */
+    private void pad(Map<String, Object> record) {
+        int padding = this.recordPadding;
+        if (padding > 0) {
+            char[] text = new char[padding];
+            Arrays.fill(text, 'x');
+            record.put("profile", new String(text));
+        }
+    }
+
+    private void handleCall(HttpExchange exchange) throws IOException {
+        this.requestCount.incrementAndGet();
+        String method = exchange.getRequestURI().getPath().substring("/api/".length());
+
+        JSONObject params = this.readParams(exchange);
+
+        Map<String, Object> envelope = new HashMap<String, Object>();
+        envelope.put("result", JSONObject.NULL);
+        envelope.put("error_code", JSONObject.NULL);
+        envelope.put("error_info", JSONObject.NULL);
+
+        JSONObject auth = params.optJSONObject("__conduit__");
+        if (method.equals("conduit.connect")) {
+            this.handshakeCount.incrementAndGet();
+            int connectionID = this.connectionIDs.incrementAndGet();
+            Map<String, Object> session = new HashMap<String, Object>();
+            session.put("sessionKey", "fake-session-" + connectionID);
+            session.put("connectionID", connectionID);
+            this.sessions.add("fake-session-" + connectionID);
+            envelope.put("result", session);
+        } else if (auth != null && !this.sessions.contains(auth.optString("sessionKey"))) {
+            envelope.put("error_code", "ERR-INVALID-SESSION");
+            envelope.put("error_info", "Session key is invalid.");
+        } else if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+            this.errorCount.incrementAndGet();
+            envelope.put("error_code", this.errorCode);
+            envelope.put("error_info", "Injected error.");
+        } else if (method.equals("conduit.ping")) {
+            envelope.put("result", "fake-conduit");
+        } else if (method.equals("user.whoami")) {
+            Map<String, Object> user = new HashMap<String, Object>();
+            user.put("phid", "PHID-USER-fake");
+            user.put("userName", "jc-test");
+            user.put("realName", "jConduit Test");
+            this.pad(user);
+            envelope.put("result", user);
+        } else if (method.equals("user.query")) {
+            List<Object> users = new ArrayList<Object>();
+            JSONArray phids = params.optJSONArray("phids");
+            // like Phabricator, return at most 100 users unless a limit is given.
+            int limit = params.optInt("limit", 100);
+            for (int i = 0; phids != null && i < phids.length() && users.size() < limit; i++) {
+                String phid = phids.optString(i);
+                if (phid.startsWith("PHID-USER-")) {
+                    users.add(this.fakeUser(phid));
+                }
+            }
+            envelope.put("result", users);
+        } else if (method.equals("file.download")) {
+            if (params.optString("phid").startsWith("PHID-FILE-")) {
+                envelope.put("result", this.fileData);
+            } else {
+                envelope.put("error_code", "ERR-BAD-PHID");
+                envelope.put("error_info", "No such file exists.");
+            }
+        } else if (method.equals("maniphest.query")) {
+            envelope.put("result", this.taskData);
+        } else {
+            envelope.put("error_code", "ERR-CONDUIT-CALL");
+            envelope.put("error_info", "Conduit method '" + method + "' does not exist.");
+        }
+
+        byte[] body = new JSONObject(envelope).toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (this.compressResponses && accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        this.bytesOut.addAndGet(body.length);
+        if (this.failureRate > 0 && ThreadLocalRandom.current().nextDouble() < this.failureRate) {
+            this.rejectedCount.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        if (this.capacity <= 0 && this.latency <= 0 && this.slowFraction <= 0 && this.methodLatencies.isEmpty()) {
+            this.respond(exchange, body);
+            return;
+        }
+        if (this.capacity > 0) {
+            synchronized (this.backlog) {
+                if (this.busy >= this.capacity) {
+                    if (this.backlog.size() >= this.backlogLimit) {
+                        this.rejectedCount.incrementAndGet();
+                        exchange.sendResponseHeaders(503, -1);
+                        exchange.close();
+                        return;
+                    }
+                    this.backlog.add(new Object[] { exchange, body, method });
+                    return;
+                }
+                this.busy++;
+            }
+        }
+        this.serve(exchange, body, method);
+    }
+
+    /**
+     * Responds after the configured latency, then starts on the next call waiting for a worker.
+     */
+    private void serve(final HttpExchange exchange, final byte[] body, String method) {
+        Long methodLatency = this.methodLatencies.get(method);
+        long delay = methodLatency != null ? methodLatency : this.latency;
+        if (this.slowFraction > 0 && ThreadLocalRandom.current().nextDouble() < this.slowFraction) {
+            delay += this.slowLatency;
+        }
+        this.delayer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    respond(exchange, body);
+                } catch (IOException e) {
+                    exchange.close();
+                }
+                if (capacity > 0) {
+                    Object[] next;
+                    synchronized (backlog) {
+                        next = backlog.poll();
+                        if (next == null) {
+                            busy--;
+                            return;
+                        }
+                    }
+                    serve((HttpExchange) next[0], (byte[]) next[1], (String) next[2]);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, this.chunkedResponses ? 0 : body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
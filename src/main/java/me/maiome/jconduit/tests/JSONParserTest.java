@@ -0,0 +1,790 @@
+package me.maiome.jconduit.tests;
+
+import me.maiome.jconduit.json.*;
+
+import java.io.*;
+import java.math.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Differential checks of the JSON parsers. Every input is parsed each way the library can parse it, and the
+ * results, values or error messages alike, have to agree. Inputs are a fixed set of valid, lenient and malformed
+ * texts plus random documents from a seeded generator, so a failure can be reproduced from the seed it prints.
+ *
+ * Usage: JSONParserTest [documents] [seed]
+ */
+public class JSONParserTest {
+
+    /**
+     * Fixed inputs: well-formed documents, the lenient forms the parsers have always accepted, and malformed
+     * texts whose errors have to be reported the same way by every parser.
+     */
+    private static final String[] TEXTS = {
+        "{\"a\":1,\"b\":[true,false,null,1.5e3,-2],\"c\":\"x\\\"y\\\\z\\u00e9\\n\\t\"}",
+        "{'single':'quo\\'ted', bare: word , n: 0x1F, big: 12345678901234}",
+        "{\"name\":\"J\u00fcrgen \u4e2d\u6587 \ud83d\ude00 end\", \"k\":\u00e9bare}",
+        "{\"emoji\":\"\ud83d\ude00\ud83d\ude01\",\"\ud83d\ude02\":2}",
+        "{\"a\":1;\"b\"=>2,\"c\"=3}", "{\"a\":1,}", "{\"a\":[1,,2,]}", "[,]", "[,1,,2,]", "[abc def, ghi]",
+        "{}", "[]", "[[],{},[[{}]]]", "\"str\"", "42", "[\ud83d\ude00]", "{\"k\\u0041\":1,\"kA\":2}", "{1:2,\"1\":3}",
+        "{\"n\":-0,\"m\":1.0,\"big\":12345678901234567890,\"huge\":1e999}",
+        "{\"a\":{\"b\":[{\"c\":1},{}]},\"z\":\"\u00e9\"} trailing", "{\"a\":1}{", "[1]garbage", "{\"a\":1}  ",
+        "{\"a\":1", "{\"a\" 1}", "{\"a\":}", "{\"a\":\"unterminated", "{\"a\":\"line\nbreak\"}", "{\"a\":\"\\q\"}",
+        "{\"a\":\"\\u12\"}", "{\"a\":1,\"a\":2}", "{\"a\":{\"b\":1,\"b\":2}}", "{\"a\":1 \"b\":2}", "{\"a\":[1 2]}",
+        "{\"a\":[1;2]}", "{\"a\":[1,2}", "{,}", "{\"a\":1,,}", "{\n\"a\" : 1,\r\n \"b\": ,}", "  \r\n [1,\r\n2,\n x:y]",
+        "{", "[", "", "   ", "{x:1, \ud83d\ude00'=>false}", "{x:1, \u00e9t\u00e9:2, \u4e2d:3}",
+    };
+
+    /**
+     * Errors, positions included, that the parsers have to keep reporting.
+     */
+    private static final String[][] ERRORS = {
+        {"{x\n \"a\":1}", "Expected a ':' after a key at 5 [character 2 line 2]"},
+        {"{\"a\":1", "Expected a ',' or '}' at 7 [character 8 line 1]"},
+        {"{\"a\" 1}", "Expected a ':' after a key at 6 [character 7 line 1]"},
+        {"{\"a\":}", "Missing value at 5 [character 6 line 1]"},
+        {"[1,2", "Expected a ',' or ']' at 5 [character 6 line 1]"},
+        {"{\n\"a\":\"line\nbreak\"}", "Unterminated string at 12 [character 0 line 3]"},
+        {"{\"a\":\"\\q\"}", "Illegal escape. at 8 [character 9 line 1]"},
+        {"{\"a\":1,\"a\":2}", "Duplicate key \"a\""},
+        {"  \r\n [1,\r\n2,\n x:y]", "Expected a ',' or ']' at 16 [character 3 line 4]"},
+    };
+
+    /**
+     * Keys for generated objects: escaped, non-ASCII and colliding ("Aa" and "BB" share a hash code) ones.
+     */
+    private static final String[] KEYS = {
+        "a", "b", "id", "phid", "caf\u00e9", "k\\u0041", "x y", "\ud83d\ude00", "A", "Aa", "BB", "title", "1", "01", "true"
+    };
+
+    private final Random random;
+    private final long seed;
+    private final int documents;
+    private final List<String> inputs = new ArrayList<String>();
+    private int checks = 0;
+    private int failures = 0;
+
+    public JSONParserTest(int documents, long seed) {
+        this.random = new Random(seed);
+        this.seed = seed;
+        this.documents = documents;
+        this.inputs.addAll(Arrays.asList(TEXTS));
+        StringBuilder big = new StringBuilder("{");
+        for (int i = 0; i < 3000; i++) {
+            big.append("\"key").append(i).append("\":\"").append("v\\t\\\"alue\u4e2d\ud83d\ude00".substring(0, i % 12)).append("\",\n");
+        }
+        big.append("\"end\":[1]}");
+        this.inputs.add(big.toString());
+        this.inputs.add(big.toString().replace("\"end\"", "\"end\\"));
+        for (int i = 0; i < documents; i++) {
+            this.inputs.add(this.document());
+        }
+    }
+
+    /**
+     * A Reader that hands its text out a few characters at a time, so that every refill of a tokener's buffer
+     * lands somewhere different.
+     */
+    private static class ChunkedReader extends Reader {
+        private final String text;
+        private final Random random;
+        private int position = 0;
+
+        public ChunkedReader(String text, long seed) {
+            this.text = text;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (this.position >= this.text.length()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(length, 1 + this.random.nextInt(3)), this.text.length() - this.position);
+            this.text.getChars(this.position, this.position + n, buffer, offset);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The InputStream counterpart of ChunkedReader.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] bytes;
+        private final Random random;
+        private int position = 0;
+
+        public ChunkedInputStream(byte[] bytes, long seed) {
+            this.bytes = bytes;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int read() {
+            return this.position < this.bytes.length ? this.bytes[this.position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (this.position >= this.bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(length, 1 + this.random.nextInt(3)), this.bytes.length - this.position);
+            System.arraycopy(this.bytes, this.position, buffer, offset, n);
+            this.position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Generates a random document: an object or an array, sometimes with a character dropped or added.
+     *
+     * @params none
+     * @returns String
+     */
+    private String document() {
+        String text = this.random.nextInt(4) == 0 ? this.array(0) : this.object(0);
+        if (this.random.nextInt(4) == 0 && text.length() > 0) {
+            int at = this.random.nextInt(text.length());
+            if (this.random.nextBoolean()) {
+                text = text.substring(0, at) + text.substring(at + 1);
+            } else {
+                text = text.substring(0, at) + "{}[],:\"'\\\n".charAt(this.random.nextInt(10)) + text.substring(at);
+            }
+        }
+        return text;
+    }
+
+    private String key() {
+        String key = KEYS[this.random.nextInt(KEYS.length)];
+        return this.random.nextInt(4) == 0 ? "'" + key + "'" : "\"" + key + "\"";
+    }
+
+    private String scalar() {
+        switch (this.random.nextInt(12)) {
+            case 0: return "null";
+            case 1: return "true";
+            case 2: return "false";
+            case 3: return String.valueOf(this.random.nextInt(1000) - 500);
+            case 4: return String.valueOf(this.random.nextLong());
+            case 5: return String.valueOf(this.random.nextDouble() * 1e5);
+            case 6: return "\"plain " + this.random.nextInt(99) + "\"";
+            case 7: return "\"esc\\n\\t\\\"\\u00e9 \u4e2d \ud83d\ude01\"";
+            case 8: return "bare word";
+            case 9: return "1e999";
+            case 10: return "'single'";
+            default: return "\"\"";
+        }
+    }
+
+    private String value(int depth) {
+        int kind = depth > 3 ? 0 : this.random.nextInt(5);
+        if (kind == 1) {
+            return this.object(depth + 1);
+        }
+        if (kind == 2) {
+            return this.array(depth + 1);
+        }
+        return this.scalar();
+    }
+
+    private String array(int depth) {
+        StringBuilder sb = new StringBuilder("[");
+        int n = this.random.nextInt(5);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(this.random.nextInt(8) == 0 ? ",," : ",");
+            }
+            sb.append(this.value(depth));
+        }
+        if (this.random.nextInt(6) == 0) {
+            sb.append(",");
+        }
+        return sb.append("]").toString();
+    }
+
+    private String object(int depth) {
+        StringBuilder sb = new StringBuilder("{");
+        int n = this.random.nextInt(this.random.nextInt(8) == 0 ? KEYS.length : 6);
+        Set<String> used = new HashSet<String>();
+        for (int i = 0; i < n; i++) {
+            String key = this.key();
+            if (!used.add(key.substring(1, key.length() - 1))) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(this.random.nextInt(6) == 0 ? ";" : ",");
+            }
+            sb.append(" ").append(key).append(this.random.nextInt(6) == 0 ? "=>" : ":").append(this.value(depth));
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * Parses a value the way JSONObject and JSONArray do, returning its text, or the error prefixed with
+     * "ERR ".
+     *
+     * @params JSONTokener x
+     * @returns String
+     */
+    private static String parse(JSONTokener x) {
+        try {
+            char c = x.nextClean();
+            x.back();
+            Object value = c == '[' ? new JSONArray(x) : c == '{' ? new JSONObject(x) : x.nextValue();
+            return String.valueOf(value) + " more=" + x.more();
+        } catch (java.lang.Exception e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads a value with a JSONReader, returning what parse() would for the same tokener.
+     *
+     * @params JSONTokener x
+     * @returns String
+     */
+    private static String read(JSONTokener x) {
+        try {
+            JSONReader reader = new JSONReader(x);
+            reader.next();
+            Object value = reader.readValue();
+            return String.valueOf(value) + " more=" + x.more();
+        } catch (java.lang.Exception e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Skips a value with a JSONReader, returning where that left the reader.
+     *
+     * @params String text
+     * @returns String
+     */
+    private static String skipValue(String text) {
+        try {
+            JSONReader reader = new JSONReader(text);
+            reader.next();
+            reader.skipValue();
+            return "depth " + reader.getDepth();
+        } catch (java.lang.Exception e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Parses an object eagerly, or lazily with JSONObject.parseLazy().
+     *
+     * @params String text, boolean lazy
+     * @returns String
+     */
+    private static String parseObject(String text, boolean lazy) {
+        try {
+            return String.valueOf(lazy ? JSONObject.parseLazy(utf8(text)) : new JSONObject(text));
+        } catch (java.lang.Exception e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    private static String show(Object value) {
+        return value == null ? "(none)" : value.getClass().getSimpleName() + ":" + value;
+    }
+
+    private static String keys(JSONObject object) {
+        List<String> keys = new ArrayList<String>();
+        for (Iterator<?> it = object.keys(); it.hasNext();) {
+            keys.add((String) it.next());
+        }
+        return keys.toString();
+    }
+
+    private static String names(JSONObject object) {
+        String[] names = JSONObject.getNames(object);
+        return names == null ? "(none)" : Arrays.toString(names);
+    }
+
+    private static String get(JSONObject object, String key) {
+        try {
+            return show(object.get(key));
+        } catch (JSONException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Walks an eager and a lazy copy of the same value in step, applying the same random reads and writes to
+     * both.
+     *
+     * @params String text, Object eager, Object lazy
+     * @returns boolean false once the two have disagreed
+     */
+    private boolean walk(String text, Object eager, Object lazy) throws JSONException {
+        for (int step = 0; step < 6; step++) {
+            String expected;
+            String actual;
+            String what;
+            if (eager instanceof JSONObject) {
+                JSONObject x = (JSONObject) eager;
+                JSONObject y = (JSONObject) lazy;
+                String key = KEYS[this.random.nextInt(KEYS.length)].replace("\\u0041", "A");
+                int op = this.random.nextInt(10);
+                what = "lazy object op " + op + " on " + key;
+                switch (op) {
+                    case 0: expected = show(x.opt(key)); actual = show(y.opt(key)); break;
+                    case 1: expected = x.has(key) + " " + x.length(); actual = y.has(key) + " " + y.length(); break;
+                    case 2: expected = get(x, key); actual = get(y, key); break;
+                    case 3:
+                        expected = x.optString(key) + x.optInt(key) + x.optBoolean(key) + x.optDouble(key);
+                        actual = y.optString(key) + y.optInt(key) + y.optBoolean(key) + y.optDouble(key);
+                        break;
+                    case 4:
+                        if ((x.opt(key) instanceof JSONObject || x.opt(key) instanceof JSONArray) && !this.walk(text, x.opt(key), y.opt(key))) {
+                            return false;
+                        }
+                        expected = actual = "";
+                        break;
+                    case 5: expected = x.toString(); actual = y.toString(); break;
+                    case 6: x.put(key, step); y.put(key, step); expected = x.toString(); actual = y.toString(); break;
+                    case 7: expected = show(x.remove(key)); actual = show(y.remove(key)); break;
+                    case 8: expected = keys(x); actual = keys(y); break;
+                    default: expected = names(x) + x.length(); actual = names(y) + y.length();
+                }
+            } else {
+                JSONArray x = (JSONArray) eager;
+                JSONArray y = (JSONArray) lazy;
+                int index = x.length() == 0 ? 0 : this.random.nextInt(x.length() + 1);
+                int op = this.random.nextInt(7);
+                what = "lazy array op " + op + " at " + index;
+                switch (op) {
+                    case 0: expected = show(x.opt(index)); actual = show(y.opt(index)); break;
+                    case 1: expected = "" + x.length(); actual = "" + y.length(); break;
+                    case 2:
+                        if ((x.opt(index) instanceof JSONObject || x.opt(index) instanceof JSONArray) && !this.walk(text, x.opt(index), y.opt(index))) {
+                            return false;
+                        }
+                        expected = actual = "";
+                        break;
+                    case 3: expected = x.toString(); actual = y.toString(); break;
+                    case 4:
+                        expected = index < x.length() ? show(x.remove(index)) : "";
+                        actual = index < y.length() ? show(y.remove(index)) : "";
+                        break;
+                    case 5: x.put(index + 1, "v" + step); y.put(index + 1, "v" + step); expected = x.toString(); actual = y.toString(); break;
+                    default: expected = x.optString(index) + x.optLong(index) + x.isNull(index); actual = y.optString(index) + y.optLong(index) + y.isNull(index);
+                }
+            }
+            this.check(what, text, expected, actual);
+            if (!expected.equals(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * JSONObject.stringToValue() as it was before numbers were scanned by JSONNumber, to check the new scanner
+     * against.
+     *
+     * @params String string
+     * @returns Object
+     */
+    private static Object legacyStringToValue(String string) {
+        if (string.equals("")) {
+            return string;
+        }
+        if (string.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (string.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        if (string.equalsIgnoreCase("null")) {
+            return JSONObject.NULL;
+        }
+        char b = string.charAt(0);
+        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            try {
+                if (string.indexOf('.') > -1 || string.indexOf('e') > -1 || string.indexOf('E') > -1) {
+                    Double d = Double.valueOf(string);
+                    if (!d.isInfinite() && !d.isNaN()) {
+                        return d;
+                    }
+                } else {
+                    Long l = Long.valueOf(string);
+                    if (l.longValue() == l.intValue()) {
+                        return Integer.valueOf(l.intValue());
+                    }
+                    return l;
+                }
+            } catch (java.lang.Exception ignore) {
+            }
+        }
+        return string;
+    }
+
+    /**
+     * Describes how two values differ, down to the bits of a double, or returns null if they don't.
+     */
+    private static String difference(Object a, Object b) {
+        if (a.getClass() != b.getClass()) {
+            return show(a) + " vs " + show(b);
+        }
+        if (a instanceof Double) {
+            return Double.doubleToRawLongBits((Double) a) == Double.doubleToRawLongBits((Double) b) ? null : show(a) + " vs " + show(b);
+        }
+        return a.equals(b) ? null : show(a) + " vs " + show(b);
+    }
+
+    /**
+     * Parses {"v": text} as a String, as bytes and lazily, returning the three values of v, or the errors.
+     */
+    private static Object[] parseMember(String text) {
+        String document = "{\"v\":" + text + "}";
+        Object[] values = new Object[3];
+        for (int how = 0; how < values.length; how++) {
+            try {
+                JSONObject object;
+                if (how == 0) {
+                    object = new JSONObject(document);
+                } else if (how == 1) {
+                    object = new JSONObject(new JSONByteTokener(ByteBuffer.wrap(utf8(document))));
+                } else {
+                    object = JSONObject.parseLazy(utf8(document));
+                }
+                values[how] = object.get("v");
+            } catch (java.lang.Exception e) {
+                values[how] = "ERR " + e.getMessage();
+            }
+        }
+        return values;
+    }
+
+    private static String skip(JSONTokener x, char to) {
+        try {
+            char c = x.skipTo(to);
+            return (int) c + " " + (int) x.next() + " " + x.more();
+        } catch (java.lang.Exception e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Records one check, printing the first few failures.
+     *
+     * @params String what, String input, String expected, String actual
+     * @returns none
+     */
+    private void check(String what, String input, String expected, String actual) {
+        this.checks += 1;
+        if (expected.equals(actual)) {
+            return;
+        }
+        this.failures += 1;
+        if (this.failures <= 20) {
+            System.out.println("  [-] " + what + ": " + abbreviate(input));
+            System.out.println("      expected " + abbreviate(expected));
+            System.out.println("      got      " + abbreviate(actual));
+        }
+    }
+
+    /**
+     * Drops the position from an error message; a JSONByteTokener counts bytes where a JSONTokener counts
+     * characters, so the two only agree on positions in ASCII text.
+     */
+    private static String withoutPosition(String s) {
+        int at = s.indexOf(" at ");
+        return s.startsWith("ERR ") && at >= 0 ? s.substring(0, at) : s;
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String abbreviate(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length() && sb.length() < 200; i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c >= 128) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.length() < 200 ? sb.toString() : sb + "... (" + s.length() + " chars)";
+    }
+
+    public void runTokenerTests() {
+        System.out.println(" [+] JSONTokener over a String, a StringReader and a trickling Reader...");
+        int before = this.checks;
+        for (int i = 0; i < this.inputs.size(); i++) {
+            String text = this.inputs.get(i);
+            String expected = parse(new JSONTokener(text));
+            this.check("StringReader", text, expected, parse(new JSONTokener(new StringReader(text))));
+            this.check("trickling Reader", text, expected, parse(new JSONTokener(new ChunkedReader(text, i))));
+            this.check("skipTo", text, skip(new JSONTokener(text), ':'), skip(new JSONTokener(new ChunkedReader(text, i)), ':'));
+        }
+        for (String[] error : ERRORS) {
+            this.check("error", error[0], "ERR " + error[1], parse(new JSONTokener(error[0])));
+            this.check("error", error[0], "ERR " + error[1], parse(new JSONTokener(new ChunkedReader(error[0], 0))));
+        }
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    public void runByteTokenerTests() throws IOException, JSONException {
+        System.out.println(" [+] JSONByteTokener over streams, heap and direct buffers...");
+        int before = this.checks;
+        List<byte[]> texts = new ArrayList<byte[]>();
+        for (String text : this.inputs) {
+            texts.add(utf8(text));
+        }
+        texts.add(new byte[] {'[', '"', (byte) 0xC3, '"', ']'});
+        texts.add(new byte[] {'[', '"', (byte) 0xE4, (byte) 0xB8, '"', ']'});
+        texts.add(new byte[] {'[', '"', (byte) 0xFF, 'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"', ']'});
+        texts.add(new byte[] {'[', '"', (byte) 0xC0, (byte) 0x80, '"', ']'});
+        texts.add(new byte[] {'[', '"', (byte) 0xF0, (byte) 0x9F, '"', ']'});
+        texts.add(new byte[] {'[', '"', 'a', 0, '"', ']'});
+        texts.add(new byte[] {'[', 0, ']'});
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] bytes = texts.get(i);
+            String input = new String(bytes, "UTF-8");
+            String expected = parse(new JSONTokener(new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8")));
+            byte[] padded = new byte[bytes.length + 7];
+            System.arraycopy(bytes, 0, padded, 3, bytes.length);
+            ByteBuffer heap = ByteBuffer.wrap(padded, 3, bytes.length).slice();
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            direct.flip();
+            String[] actual = {
+                parse(new JSONByteTokener(new ByteArrayInputStream(bytes))),
+                parse(new JSONByteTokener(new ChunkedInputStream(bytes, i))),
+                parse(new JSONByteTokener(heap)),
+                parse(new JSONByteTokener(direct)),
+            };
+            String[] modes = {"InputStream", "trickling InputStream", "heap ByteBuffer", "direct ByteBuffer"};
+            for (int mode = 0; mode < actual.length; mode++) {
+                if (isAscii(bytes)) {
+                    this.check(modes[mode], input, expected, actual[mode]);
+                } else {
+                    this.check(modes[mode], input, withoutPosition(expected), withoutPosition(actual[mode]));
+                }
+            }
+            this.check("buffer positions", input, "0 0", heap.position() + " " + direct.position());
+            for (int seed = 1; i < TEXTS.length && seed < 16; seed++) {
+                String trickled = parse(new JSONByteTokener(new ChunkedInputStream(bytes, -seed)));
+                this.check("trickling InputStream", input, withoutPosition(expected), withoutPosition(trickled));
+            }
+        }
+
+        String text = "abc\u00e9def;ghi";
+        JSONTokener x = new JSONTokener(text);
+        String expected = (int) x.skipTo('z') + " " + x.next() + " " + (int) x.skipTo(';') + " " + x.nextTo("x");
+        x = new JSONByteTokener(new ChunkedInputStream(utf8(text), 1));
+        this.check("skipTo", text, expected, (int) x.skipTo('z') + " " + x.next() + " " + (int) x.skipTo(';') + " " + x.nextTo("x"));
+        x = new JSONByteTokener(ByteBuffer.wrap(utf8("\ud83d\ude00x")));
+        StringBuilder read = new StringBuilder();
+        read.append(x.next()).append(x.next());
+        x.back();
+        read.append(x.next()).append(x.next());
+        x.back();
+        read.append(x.next()).append(x.more());
+        this.check("back over a surrogate pair", "\ud83d\ude00x", "\ud83d\ude00\ude00xxfalse", read.toString());
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    public void runUtf8Tests(int strings) throws IOException {
+        System.out.println(" [+] JSONByteTokener decoding malformed UTF-8...");
+        int before = this.checks;
+        int[] interesting = {0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF, 0xC0, 0xC1, 0xC2, 0xDF, 0xE0, 0xE1, 0xED, 0xEF, 0xF0, 0xF4, 0xF5, 0xFF, 'a'};
+        for (int n = 0; n < strings; n++) {
+            int length = 1 + this.random.nextInt(6);
+            byte[] bytes = new byte[length + 4];
+            bytes[0] = '[';
+            bytes[1] = '"';
+            for (int i = 2; i < length + 2; i++) {
+                int b = this.random.nextBoolean() ? interesting[this.random.nextInt(interesting.length)] : this.random.nextInt(256);
+                bytes[i] = (byte) (b == '"' || b == '\\' || b == '\n' || b == '\r' || b == 0 ? 'x' : b);
+            }
+            bytes[length + 2] = '"';
+            bytes[length + 3] = ']';
+            String expected = new String(bytes, 2, length, "UTF-8");
+            String actual;
+            try {
+                actual = new JSONArray(new JSONByteTokener(new ByteArrayInputStream(bytes))).getString(0);
+            } catch (java.lang.Exception e) {
+                actual = "ERR " + e;
+            }
+            this.check("UTF-8", Arrays.toString(bytes), expected, actual);
+        }
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    public void runReaderTests() throws IOException {
+        System.out.println(" [+] JSONReader against the tree parsers...");
+        int before = this.checks;
+        for (String text : this.inputs) {
+            String expected = parse(new JSONTokener(text));
+            this.check("JSONReader over a String", text, expected, read(new JSONTokener(text)));
+            byte[] bytes = utf8(text);
+            this.check("JSONReader over bytes", text, parse(new JSONByteTokener(new ByteArrayInputStream(bytes))),
+                read(new JSONByteTokener(new ChunkedInputStream(bytes, text.length()))));
+            // skipValue() builds no objects, so it can't see a duplicate key and goes on to any later error.
+            String skipped = skipValue(text);
+            if (skipped.startsWith("ERR ") && !expected.startsWith("ERR Duplicate key")) {
+                this.check("skipValue", text, expected, skipped);
+            } else if (!expected.startsWith("ERR ")) {
+                this.check("skipValue", text, "depth 0", skipped);
+            }
+        }
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    public void runLazyTests() throws IOException, JSONException {
+        System.out.println(" [+] Lazy objects against eager ones...");
+        int before = this.checks;
+        for (String input : this.inputs) {
+            // the text the bytes decode to: getBytes() turns a lone surrogate into '?'.
+            String text = new String(utf8(input), "UTF-8");
+            String expected = parseObject(text, false);
+            String actual = parseObject(text, true);
+            if (isAscii(utf8(text))) {
+                this.check("parseLazy", text, expected, actual);
+            } else {
+                this.check("parseLazy", text, withoutPosition(expected), withoutPosition(actual));
+            }
+            if (!expected.startsWith("ERR ")) {
+                this.walk(text, new JSONObject(text), JSONObject.parseLazy(utf8(text)));
+            }
+        }
+
+        // objects past the lazy key table's threshold, with keys that share hash codes.
+        String[] colliding = {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB", "caf\u00e9", "\ud83d\ude00"};
+        String[] missing = {"missing", "Ab", "AaAaAa", "k", "", "BBB"};
+        for (int size = 1; size < 300; size += 1 + size / 4) {
+            JSONObject object = new JSONObject();
+            for (int i = 0; i < size; i++) {
+                object.put(i < colliding.length ? colliding[i] : "k" + this.random.nextInt(1000), i);
+            }
+            String text = object.toString();
+            JSONObject eager = new JSONObject(text);
+            JSONObject lazy = JSONObject.parseLazy(utf8(text));
+            for (String key : JSONObject.getNames(eager)) {
+                this.check("lazy lookup", text, show(eager.opt(key)), show(lazy.opt(key)));
+            }
+            for (String key : missing) {
+                this.check("lazy lookup", text, show(eager.opt(key)), show(lazy.opt(key)));
+            }
+            this.walk(text, eager, lazy);
+            this.check("lazy object", text, eager.toString(), lazy.toString());
+        }
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    public void runNumberTests(int count) {
+        System.out.println(" [+] Number scanning against the old stringToValue()...");
+        int before = this.checks;
+        List<String> texts = new ArrayList<String>(Arrays.asList(
+            "0", "-0", "-0.0", "1", "+1", "-", "+", ".", "1.", ".5", "-.5", "1e5", "1E+5", "1e-5", "1e", "1e+", "007",
+            "2147483647", "2147483648", "-2147483648", "-2147483649", "9223372036854775807", "9223372036854775808",
+            "-9223372036854775808", "-9223372036854775809", "12345678901234567890", "1e400", "-1e400", "1e-400",
+            "1.7976931348623157e308", "1.8e308", "4.9e-324", "0.1", "0.30000000000000004", "123456789012345678",
+            "1234567890123456789", "3.141592653589793", "1.5f", "0x10", "0x1.8p1", "1d", "1e99999999999",
+            "00000000000000000000001", "0.000000000000000000000000001", "1.00000000000000000000", "True", "NULL",
+            "1 2", "1.2.3", "-Infinity", "NaN"));
+        String alphabet = "0123456789000999.-+eE x1f";
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + this.random.nextInt(this.random.nextBoolean() ? 6 : 25);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(this.random.nextInt(this.random.nextInt(4) == 0 ? alphabet.length() : 13)));
+            }
+            texts.add(sb.toString().trim());
+            double d = this.random.nextInt(3) == 0
+                ? this.random.nextDouble() * Math.pow(10, this.random.nextInt(40) - 20)
+                : Double.longBitsToDouble(this.random.nextLong());
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                texts.add(Double.toString(d));
+            }
+            texts.add(Long.toString(this.random.nextLong() >> this.random.nextInt(64)));
+        }
+        for (String text : texts) {
+            if (text.length() == 0) {
+                continue;
+            }
+            Object legacy = legacyStringToValue(text);
+            Object value = JSONObject.stringToValue(text);
+            String difference = difference(legacy, value);
+            // the intended changes: numbers too large for a long or a double used to be left as strings, and
+            // Java's float suffixes and hexadecimal floats are no longer taken for numbers.
+            boolean intended = (legacy instanceof String && (value instanceof BigInteger || value instanceof BigDecimal))
+                || (legacy instanceof Double && value instanceof String && text.matches(".*[fFdDxX].*"));
+            this.check("stringToValue", text, "", difference == null || intended ? "" : difference);
+            if (value instanceof BigDecimal) {
+                this.check("BigDecimal", text, "0", "" + new BigDecimal(text).compareTo((BigDecimal) value));
+            }
+            if (value instanceof BigInteger) {
+                this.check("BigInteger past a long", text, "true", "" + (((BigInteger) value).bitLength() >= 64));
+            }
+
+            Object[] parsed = parseMember(text);
+            this.check("number in bytes", text, String.valueOf(parsed[0]), String.valueOf(parsed[1]));
+            this.check("number parsed lazily", text, String.valueOf(parsed[0]), String.valueOf(parsed[2]));
+            if (!String.valueOf(parsed[0]).startsWith("ERR ")) {
+                difference = difference(value, parsed[0]);
+                this.check("number in a document", text, "", difference == null ? "" : difference);
+            }
+        }
+        System.out.println("  [*] " + (this.checks - before) + " checks");
+    }
+
+    /**
+     * Runs every check and prints the outcome.
+     *
+     * @params none
+     * @returns boolean true if every check passed
+     */
+    public boolean runTests() throws IOException, JSONException {
+        System.out.println("[ Running JSON parser Tests (seed " + this.seed + ") ]");
+        this.runTokenerTests();
+        this.runByteTokenerTests();
+        this.runUtf8Tests(this.documents * 10);
+        this.runReaderTests();
+        this.runLazyTests();
+        this.runNumberTests(this.documents * 5);
+        if (this.failures == 0) {
+            System.out.println(" [+] All " + this.checks + " checks passed.");
+        } else {
+            System.out.println(" [-] " + this.failures + " of " + this.checks + " checks failed.");
+        }
+        return this.failures == 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+        if (!new JSONParserTest(documents, seed).runTests()) {
+            System.exit(1);
+        }
+    }
+}
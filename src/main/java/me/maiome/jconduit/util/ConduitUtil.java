@@ -2,6 +2,7 @@ package me.maiome.jconduit.util;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import me.maiome.jconduit.conduit.*;
 import me.maiome.jconduit.json.*;
@@ -23,6 +24,51 @@ public class ConduitUtil {
      */
     private static String certificate = "";
 
+    /**
+     * Number of PHIDs sent in each user.query call when resolving PHIDs in bulk.
+     */
+    private static int userQueryChunkSize = 100;
+
+    /**
+     * Number of user.query chunks that may be in flight at once.
+     */
+    private static int userQueryParallelism = 4;
+
+    /**
+     * Executor that user.query chunks are run on; created on first use.
+     */
+    private static ExecutorService chunkExecutor = null;
+
+    /**
+     * Files larger than this (in bytes) are downloaded but not kept in the file cache.
+     */
+    private static final int MAX_CACHED_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * Error code file.download answers with for a PHID that isn't a file the server knows.
+     */
+    private static final String FILE_NOT_FOUND_ERROR = "ERR-BAD-PHID";
+
+    /**
+     * Cache of user PHID to username; also remembers PHIDs the server doesn't know.
+     */
+    private static PhidCache<String> userCache = new PhidCache<String>(10000, 10 * 60 * 1000, 60 * 1000);
+
+    /**
+     * Cache of file PHID to file contents.
+     */
+    private static PhidCache<byte[]> fileCache = new PhidCache<byte[]>(32, 10 * 60 * 1000, 60 * 1000);
+
+    /**
+     * Resolves user PHIDs that missed the user cache.
+     */
+    private static final PhidCache.Loader<String> userLoader = new PhidCache.Loader<String>() {
+        @Override
+        public Map<String, String> load(Collection<String> phids) throws java.lang.Exception {
+            return queryUsers(new ArrayList<String>(phids));
+        }
+    };
+
     /**
      * Enumerates all Phid types that we will deal with.
      */
@@ -90,6 +136,114 @@ public class ConduitUtil {
         return certificate;
     }
 
+    /**
+     * Replaces the cache used to resolve user PHIDs.
+     *
+     * @params PhidCache<String> cache
+     * @returns void
+     */
+    public static void setUserCache(PhidCache<String> cache) {
+        userCache = cache;
+    }
+
+    /**
+     * Gets the cache used to resolve user PHIDs, e.g. to read its counters.
+     *
+     * @returns PhidCache<String> userCache
+     */
+    public static PhidCache<String> getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * Replaces the cache of downloaded file contents.
+     *
+     * @params PhidCache<byte[]> cache
+     * @returns void
+     */
+    public static void setFileCache(PhidCache<byte[]> cache) {
+        fileCache = cache;
+    }
+
+    /**
+     * Gets the cache of downloaded file contents.
+     *
+     * @returns PhidCache<byte[]> fileCache
+     */
+    public static PhidCache<byte[]> getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Sets how many PHIDs are sent in each user.query call by resolvePhabricatorUserPHIDs. Each call asks for
+     * as many rows as it sends PHIDs, so chunks over user.query's default page of 100 come back whole.
+     *
+     * @params int chunkSize
+     * @returns void
+     */
+    public static void setUserQueryChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1.");
+        }
+        userQueryChunkSize = chunkSize;
+    }
+
+    /**
+     * Gets how many PHIDs are sent in each user.query call.
+     *
+     * @returns int chunkSize
+     */
+    public static int getUserQueryChunkSize() {
+        return userQueryChunkSize;
+    }
+
+    /**
+     * Sets how many user.query chunks resolvePhabricatorUserPHIDs may run at once.
+     *
+     * @params int parallelism
+     * @returns void
+     */
+    public static synchronized void setUserQueryParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1.");
+        }
+        userQueryParallelism = parallelism;
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdown();
+            chunkExecutor = null;
+        }
+    }
+
+    /**
+     * Gets how many user.query chunks may run at once.
+     *
+     * @returns int parallelism
+     */
+    public static int getUserQueryParallelism() {
+        return userQueryParallelism;
+    }
+
+    /**
+     * Returns the executor that user.query chunks run on.
+     *
+     * @returns ExecutorService
+     */
+    private static synchronized ExecutorService getChunkExecutor() {
+        if (chunkExecutor == null) {
+            chunkExecutor = Executors.newFixedThreadPool(userQueryParallelism, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ConduitUtil user.query " + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return chunkExecutor;
+    }
+
     /**
      * Counts the number of occurences of a character in a string.
      *
@@ -132,14 +286,8 @@ public class ConduitUtil {
             return ""; // not a UserPHID
         }
         try {
-            ConduitClient client = ConduitClient.fromCertificate(getUsername(), getCertificate(), getApiUrl());
-            List<String> phidList = new ArrayList<String>();
-            phidList.add(PHID);
-            Map<String, Object> argMap = new HashMap<String, Object>();
-            argMap.put("phids", phidList);
-            JSONObject respObj = client.call("user.query", argMap);
-            respObj = client.getPreviousResponse();
-            return ((JSONObject) respObj.getJSONArray("result").get(0)).getString("userName");
+            String username = getUserCache().getAll(Collections.singletonList(PHID), userLoader).get(PHID);
+            return username == null ? "" : username;
         } catch (java.lang.Exception e) {
             e.printStackTrace();
             return "";
@@ -147,21 +295,102 @@ public class ConduitUtil {
     }
 
     /**
-     * Resolves a number of user PHIDs and returns an indexed array of their usernames.
+     * Runs one user.query call for a chunk of PHIDs and returns the usernames keyed by PHID. PHIDs the
+     * server didn't return are mapped to null.
+     *
+     * @params List<String> phids
+     * @returns Map<String, String> usernames
+     */
+    private static Map<String, String> queryUserChunk(List<String> phids) throws java.lang.Exception {
+        // each chunk gets its own client, since results are read back from getPreviousResponse().
+        ConduitClient client = ConduitClient.fromCertificate(getUsername(), getCertificate(), getApiUrl());
+        Map<String, Object> argMap = new HashMap<String, Object>();
+        argMap.put("phids", phids);
+        // user.query returns 100 rows unless told otherwise, which would drop the rest of a larger chunk.
+        argMap.put("limit", phids.size());
+        client.call("user.query", argMap);
+        JSONArray users = client.getPreviousResponse().getJSONArray("result");
+
+        Map<String, String> usernames = new HashMap<String, String>();
+        for (String phid : phids) {
+            usernames.put(phid, null);
+        }
+        for (int i = 0; i < users.length(); i++) {
+            JSONObject user = users.getJSONObject(i);
+            usernames.put(user.getString("phid"), user.getString("userName"));
+        }
+        return usernames;
+    }
+
+    /**
+     * Resolves user PHIDs in user.query calls of getUserQueryChunkSize() PHIDs each, with up to
+     * getUserQueryParallelism() calls in flight. PHIDs from chunks that failed are left out of the result.
+     *
+     * @params List<String> phids
+     * @returns Map<String, String> usernames
+     */
+    private static Map<String, String> queryUsers(List<String> phids) throws java.lang.Exception {
+        int chunkSize = getUserQueryChunkSize();
+        if (phids.size() <= chunkSize) {
+            // a single chunk runs on the calling thread, but fails the same way as one of many.
+            try {
+                return queryUserChunk(phids);
+            } catch (java.lang.Exception e) {
+                e.printStackTrace();
+                return new HashMap<String, String>();
+            }
+        }
+
+        List<Future<Map<String, String>>> chunks = new ArrayList<Future<Map<String, String>>>();
+        for (int start = 0; start < phids.size(); start += chunkSize) {
+            final List<String> chunk = phids.subList(start, Math.min(start + chunkSize, phids.size()));
+            chunks.add(getChunkExecutor().submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws java.lang.Exception {
+                    return queryUserChunk(chunk);
+                }
+            }));
+        }
+
+        Map<String, String> resolved = new HashMap<String, String>();
+        for (Future<Map<String, String>> chunk : chunks) {
+            try {
+                resolved.putAll(chunk.get());
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Resolves a number of user PHIDs and returns an indexed array of their usernames. Cached PHIDs are
+     * answered from the user cache; the rest are de-duplicated and resolved in chunked user.query calls.
+     * PHIDs that aren't user PHIDs or couldn't be resolved map to "".
      *
      * @params String[] PHIDs
      * @returns List<String> usernames
      */
     public static List<String> resolvePhabricatorUserPHIDs(String...phidArray) {
         try {
-            List<String> usernames = new ArrayList<String>();
+            Set<String> unique = new LinkedHashSet<String>();
+            for (String phid : phidArray) {
+                if (phid != null && getPHIDTag(phid).equals(PhidTypes.USER)) {
+                    unique.add(phid);
+                }
+            }
+
+            Map<String, String> resolved = getUserCache().getAll(unique, userLoader);
+
+            List<String> usernames = new ArrayList<String>(phidArray.length);
             for (int i = 0; i < phidArray.length; i++) {
-                usernames.add(i, resolvePhabricatorUserPHID(phidArray[i]));
+                String username = resolved.get(phidArray[i]);
+                usernames.add(i, username == null ? "" : username);
             }
             return usernames;
         } catch (java.lang.Exception e) {
             e.printStackTrace();
-            return new ArrayList<String>();
+            return new ArrayList<String>(Collections.nCopies(phidArray.length, ""));
         }
     }
 
@@ -172,21 +401,49 @@ public class ConduitUtil {
      * @params String saveName
      * @returns File downloadedFile
      */
-    public static File downloadFile(String phid, String saveName) {
+    public static File downloadFile(final String phid, String saveName) {
         if (!(getPHIDTag(phid).equals(PhidTypes.FILE))) {
             return new File(saveName);
         }
         try {
-            ConduitClient client = ConduitClient.fromCertificate(getUsername(), getCertificate(), getApiUrl());
-            Map<String, Object> argMap = new HashMap<String, Object>();
-            argMap.put("phid", phid);
-            JSONObject respObj = client.call("file.download", argMap);
-            respObj = client.getPreviousResponse();
-            String base64EncData = respObj.getString("result");
-            Base64.decodeToFile(base64EncData, saveName);
+            final byte[][] downloaded = new byte[1][];
+            byte[] data = getFileCache().getAll(Collections.singletonList(phid), new PhidCache.Loader<byte[]>() {
+                @Override
+                public Map<String, byte[]> load(Collection<String> phids) throws java.lang.Exception {
+                    Map<String, byte[]> files = new HashMap<String, byte[]>();
+                    ConduitClient client = ConduitClient.fromCertificate(getUsername(), getCertificate(), getApiUrl());
+                    Map<String, Object> argMap = new HashMap<String, Object>();
+                    argMap.put("phid", phid);
+                    try {
+                        client.call("file.download", argMap);
+                    } catch (ConduitException e) {
+                        if (!FILE_NOT_FOUND_ERROR.equals(e.getErrorCode())) {
+                            throw e; // a failed call isn't an answer; cache nothing.
+                        }
+                        files.put(phid, null); // the server doesn't know this file.
+                        return files;
+                    }
+                    downloaded[0] = Base64.decode(client.getPreviousResponse().getString("result"));
+                    if (downloaded[0].length <= MAX_CACHED_FILE_SIZE) {
+                        files.put(phid, downloaded[0]);
+                    }
+                    return files;
+                }
+            }).get(phid);
+            if (data == null) {
+                data = downloaded[0];
+            }
+            if (data != null) {
+                FileOutputStream out = new FileOutputStream(saveName);
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+            }
             return new File(saveName);
         } catch (java.lang.Exception e) {
             return new File(saveName);
         }
     }
-}
\ No newline at end of file
+}
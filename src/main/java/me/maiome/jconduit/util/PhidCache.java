@@ -0,0 +1,264 @@
+package me.maiome.jconduit.util;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A concurrent, size-bounded cache of objects keyed by PHID. Entries expire after a TTL and the least recently
+ * used entries are evicted once a segment is full. PHIDs the server reported as unknown are cached as
+ * negative entries (with their own, usually shorter, TTL) so repeated lookups of a bad PHID don't go back to
+ * the server either.
+ */
+public class PhidCache<V> {
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Loads values for PHIDs that weren't in the cache.
+     */
+    public interface Loader<V> {
+        /**
+         * Resolves the given PHIDs. A PHID mapped to null is known not to exist and is cached as a negative
+         * entry; a PHID left out of the map could not be resolved this time and is not cached at all.
+         *
+         * @params Collection<String> phids
+         * @returns Map<String, V>
+         */
+        Map<String, V> load(Collection<String> phids) throws java.lang.Exception;
+    }
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final List<Segment> segments;
+    private final long ttl;
+    private final long negativeTtl;
+
+    // cache statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * One lock-striped slice of the cache, kept in access order for LRU eviction.
+     */
+    private class Segment extends LinkedHashMap<String, CacheEntry<V>> {
+        private static final long serialVersionUID = 0;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+            if (this.size() > this.maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @params int maxSize, long ttl (ms), long negativeTtl (ms)
+     */
+    public PhidCache(int maxSize, long ttl, long negativeTtl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1.");
+        }
+        int segmentCount = Math.min(SEGMENTS, maxSize);
+        this.segments = new ArrayList<Segment>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the size so the segments add up to maxSize.
+            this.segments.add(new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0)));
+        }
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    private Segment segmentFor(String phid) {
+        int h = phid.hashCode();
+        h ^= (h >>> 16);
+        return this.segments.get((h & 0x7fffffff) % this.segments.size());
+    }
+
+    /**
+     * Looks up a PHID without loading it.
+     *
+     * @params String phid
+     * @returns CacheEntry, or null on a miss
+     */
+    private CacheEntry<V> lookup(String phid) {
+        Segment segment = this.segmentFor(phid);
+        synchronized (segment) {
+            CacheEntry<V> entry = segment.get(phid);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                segment.remove(phid);
+                this.expirations.incrementAndGet();
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    private void store(String phid, V value) {
+        long lifetime = value == null ? this.negativeTtl : this.ttl;
+        if (lifetime <= 0) {
+            return;
+        }
+        Segment segment = this.segmentFor(phid);
+        synchronized (segment) {
+            segment.put(phid, new CacheEntry<V>(value, System.nanoTime() + lifetime * 1000000L));
+        }
+    }
+
+    /**
+     * Returns the cached value for a PHID, or null if it isn't cached or is cached as unknown.
+     *
+     * @params String phid
+     * @returns V
+     */
+    public V getIfPresent(String phid) {
+        CacheEntry<V> entry = this.lookup(phid);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Returns the values for all of the given PHIDs, asking the loader (once) for every PHID that missed.
+     * PHIDs that are unknown, or that the loader couldn't resolve, are left out of the result.
+     *
+     * @params Collection<String> phids, Loader<V> loader
+     * @returns Map<String, V>
+     */
+    public Map<String, V> getAll(Collection<String> phids, Loader<V> loader) throws java.lang.Exception {
+        Map<String, V> result = new HashMap<String, V>();
+        Set<String> missing = new LinkedHashSet<String>();
+        for (String phid : phids) {
+            if (result.containsKey(phid) || missing.contains(phid)) {
+                continue;
+            }
+            CacheEntry<V> entry = this.lookup(phid);
+            if (entry == null) {
+                this.misses.incrementAndGet();
+                missing.add(phid);
+            } else if (entry.value == null) {
+                this.negativeHits.incrementAndGet();
+            } else {
+                this.hits.incrementAndGet();
+                result.put(phid, entry.value);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, V> loaded = loader.load(missing);
+            for (String phid : missing) {
+                if (!loaded.containsKey(phid)) {
+                    continue;
+                }
+                V value = loaded.get(phid);
+                this.store(phid, value);
+                if (value != null) {
+                    result.put(phid, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Puts a value in the cache; a null value records the PHID as unknown.
+     *
+     * @params String phid, V value
+     * @returns none
+     */
+    public void put(String phid, V value) {
+        this.store(phid, value);
+    }
+
+    /**
+     * Removes a PHID from the cache.
+     *
+     * @params String phid
+     * @returns none
+     */
+    public void invalidate(String phid) {
+        Segment segment = this.segmentFor(phid);
+        synchronized (segment) {
+            segment.remove(phid);
+        }
+    }
+
+    /**
+     * Empties the cache. Statistics are kept.
+     *
+     * @params none
+     * @returns none
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached entries, including negative and not-yet-purged expired ones.
+     *
+     * @params none
+     * @returns int
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getNegativeHitCount() {
+        return this.negativeHits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the number of entries dropped to stay within the size bound.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Returns the number of entries dropped because their TTL ran out.
+     */
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    public String toString() {
+        return String.format("PhidCache[size=%d, hits=%d, negativeHits=%d, misses=%d, evictions=%d, expirations=%d]",
+            this.size(), this.getHitCount(), this.getNegativeHitCount(), this.getMissCount(), this.getEvictionCount(), this.getExpirationCount());
+    }
+}
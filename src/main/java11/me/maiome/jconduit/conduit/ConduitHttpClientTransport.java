@@ -0,0 +1,146 @@
+package me.maiome.jconduit.conduit;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends calls through java.net.http.HttpClient, which multiplexes concurrent calls over a single HTTP/2
+ * connection per host (negotiated with ALPN over https, or an h2c upgrade over plain http) and falls back to
+ * HTTP/1.1 for servers that don't speak HTTP/2. postAsync() doesn't hold a thread while the server works.
+ */
+public class ConduitHttpClientTransport implements ConduitAsyncTransport {
+
+    private final HttpClient client;
+    private final Duration readTimeout;
+    private volatile boolean acceptCompressedResponses = true;
+
+    /**
+     * Constructs a transport with the connection pool's default timeouts, running completions on the
+     * HttpClient's own executor.
+     *
+     * @params none
+     */
+    public ConduitHttpClientTransport() {
+        this(ConduitConnectionPool.DEFAULT_CONNECT_TIMEOUT, ConduitConnectionPool.DEFAULT_READ_TIMEOUT, null);
+    }
+
+    /**
+     * Constructs a transport with the given timeouts (in ms). Asynchronous responses are handed over on the
+     * executor; if it is null, the HttpClient's default executor is used.
+     *
+     * @params int connectTimeout, int readTimeout, Executor executor
+     */
+    public ConduitHttpClientTransport(int connectTimeout, int readTimeout, Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(connectTimeout));
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.client = builder.build();
+        this.readTimeout = Duration.ofMillis(readTimeout);
+    }
+
+    /**
+     * Returns true if this JVM has java.net.http (Java 11 and newer).
+     *
+     * @params none
+     * @returns boolean
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Sets whether to ask the server for gzip or deflate compressed responses.
+     *
+     * @params boolean acceptCompressedResponses
+     * @returns none
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    public boolean getAcceptCompressedResponses() {
+        return this.acceptCompressedResponses;
+    }
+
+    private HttpRequest request(URL url, ConduitRequestEncoder body) throws IOException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad Conduit URL: " + url, e);
+        }
+        // the body is encoded as the client sends it, a few KB at a time, rather than buffered whole first.
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.fromPublisher(
+            HttpRequest.BodyPublishers.ofInputStream(body::openStream), body.getContentLength());
+        request.timeout(this.readTimeout)
+            .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+            .POST(publisher);
+        if (this.acceptCompressedResponses) {
+            request.header("Accept-Encoding", "gzip, deflate");
+        }
+        return request.build();
+    }
+
+    /**
+     * Checks the status and undoes any content-coding.
+     *
+     * @params HttpResponse<?> response, InputStream body
+     * @returns InputStream
+     */
+    private static InputStream body(HttpResponse<?> response, InputStream body) throws IOException {
+        if (response.statusCode() >= 400) {
+            body.close();
+            throw new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + response.uri());
+        }
+        String contentEncoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        try {
+            return ConduitConnection.decode(body, contentEncoding == null ? null : contentEncoding.toLowerCase());
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream post(URL url, ConduitRequestEncoder body) throws IOException {
+        try {
+            HttpResponse<InputStream> response = this.client.send(this.request(url, body), HttpResponse.BodyHandlers.ofInputStream());
+            return body(response, response.body());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url);
+        }
+    }
+
+    @Override
+    public void postAsync(URL url, ConduitRequestEncoder body, final ResponseHandler handler) {
+        HttpRequest request;
+        try {
+            request = this.request(url, body);
+        } catch (IOException e) {
+            handler.onFailure(e);
+            return;
+        }
+        // the whole body is buffered before the handler runs, so parsing it never blocks a client thread.
+        this.client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            if (error != null) {
+                handler.onFailure(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            InputStream in;
+            try {
+                in = body(response, new ByteArrayInputStream(response.body()));
+            } catch (IOException e) {
+                handler.onFailure(e);
+                return;
+            }
+            handler.onResponse(in);
+        });
+    }
+}
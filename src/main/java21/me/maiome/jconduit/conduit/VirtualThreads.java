@@ -0,0 +1,21 @@
+package me.maiome.jconduit.conduit;
+
+import java.util.concurrent.*;
+
+/**
+ * Access to virtual threads, for Java 21 and newer. Packaged under META-INF/versions/21 of the multi-release
+ * jar, where it replaces the baseline version.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + " ", 1).factory());
+    }
+}